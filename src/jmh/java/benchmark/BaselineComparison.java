@@ -0,0 +1,246 @@
+package benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * @author daan
+ *         <p>
+ *         Compares the JSON results of a JMH run with a baseline recorded the same way. All benchmarks measure the
+ *         average time per operation, so a higher score is a slowdown. Benchmarks which slowed down by more than the
+ *         tolerance are reported as regressions, the exit code is then 1.
+ *         <p>
+ *         Usage : BaselineComparison baseline.json result.json [tolerance in %, 10 by default]
+ */
+public final class BaselineComparison {
+
+    private static final double DEFAULT_TOLERANCE = 10;
+
+    private BaselineComparison() {
+        throw new AssertionError("BaselineComparison is a static class.");
+    }
+
+    /**
+     * The score of one benchmark with one set of parameters.
+     */
+    private static final class Score {
+        private final double score, error;
+        private final String unit;
+
+        private Score(double score, double error, String unit) {
+            this.score = score;
+            this.error = error;
+            this.unit = unit;
+        }
+    }
+
+    public static void main(String... args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage : BaselineComparison baseline.json result.json [tolerance in %]");
+            System.exit(2);
+        }
+        if (!Files.exists(Paths.get(args[0]))) {
+            System.err.println("There is no baseline at " + args[0] + ", record one by running the benchmarks with -Djmh.result=" + args[0]);
+            System.exit(2);
+        }
+        final double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_TOLERANCE;
+        final Map<String, Score> baseline = readScores(args[0]);
+        final Map<String, Score> result = readScores(args[1]);
+
+        int regressions = 0;
+        System.out.printf("%-90s %14s %14s %9s%n", "BENCHMARK", "BASELINE", "RESULT", "CHANGE");
+        for (Map.Entry<String, Score> entry : result.entrySet()) {
+            final Score current = entry.getValue();
+            final Score previous = baseline.get(entry.getKey());
+            if (previous == null) {
+                System.out.printf("%-90s %14s %14s %9s%n", entry.getKey(), "-", format(current), "new");
+                continue;
+            }
+            if (!previous.unit.equals(current.unit)) {
+                System.out.printf("%-90s %14s %14s %9s%n", entry.getKey(), format(previous), format(current), "unit?");
+                continue;
+            }
+            final double change = (current.score - previous.score) / previous.score * 100;
+            //A slowdown within the error margins of both runs is noise
+            final boolean regression = change > tolerance && current.score - previous.score > current.error + previous.error;
+            if (regression)
+                regressions++;
+            System.out.printf("%-90s %14s %14s %+8.1f%%%s%n", entry.getKey(), format(previous), format(current), change,
+                    regression ? "  REGRESSION" : "");
+        }
+        baseline.keySet().stream().filter(key -> !result.containsKey(key))
+                .forEach(key -> System.out.printf("%-90s %14s %14s %9s%n", key, format(baseline.get(key)), "-", "missing"));
+
+        System.out.println(regressions == 0 ? "No regressions beyond " + tolerance + " %."
+                : regressions + " benchmark(s) slowed down by more than " + tolerance + " %.");
+        System.exit(regressions == 0 ? 0 : 1);
+    }
+
+    private static String format(Score score) {
+        return String.format("%.3f %s", score.score, score.unit);
+    }
+
+    /**
+     * @return the scores by benchmark name and parameters, e.g. "global.model.DefaultResultBenchmark.buildResultFromPartials {partialCount=1000}"
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Score> readScores(String file) throws IOException {
+        final String json = new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8);
+        final Map<String, Score> scores = new TreeMap<>();
+        for (Object benchmark : (List<Object>) new JsonReader(json).read()) {
+            final Map<String, Object> run = (Map<String, Object>) benchmark;
+            final Map<String, Object> metric = (Map<String, Object>) run.get("primaryMetric");
+            final Object params = run.get("params");
+            final String key = run.get("benchmark") + (params == null ? "" : " " + new TreeMap<>((Map<String, Object>) params));
+            scores.put(key, new Score(toDouble(metric.get("score")), toDouble(metric.get("scoreError")),
+                    String.valueOf(metric.get("scoreUnit"))));
+        }
+        return scores;
+    }
+
+    /**
+     * @return the number, 0 if it's missing or NaN. JMH writes "NaN" for the error of runs with a single measurement.
+     */
+    private static double toDouble(Object value) {
+        try {
+            final double number = value instanceof Double ? (Double) value : Double.parseDouble(String.valueOf(value));
+            return Double.isNaN(number) ? 0 : number;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Just enough of a JSON parser for the result files of JMH. Objects become LinkedHashMaps, arrays ArrayLists and
+     * numbers Doubles.
+     */
+    private static final class JsonReader {
+        private final String json;
+        private int position = 0;
+
+        private JsonReader(String json) {
+            this.json = json;
+        }
+
+        private Object read() {
+            skipWhitespace();
+            if (position >= json.length())
+                throw new IllegalArgumentException("Unexpected end of the JSON");
+            final char character = json.charAt(position);
+            switch (character) {
+                case '{':
+                    return readObject();
+                case '[':
+                    return readArray();
+                case '"':
+                    return readString();
+                default:
+                    return readLiteral();
+            }
+        }
+
+        private Map<String, Object> readObject() {
+            final Map<String, Object> object = new LinkedHashMap<>();
+            position++;
+            skipWhitespace();
+            if (json.charAt(position) == '}') {
+                position++;
+                return object;
+            }
+            while (true) {
+                skipWhitespace();
+                final String key = readString();
+                skipWhitespace();
+                expect(':');
+                object.put(key, read());
+                skipWhitespace();
+                if (json.charAt(position++) == '}')
+                    return object;
+            }
+        }
+
+        private List<Object> readArray() {
+            final List<Object> array = new ArrayList<>();
+            position++;
+            skipWhitespace();
+            if (json.charAt(position) == ']') {
+                position++;
+                return array;
+            }
+            while (true) {
+                array.add(read());
+                skipWhitespace();
+                if (json.charAt(position++) == ']')
+                    return array;
+            }
+        }
+
+        private String readString() {
+            expect('"');
+            final StringBuilder string = new StringBuilder();
+            char character;
+            while ((character = json.charAt(position++)) != '"') {
+                if (character == '\\') {
+                    final char escaped = json.charAt(position++);
+                    switch (escaped) {
+                        case 'n':
+                            string.append('\n');
+                            break;
+                        case 't':
+                            string.append('\t');
+                            break;
+                        case 'r':
+                            string.append('\r');
+                            break;
+                        case 'b':
+                            string.append('\b');
+                            break;
+                        case 'f':
+                            string.append('\f');
+                            break;
+                        case 'u':
+                            string.append((char) Integer.parseInt(json.substring(position, position + 4), 16));
+                            position += 4;
+                            break;
+                        default:
+                            string.append(escaped);
+                    }
+                } else {
+                    string.append(character);
+                }
+            }
+            return string.toString();
+        }
+
+        private Object readLiteral() {
+            final int start = position;
+            while (position < json.length() && ",}] \t\r\n".indexOf(json.charAt(position)) < 0)
+                position++;
+            final String literal = json.substring(start, position);
+            switch (literal) {
+                case "true":
+                    return Boolean.TRUE;
+                case "false":
+                    return Boolean.FALSE;
+                case "null":
+                    return null;
+                default:
+                    return Double.parseDouble(literal);
+            }
+        }
+
+        private void expect(char expected) {
+            if (json.charAt(position) != expected)
+                throw new IllegalArgumentException("Expected '" + expected + "' at " + position + " of the JSON");
+            position++;
+        }
+
+        private void skipWhitespace() {
+            while (position < json.length() && Character.isWhitespace(json.charAt(position)))
+                position++;
+        }
+    }
+}
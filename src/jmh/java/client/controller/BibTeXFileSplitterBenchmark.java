@@ -0,0 +1,50 @@
+package client.controller;
+
+import client.model.ClientFileModel;
+import global.model.IEntry;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author daan
+ *         <p>
+ *         Measures the preparation of a request on the client for the files in test_files: createEntryList builds the
+ *         entries of a ClientFileModel, whose file was parsed when it was added, splitBibFile parses the file itself.
+ *         Run from the project directory, the files are looked up relative to it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BibTeXFileSplitterBenchmark {
+
+    @Param({"xampl.bib", "mybib2.bib", "rfc.bib"})
+    private String bibFileName;
+
+    private File bibFile;
+    private ClientFileModel clientFileModel;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        bibFile = new File("test_files", bibFileName);
+        clientFileModel = new ClientFileModel("benchmark");
+        if (!clientFileModel.addBibFile(bibFile))
+            throw new IllegalStateException("Couldn't add " + bibFile.getAbsolutePath());
+    }
+
+    @Benchmark
+    public ArrayList<IEntry> createEntryList() {
+        return BibTeXFileSplitter.INSTANCE.createIEntryListFromClientFileModel(clientFileModel, "benchmark");
+    }
+
+    @Benchmark
+    public List<String> splitBibFile() {
+        return BibTeXFileSplitter.INSTANCE.splitBibFile(bibFile);
+    }
+}
@@ -0,0 +1,50 @@
+package global.model;
+
+import global.identifiers.EntryIdentifier;
+import global.identifiers.PartialResultIdentifier;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author daan
+ *         <p>
+ *         Measures DefaultResult.buildResultfromPartials, which the PartialResultCollector runs once all partials of
+ *         a request arrived. Every entry is converted with CSL_FILE_COUNT csl files, the partials come in random order
+ *         as they do from several MicroServices.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DefaultResultBenchmark {
+
+    private static final int CSL_FILE_COUNT = 2;
+
+    @Param({"1000", "100000"})
+    private int partialCount;
+
+    private List<IPartialResult> partials;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        partials = new ArrayList<>(partialCount);
+        for (int partial = 0; partial < partialCount; partial++) {
+            final EntryIdentifier entryIdentifier = new EntryIdentifier("benchmark", "benchmark", 0, partial / CSL_FILE_COUNT);
+            partials.add(new DefaultPartialResult(SerializationBenchmark.PARTIAL_CONTENT,
+                    new PartialResultIdentifier(entryIdentifier, partial % CSL_FILE_COUNT, 0)));
+        }
+        Collections.shuffle(partials, new Random(42));
+    }
+
+    @Benchmark
+    public DefaultResult buildResultFromPartials() {
+        return DefaultResult.buildResultfromPartials(partials);
+    }
+}
@@ -0,0 +1,80 @@
+package global.model;
+
+import global.identifiers.EntryIdentifier;
+import global.identifiers.PartialResultIdentifier;
+import org.apache.commons.lang3.SerializationUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author daan
+ *         <p>
+ *         Measures the Java serialization round trip of the messages exchanged over RabbitMQ: an entry as the client
+ *         sends it, a partial as the MicroService returns it and the result of a request of RESULT_SIZE entries.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+
+    private static final int RESULT_SIZE = 1000;
+    static final String ENTRY_CONTENT = "@ARTICLE{article-full,\n   author = {L[eslie] A. Aamport},\n"
+            + "   title = {The Gnats and Gnus Document Preparation System},\n   journal = {\\mbox{G-Animal's} Journal},\n"
+            + "   year = 1986,\n   volume = 41,\n   number = 7,\n   pages = \"73+\",\n   month = jul,\n"
+            + "   note = \"This is a full ARTICLE entry\",\n}";
+    static final String PARTIAL_CONTENT = "<div id=\"ref-article-full\"><p>Aamport, L. A. (1986). The gnats and gnus "
+            + "document preparation system. <em>G-Animal's Journal</em>, <em>41</em>(7), 73+.</p></div>\n";
+
+    private DefaultEntry entry;
+    private DefaultPartialResult partialResult;
+    private DefaultResult result;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        entry = new DefaultEntry.Builder("benchmark")
+                .requestID("benchmark")
+                .content(ENTRY_CONTENT)
+                .cslFiles(new ArrayList<>(Collections.singletonList("<style/>")))
+                .templateFiles(new ArrayList<>(Collections.singletonList("<html>$body$</html>")))
+                .bibFileIndex(0)
+                .positionInBibFile(0)
+                .build();
+        partialResult = createPartial("benchmark", 0);
+        final List<IPartialResult> partials = new ArrayList<>(RESULT_SIZE);
+        for (int position = 0; position < RESULT_SIZE; position++)
+            partials.add(createPartial("benchmark", position));
+        result = DefaultResult.buildResultfromPartials(partials);
+    }
+
+    static DefaultPartialResult createPartial(String requestID, int positionInBibFile) {
+        return new DefaultPartialResult(PARTIAL_CONTENT,
+                new PartialResultIdentifier(new EntryIdentifier("benchmark", requestID, 0, positionInBibFile), 0, 0));
+    }
+
+    private static <T extends Serializable> T roundTrip(T object) {
+        return SerializationUtils.deserialize(SerializationUtils.serialize(object));
+    }
+
+    @Benchmark
+    public DefaultEntry entry() {
+        return roundTrip(entry);
+    }
+
+    @Benchmark
+    public DefaultPartialResult partialResult() {
+        return roundTrip(partialResult);
+    }
+
+    @Benchmark
+    public DefaultResult result() {
+        return roundTrip(result);
+    }
+}
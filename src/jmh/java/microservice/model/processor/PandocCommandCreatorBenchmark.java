@@ -0,0 +1,38 @@
+package microservice.model.processor;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author daan
+ *         <p>
+ *         Measures building the pandoc command of a partial the way DefaultEntryProcessor does for every csl file and
+ *         template of an entry.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PandocCommandCreatorBenchmark {
+
+    private String wrapperFileName = "4f1c2a9e-wrapper.md";
+    private String resultFileName = "4f1c2a9e-result.html";
+    private String cslFileName = "4f1c2a9e-0.csl";
+    private String templateFileName = "4f1c2a9e-0.html";
+
+    @Benchmark
+    public String buildCommandString() {
+        return new PandocCommandCreator.PandocCommandCreatorBuilder(wrapperFileName, resultFileName, cslFileName, templateFileName)
+                .useCustomDefaultCsl(false)
+                .useCustomDefaultTemplate(false)
+                .defaultCslName("custom_default.csl")
+                .defaultTemplateName("custom_default_template.html")
+                .usePandocDefaultCsl(false)
+                .usePandocDefaultTemplate(false)
+                .build()
+                .buildCommandString();
+    }
+}
@@ -0,0 +1,99 @@
+package server.events;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author daan
+ *         <p>
+ *         Measures EventManager.publishEvent in ns per event: for an event nobody listens to, for one synchronous
+ *         listener of its class, for one listener of a supertype and for one asynchronous listener.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EventManagerPublishBenchmark {
+
+    private static class UnobservedEvent implements IEvent {
+    }
+
+    private static class ObservedEvent implements IEvent {
+    }
+
+    private interface MarkerEvent extends IEvent {
+    }
+
+    private static class InheritedEvent implements MarkerEvent {
+    }
+
+    private static class AsyncEvent implements IEvent {
+    }
+
+    private static class CountingListener implements IEventListener {
+        private final Class<? extends IEvent> eventType;
+        private long count = 0;
+
+        private CountingListener(Class<? extends IEvent> eventType) {
+            this.eventType = eventType;
+        }
+
+        @Override
+        public void notify(IEvent toNotify) {
+            count++;
+        }
+
+        @Override
+        public Set<Class<? extends IEvent>> getEvents() {
+            return Collections.singleton(eventType);
+        }
+    }
+
+    private final EventManager eventManager = EventManager.getInstance();
+    private final CountingListener observedListener = new CountingListener(ObservedEvent.class);
+    private final CountingListener markerListener = new CountingListener(MarkerEvent.class);
+    private final CountingListener asyncListener = new CountingListener(AsyncEvent.class);
+    private final IEvent unobservedEvent = new UnobservedEvent();
+    private final IEvent observedEvent = new ObservedEvent();
+    private final IEvent inheritedEvent = new InheritedEvent();
+    private final IEvent asyncEvent = new AsyncEvent();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        eventManager.registerListener(observedListener);
+        eventManager.registerListener(markerListener);
+        eventManager.registerAsyncListener(asyncListener);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        eventManager.unregisterListener(observedListener);
+        eventManager.unregisterListener(markerListener);
+        eventManager.unregisterListener(asyncListener);
+    }
+
+    @Benchmark
+    public void noListener() {
+        eventManager.publishEvent(unobservedEvent);
+    }
+
+    @Benchmark
+    public void synchronousListener() {
+        eventManager.publishEvent(observedEvent);
+    }
+
+    @Benchmark
+    public void supertypeListener() {
+        eventManager.publishEvent(inheritedEvent);
+    }
+
+    @Benchmark
+    public void asynchronousListener() {
+        eventManager.publishEvent(asyncEvent);
+    }
+}
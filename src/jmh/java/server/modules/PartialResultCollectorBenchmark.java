@@ -0,0 +1,56 @@
+package server.modules;
+
+import global.identifiers.EntryIdentifier;
+import global.identifiers.PartialResultIdentifier;
+import global.model.DefaultPartialResult;
+import global.model.IPartialResult;
+import org.openjdk.jmh.annotations.*;
+import server.events.ReceivedPartialResultEvent;
+import server.events.RequestAcceptedEvent;
+import server.events.RequestStoppedEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author daan
+ *         <p>
+ *         Measures the ingest of partials by the PartialResultCollector in ns per partial: Each invocation accepts a
+ *         request, hands REQUEST_SIZE partials to the collector and stops the request. The request expects one partial
+ *         more than it gets, so the update loop of the collector never assembles it meanwhile.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PartialResultCollectorBenchmark {
+
+    private static final int REQUEST_SIZE = 10_000;
+    private static final String REQUEST_ID = "benchmark";
+
+    private PartialResultCollector collector;
+    private List<ReceivedPartialResultEvent> partialEvents;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        collector = PartialResultCollector.getInstance();
+        partialEvents = new ArrayList<>(REQUEST_SIZE);
+        for (int position = 0; position < REQUEST_SIZE; position++) {
+            final IPartialResult partialResult = new DefaultPartialResult("<p>Entry " + position + "</p>\n",
+                    new PartialResultIdentifier(new EntryIdentifier("benchmark", REQUEST_ID, 0, position), 0, 0));
+            partialEvents.add(new ReceivedPartialResultEvent(partialResult));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REQUEST_SIZE)
+    public void ingest() {
+        collector.notify(new RequestAcceptedEvent(REQUEST_ID, REQUEST_SIZE + 1));
+        for (ReceivedPartialResultEvent partialEvent : partialEvents)
+            collector.notify(partialEvent);
+        collector.notify(new RequestStoppedEvent(REQUEST_ID));
+    }
+}
@@ -5,45 +5,36 @@ import global.logging.Log;
 import global.logging.LogLevel;
 import global.model.DefaultEntry;
 import global.model.IEntry;
-import org.jbibtex.*;
 
 import java.io.*;
+import java.nio.file.NoSuchFileException;
 import java.util.ArrayList;
-import java.util.Map;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * @author daan
  *         created on 12/21/16.
- *  Used in the Client Class to prepare the BibTex files for transmission. This is achieved by first converting
- *  the files to a list of Strings in createEntryContentList and then building a DefaultEntry object of each String.
+ *  Used in the Client Class to prepare the BibTex files for transmission. Each file is split into the text of its
+ *  entries by a StreamingBibTeXSplitter, once, when the ClientFileModel validates it. A DefaultEntry object is
+ *  built of each entry kept by the model.
  *  Besides, it adds the respective csl files and templates to each DefaultEntry.
+ *  The files are split in parallel on a ForkJoinPool, the entries keep the order of their files.
  */
 public enum BibTeXFileSplitter {
     INSTANCE;
 
-    private final BibTeXEntryFormatter bibTeXEntryFormatter = new BibTeXEntryFormatter();
+    private volatile ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
 
-    private final class BibTeXEntryFormatter extends BibTeXFormatter {
-
-        private BibTeXEntryFormatter() {
-        }
-
-        private String formatBibTeXEntryAsString(BibTeXEntry bibTeXEntry, StringWriter stringWriter) {
-            try {
-                format(bibTeXEntry, stringWriter);
-            } catch (IOException e) {
-                Log.log("couldn't format bibTeXEntry as String.", e);
-                return null;
-            }
-            return stringWriter.toString();
-        }
-
-    }
-
-    public ArrayList<IEntry> createIEntryListFromClientFileModel(ClientFileModel clientFileModel) {
-        Objects.requireNonNull(clientFileModel, "(clientFileModel == null) in BibTexEntryFormatter.createIEntryListFromClientFileModel()");
-        ArrayList<IEntry> entryObjectList = new ArrayList<>();
+    /**
+     * @param requestID the ID of the request the entries are sent with
+     */
+    public ArrayList<IEntry> createIEntryListFromClientFileModel(ClientFileModel clientFileModel, String requestID) {
+        Objects.requireNonNull(clientFileModel, "(clientFileModel == null) in BibTeXFileSplitter.createIEntryListFromClientFileModel()");
         ArrayList<String> cslFilesAsStrings, templatesAsStrings;
         try {
             cslFilesAsStrings = ClientFileHandler.createStringListFromFileList(clientFileModel.getCslFiles());
@@ -52,69 +43,78 @@ public enum BibTeXFileSplitter {
             Log.log("couldn't create stringLists from fileLists.", e);
             return null;
         }
-        //create DefaultEntry-Objects
-        DefaultEntry currentEntryObject;
-        for (int bibFileIndex = 0; bibFileIndex < clientFileModel.getBibFiles().size(); bibFileIndex++) {
-            ArrayList<String> entryContentList = this.createEntryContentList(clientFileModel.getBibFiles().get(bibFileIndex));
-            if (entryContentList != null) {
-                for (int positionInBibFile = 0; positionInBibFile < entryContentList.size(); positionInBibFile++) {
-                    currentEntryObject =
-                            new DefaultEntry.Builder(clientFileModel.getClientID())
-                                    .content(entryContentList.get(positionInBibFile))
-                                    .cslFiles(cslFilesAsStrings)
-                                    .templateFiles(templatesAsStrings)
-                                    .bibFileIndex(bibFileIndex)
-                                    .positionInBibFile(positionInBibFile)
-                                    .build();
-                    entryObjectList.add(currentEntryObject);
-                }
-            }
+        final List<File> bibFiles = clientFileModel.getBibFiles();
+        final List<ArrayList<IEntry>> entryLists;
+        try {
+            entryLists = pool.submit(() -> IntStream.range(0, bibFiles.size())
+                    .parallel()
+                    .mapToObj(bibFileIndex -> createEntryList(clientFileModel, requestID, bibFiles.get(bibFileIndex), bibFileIndex,
+                            cslFilesAsStrings, templatesAsStrings))
+                    .collect(Collectors.toList())).get();
+        } catch (InterruptedException | ExecutionException e) {
+            Log.log("couldn't split the .bib-files.", e);
+            return null;
         }
+        ArrayList<IEntry> entryObjectList = new ArrayList<>();
+        entryLists.forEach(entryList -> {
+            if (entryList != null)
+                entryObjectList.addAll(entryList);
+        });
         return entryObjectList;
     }
 
-    ArrayList<String> createEntryContentList(File bibFile) {
-        Objects.requireNonNull(bibFile, "(bibFile == null) in BibTexEntryFormatter.createEntryContentList()");
-        BibTeXDatabase bibTeXDatabase = BibTeXFileSplitter.getBibTeXDatabaseFromFile(bibFile);
-        if (bibTeXDatabase != null) {
-            ArrayList<String> entryContentList = new ArrayList<>();
-            StringWriter stringWriter;
-            for (Map.Entry currentBibTeXEntry : bibTeXDatabase.getEntries().entrySet()) {
-                stringWriter = new StringWriter();
-                entryContentList.add(bibTeXEntryFormatter.formatBibTeXEntryAsString((BibTeXEntry) currentBibTeXEntry.getValue(), stringWriter));
-                try {
-                    stringWriter.close();
-                } catch (IOException e) {
-                    Log.log("couldn't close StringWriter in BibTeXFileSplitter.", e);
-                }
-
-            }
-            return entryContentList;
-        }
-        return null;
+    /**
+     * @return the entries of the file or null, if it is invalid
+     */
+    private ArrayList<IEntry> createEntryList(ClientFileModel clientFileModel, String requestID, File bibFile, int bibFileIndex,
+                                              ArrayList<String> cslFilesAsStrings, ArrayList<String> templatesAsStrings) {
+        //Parsed when the file was added, unless it changed since
+        final List<String> entryContents = clientFileModel.getEntryContents(bibFile);
+        if (entryContents == null)
+            return null;
+        ArrayList<IEntry> entryList = new ArrayList<>(entryContents.size());
+        entryContents.forEach(entryContent -> entryList.add(
+                new DefaultEntry.Builder(clientFileModel.getClientID())
+                        .requestID(requestID)
+                        .content(entryContent)
+                        .cslFiles(cslFilesAsStrings)
+                        .templateFiles(templatesAsStrings)
+                        .bibFileIndex(bibFileIndex)
+                        .positionInBibFile(entryList.size())
+                        .build()));
+        return entryList;
     }
 
-    static BibTeXDatabase getBibTeXDatabaseFromFile(File bibFile) {
-        FileReader fileReader;
+    /**
+     * Splits the file into the text of its entries.
+     *
+     * @return the text of the entries or null, if the file is missing or invalid
+     */
+    public List<String> splitBibFile(File bibFile) {
+        final List<String> entryContents = new ArrayList<>();
         try {
-            fileReader = new FileReader(bibFile);
-        } catch (FileNotFoundException e) {
+            new StreamingBibTeXSplitter(bibFile).split(entryContents::add);
+        } catch (FileNotFoundException | NoSuchFileException e) {
             Log.log("couldn't find .bib-file in BibTeXFileSplitter.", e);
             return null;
+        } catch (IOException e) {
+            Log.log("invalid .bib-file " + bibFile + ": " + e.getMessage(), LogLevel.WARNING);
+            return null;
         }
-        BibTeXDatabase result = null;
-        try {
-            BibTeXParser parser = new BibTeXParser();
-            result = parser.parse(fileReader);
-            try {
-                fileReader.close();
-            } catch (IOException e) {
-                Log.log("couldn't close FileReader in BibTeXFileSplitter.", e);
-            }
-        } catch (ParseException e) {
-            Log.log("invalid .bib-file.", LogLevel.WARNING);
-        }
-        return result;
+        return entryContents;
+    }
+
+    /**
+     * @param parallelism the # of threads splitting .bib-files
+     */
+    public void setParallelism(int parallelism) {
+        final ForkJoinPool previousPool = pool;
+        pool = new ForkJoinPool(parallelism);
+        previousPool.shutdown();
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
     }
 
 }
@@ -5,6 +5,7 @@ import client.model.ResultFileExtension;
 import global.controller.Console;
 import global.logging.Log;
 import global.logging.LogLevel;
+import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.scene.control.ComboBox;
@@ -136,14 +137,15 @@ public class ClientController {
         if (chosenBib == null) {
             Log.log("User aborted bib adding", LogLevel.INFO);
         } else {
-            int successfullyAddedBibFilesCounter = 0;
+            //The files are parsed in the background, addBibFile then reuses the parsed entries on the GUI thread
             for (File currentBibFile : chosenBib) {
-                if (client.getClientFileModel().addBibFile(currentBibFile)) {
-                    bibFilesListView.getItems().add(currentBibFile);
-                    successfullyAddedBibFilesCounter++;
-                }
+                client.getClientFileModel().validateBibFileInBackground(currentBibFile).thenRun(() -> Platform.runLater(() -> {
+                    if (client.getClientFileModel().addBibFile(currentBibFile)) {
+                        bibFilesListView.getItems().add(currentBibFile);
+                        Log.log("Added .bib-file '" + currentBibFile + "'", LogLevel.INFO);
+                    }
+                }));
             }
-            Log.log("Added " + successfullyAddedBibFilesCounter + " .bib-file(s)", LogLevel.INFO);
         }
     }
 
@@ -25,7 +25,9 @@ public final class ClientFileHandler {
     }
 
     public static boolean isValidBibFile(File bibFile) throws FileNotFoundException {
-        return (BibTeXFileSplitter.getBibTeXDatabaseFromFile(bibFile) != null);
+        if (!bibFile.exists())
+            throw new FileNotFoundException(bibFile.toString());
+        return StreamingBibTeXSplitter.isValid(bibFile);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,287 @@
+package client.controller;
+
+import global.util.FileUtils;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * @author daan
+ *         <p>
+ *         Splits a .bib-file into the raw text of its entries without holding the whole file in memory. The file is
+ *         scanned twice (three times, if it uses crossref): the first scan collects the @string macros, @preamble
+ *         commands and crossref targets, the last one emits the entries one by one. Each emitted entry carries the
+ *         preambles and the @string definitions it uses, so it can be converted on its own. An entry with a crossref
+ *         gets the fields it lacks from the target instead of the crossref field, like BibTeX does it, so the target
+ *         isn't converted again as part of each entry referencing it.
+ *         <p>
+ *         Like BibTeX, text outside of entries and @comment commands are ignored. A file is invalid, if an entry
+ *         isn't closed before the end of the file.
+ */
+final class StreamingBibTeXSplitter {
+
+    private final File bibFile;
+    //Key : lower case name of a macro | Value : its @string definition
+    private final Map<String, Command> macros = new LinkedHashMap<>();
+    private final List<String> preambles = new ArrayList<>();
+    //Key : lower case key of a crossref target | Value : the target entry, null until it is found
+    private final Map<String, Command> crossrefTargets = new HashMap<>();
+
+    /**
+     * An @-command of the file, i.e. an entry, @string or @preamble.
+     */
+    private static final class Command {
+        private final String type, text;
+        private final String key;
+        //Lower case names of the macros used in the fields
+        private final Set<String> usedMacros = new LinkedHashSet<>();
+        //Key : lower case name of a field | Value : the field as written in the file
+        private final Map<String, String> fields = new LinkedHashMap<>();
+        private String typeName;
+        private String crossref;
+
+        private Command(String type, String key, String text) {
+            this.type = type;
+            this.key = key;
+            this.text = text;
+        }
+    }
+
+    StreamingBibTeXSplitter(File bibFile) {
+        this.bibFile = bibFile;
+    }
+
+    /**
+     * Checks that all entries of the file are closed, without keeping any of them.
+     */
+    static boolean isValid(File bibFile) {
+        try {
+            new StreamingBibTeXSplitter(bibFile).scan(command -> {
+            });
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Passes the text of each entry to the consumer, in the order of the file.
+     *
+     * @throws IOException if the file can't be read or is invalid
+     */
+    void split(Consumer<String> entryConsumer) throws IOException {
+        scan(command -> {
+            if (command.type.equals("string"))
+                macros.put(command.key.toLowerCase(), command);
+            else if (command.type.equals("preamble"))
+                preambles.add(command.text);
+            else if (command.crossref != null)
+                crossrefTargets.put(command.crossref, null);
+        });
+        if (!crossrefTargets.isEmpty()) {
+            scan(command -> {
+                if (!command.type.equals("string") && !command.type.equals("preamble") && crossrefTargets.containsKey(command.key.toLowerCase()))
+                    crossrefTargets.put(command.key.toLowerCase(), command);
+            });
+        }
+        scan(command -> {
+            if (!command.type.equals("string") && !command.type.equals("preamble"))
+                entryConsumer.accept(withDependencies(command));
+        });
+    }
+
+    private String withDependencies(Command entry) {
+        final Command crossrefTarget = entry.crossref == null ? null : crossrefTargets.get(entry.crossref);
+        final Set<String> usedMacros = new LinkedHashSet<>(entry.usedMacros);
+        if (crossrefTarget != null)
+            usedMacros.addAll(crossrefTarget.usedMacros);
+        final StringBuilder text = new StringBuilder();
+        preambles.forEach(preamble -> text.append(preamble).append(System.lineSeparator()));
+        //@string definitions in the order of the file, as they may use each other
+        final Set<String> requiredMacros = resolveMacros(usedMacros);
+        macros.forEach((name, definition) -> {
+            if (requiredMacros.contains(name))
+                text.append(definition.text).append(System.lineSeparator());
+        });
+        if (crossrefTarget != null)
+            appendWithInheritedFields(text, entry, crossrefTarget);
+        else
+            text.append(entry.text);
+        return text.toString();
+    }
+
+    private static void appendWithInheritedFields(StringBuilder text, Command entry, Command crossrefTarget) {
+        text.append('@').append(entry.typeName).append('{').append(entry.key);
+        entry.fields.forEach((name, field) -> {
+            if (!name.equals("crossref"))
+                text.append(',').append(System.lineSeparator()).append("  ").append(field);
+        });
+        crossrefTarget.fields.forEach((name, field) -> {
+            if (!name.equals("crossref") && !entry.fields.containsKey(name))
+                text.append(',').append(System.lineSeparator()).append("  ").append(field);
+        });
+        text.append(System.lineSeparator()).append('}');
+    }
+
+    /**
+     * @return the macros with the macros their definitions use, transitively
+     */
+    private Set<String> resolveMacros(Set<String> usedMacros) {
+        final Set<String> requiredMacros = new HashSet<>();
+        final Deque<String> toResolve = new ArrayDeque<>(usedMacros);
+        while (!toResolve.isEmpty()) {
+            final String name = toResolve.pop();
+            final Command definition = macros.get(name);
+            //Undefined macros, like the months, are left to the converter
+            if (definition != null && requiredMacros.add(name))
+                toResolve.addAll(definition.usedMacros);
+        }
+        return requiredMacros;
+    }
+
+    private void scan(Consumer<Command> commandConsumer) throws IOException {
+        try (Reader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(bibFile.toPath()), FileUtils.CHARSET))) {
+            int c;
+            while ((c = reader.read()) != -1) {
+                if (c == '@') {
+                    final Command command = readCommand(reader);
+                    if (command != null)
+                        commandConsumer.accept(command);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads an @-command up to its closing delimiter, the '@' is already read.
+     *
+     * @return the command or null, if it is a comment or no command at all
+     */
+    private static Command readCommand(Reader reader) throws IOException {
+        final StringBuilder type = new StringBuilder();
+        int c = reader.read();
+        while (c != -1 && Character.isWhitespace(c))
+            c = reader.read();
+        while (c != -1 && !Character.isWhitespace(c) && c != '{' && c != '(') {
+            type.append((char) c);
+            c = reader.read();
+        }
+        while (c != -1 && Character.isWhitespace(c))
+            c = reader.read();
+        if (type.length() == 0 || (c != '{' && c != '('))
+            return null;
+        final char opening = (char) c, closing = opening == '{' ? '}' : ')';
+        final StringBuilder body = new StringBuilder();
+        int depth = 0;
+        boolean inQuotes = false;
+        while (true) {
+            c = reader.read();
+            if (c == -1)
+                throw new EOFException("@" + type + " is not closed.");
+            if (depth == 0 && !inQuotes && c == closing)
+                break;
+            if (c == '{')
+                depth++;
+            else if (c == '}' && depth > 0)
+                depth--;
+            else if (c == '"' && depth == 0)
+                inQuotes = !inQuotes;
+            body.append((char) c);
+        }
+        final String lowerCaseType = type.toString().toLowerCase();
+        if (lowerCaseType.equals("comment"))
+            return null;
+        final String text = "@" + type + opening + body + closing;
+        if (lowerCaseType.equals("preamble"))
+            return new Command(lowerCaseType, "", text);
+        final String bodyText = body.toString();
+        final int fieldsStart;
+        final String key;
+        if (lowerCaseType.equals("string")) {
+            //The definition is the only field, its name is the key
+            fieldsStart = 0;
+            final int equals = bodyText.indexOf('=');
+            key = (equals < 0 ? bodyText : bodyText.substring(0, equals)).trim();
+        } else {
+            final int comma = bodyText.indexOf(',');
+            fieldsStart = comma < 0 ? bodyText.length() : comma + 1;
+            key = bodyText.substring(0, fieldsStart == bodyText.length() ? bodyText.length() : comma).trim();
+        }
+        final Command command = new Command(lowerCaseType, key, text);
+        command.typeName = type.toString();
+        readFields(bodyText, fieldsStart, command);
+        return command;
+    }
+
+    /**
+     * Collects the fields of the command, the macros used in them and its crossref.
+     */
+    private static void readFields(String body, int position, Command command) {
+        final int length = body.length();
+        while (position < length) {
+            final int fieldStart = position;
+            //Field name
+            final int equals = body.indexOf('=', position);
+            if (equals < 0)
+                return;
+            final String fieldName = body.substring(position, equals).replace(",", "").trim().toLowerCase();
+            position = equals + 1;
+            //Value parts joined by '#'
+            final StringBuilder value = new StringBuilder();
+            while (position < length) {
+                final char c = body.charAt(position);
+                if (Character.isWhitespace(c) || c == '#') {
+                    position++;
+                } else if (c == ',') {
+                    position++;
+                    break;
+                } else if (c == '{' || c == '"') {
+                    final int end = findEndOfDelimitedValue(body, position);
+                    value.append(body, position + 1, Math.max(position + 1, end - 1));
+                    position = end;
+                } else {
+                    final int start = position;
+                    while (position < length && !Character.isWhitespace(body.charAt(position))
+                            && body.charAt(position) != '#' && body.charAt(position) != ',')
+                        position++;
+                    final String part = body.substring(start, position);
+                    if (!part.chars().allMatch(Character::isDigit))
+                        command.usedMacros.add(part.toLowerCase());
+                    value.append(part);
+                }
+            }
+            String field = body.substring(fieldStart, position).trim();
+            if (field.endsWith(","))
+                field = field.substring(0, field.length() - 1).trim();
+            if (field.startsWith(","))
+                field = field.substring(1).trim();
+            if (!fieldName.isEmpty())
+                command.fields.putIfAbsent(fieldName, field);
+            if (fieldName.equals("crossref"))
+                command.crossref = value.toString().trim().toLowerCase();
+        }
+    }
+
+    /**
+     * @return the position after the closing brace or quote of the value starting at position
+     */
+    private static int findEndOfDelimitedValue(String body, int position) {
+        final boolean quoted = body.charAt(position) == '"';
+        int depth = 0;
+        for (int i = position + 1; i < body.length(); i++) {
+            final char c = body.charAt(i);
+            if (c == '{') {
+                depth++;
+            } else if (c == '}') {
+                if (depth == 0 && !quoted)
+                    return i + 1;
+                depth--;
+            } else if (c == '"' && quoted && depth == 0) {
+                return i + 1;
+            }
+        }
+        return body.length();
+    }
+}
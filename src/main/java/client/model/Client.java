@@ -4,21 +4,26 @@ import client.controller.BibTeXFileSplitter;
 import com.rabbitmq.client.*;
 import com.rabbitmq.client.AMQP.BasicProperties;
 import global.controller.IConnectionPoint;
+import global.identifiers.IIdentifier;
+import global.identifiers.MessageHeaders;
+import global.identifiers.PartialResultIdentifier;
 import global.identifiers.QueueNames;
 import global.logging.Log;
 import global.logging.LogLevel;
-import global.model.DefaultClientRequest;
-import global.model.IClientRequest;
-import global.model.IResult;
+import global.metrics.Counter;
+import global.metrics.LatencyHistogram;
+import global.metrics.Metrics;
+import global.model.*;
+import global.util.HashUtils;
+import global.util.FileUtils;
 import org.apache.commons.lang3.SerializationUtils;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.UUID;
-import java.util.concurrent.TimeoutException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * @author daan
@@ -33,15 +38,57 @@ public class Client implements IConnectionPoint, Runnable, Consumer {
 //    private final String CLIENT_CALLBACK_EXCHANGE_NAME = QueueNames.CLIENT_CALLBACK_EXCHANGE_NAME.toString();
     private String hostIP;
     private String secretKey = "";
+    private long timeoutSeconds = 0;
+    private boolean incrementalConversion = true;
+    //Key : ID of a request sent, but not answered yet | Value : what is needed to handle its result
+    private final ConcurrentMap<String, PendingRequest> pendingRequests = new ConcurrentHashMap<>();
 
     private Connection connection;
     private Channel channel;
-    private final BasicProperties replyProps;
 
     private ClientFileModel clientFileModel;
     private String outputDirectory;
     private final String DEFAULT_RESULT_PREFIX = "result";
-    private final SimpleDateFormat DEFAULT_TIMESTAMP_FORMAT = new SimpleDateFormat("dd-MM-yyyy_HH-mm-ss");
+    private final DateTimeFormatter DEFAULT_TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("dd-MM-yyyy_HH-mm-ss");
+    //Result files are written off the delivery thread, idle writers time out, so they don't keep the JVM alive
+    private final ThreadPoolExecutor resultFileWriter = new ThreadPoolExecutor(RESULT_FILE_WRITER_THREADS, RESULT_FILE_WRITER_THREADS,
+            10, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+    private static final int RESULT_FILE_WRITER_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final long RESULT_FILE_WRITE_TIMEOUT_SECONDS = 60;
+    //Completed once all result files handed to the resultFileWriter so far are written
+    private volatile CompletableFuture<Void> pendingResultFiles = CompletableFuture.completedFuture(null);
+    private final double AMOUNT_OF_SECS = 59;
+    private static final LatencyHistogram SERIALIZE_LATENCY = Metrics.histogram("client.serialize");
+    private static final LatencyHistogram DESERIALIZE_LATENCY = Metrics.histogram("client.deserialize");
+    //From sending a request until its result arrives
+    private static final LatencyHistogram REQUEST_LATENCY = Metrics.histogram("client.request");
+    private static final LatencyHistogram ASSEMBLE_LATENCY = Metrics.histogram("client.assemble");
+    private static final Counter SENT_REQUESTS = Metrics.counter("client.requestsSent");
+    private static final Counter SENT_ENTRIES = Metrics.counter("client.entriesSent");
+
+    /**
+     * A request in flight. Output directory and file extension are taken when it is sent, so they may change while
+     * it is converted.
+     */
+    private static final class PendingRequest {
+        private final String requestID, outputDirectory, resultFileExtension;
+        private long timeStart = 0;
+        private long clientRequestSize = 0;
+        //Manifests of the .bib-files of the request, by index
+        private final List<ConversionManifest> requestedManifests = new ArrayList<>();
+        //Key : identifier of an entry of the request | Value : its content hash
+        private final Map<IIdentifier, String> requestedEntryHashes = new HashMap<>();
+        //Key : identifier of an entry of the request | Value : content hashes of its partials
+        private final Map<IIdentifier, Map<String, String>> requestedPartialHashes = new HashMap<>();
+        //Partials of the unchanged entries of the request, taken from the manifests
+        private final List<IPartialResult> reusedPartials = new ArrayList<>();
+
+        private PendingRequest(String requestID, String outputDirectory, String resultFileExtension) {
+            this.requestID = requestID;
+            this.outputDirectory = outputDirectory;
+            this.resultFileExtension = resultFileExtension;
+        }
+    }
     private final String DEFAULT_RESULT_FILE_EXTENSION = ResultFileExtension.HTML.toString();
     private String resultFileExtension = DEFAULT_RESULT_FILE_EXTENSION;
 
@@ -59,12 +106,9 @@ public class Client implements IConnectionPoint, Runnable, Consumer {
         this.clientID = clientID;
         this.callbackQueueName = clientID;
         this.clientFileModel = new ClientFileModel(this.clientID);
-        this.replyProps = new BasicProperties
-                .Builder()
-                .correlationId(clientID)
-                .replyTo(callbackQueueName)
-                .build();
         this.outputDirectory = "";
+        this.resultFileWriter.allowCoreThreadTimeOut(true);
+        Metrics.registerGauge("client.pendingRequests", pendingRequests::size);
     }
 
     @Override
@@ -76,19 +120,54 @@ public class Client implements IConnectionPoint, Runnable, Consumer {
         }
     }
 
-    private long timeStart = 0;
-
-    private long clientRequestSize = 0;
-    private final double AMOUNT_OF_SECS = 59;
-    public void sendClientRequest() throws IOException {
+    /**
+     * Sends a request for the current files of the ClientFileModel. Other requests may still be in flight, their
+     * results are told apart by the request ID.
+     *
+     * @return the ID of the request
+     */
+    public String sendClientRequest() throws IOException {
+        final String requestID = UUID.randomUUID().toString();
+        final PendingRequest pendingRequest = new PendingRequest(requestID, outputDirectory, resultFileExtension);
         //time measuring starts before request creation
-        //timeStart = System.currentTimeMillis();
-        IClientRequest clientRequestToSend = this.createClientRequest();
-        channel.basicPublish("", CLIENT_REQUEST_QUEUE_NAME, replyProps, SerializationUtils.serialize(clientRequestToSend));
+        //pendingRequest.timeStart = System.currentTimeMillis();
+        IClientRequest clientRequestToSend = this.createClientRequest(requestID, pendingRequest);
+        if (clientRequestToSend.isPartialResultsRequested() && clientRequestToSend.getEntries().isEmpty() && !pendingRequest.reusedPartials.isEmpty()) {
+            Log.log("No entry changed since the last conversion, writing the results from the manifests.", LogLevel.INFO);
+            writeResultFiles(pendingRequest, mergeWithReusedPartials(pendingRequest, Collections.emptyList()));
+            return requestID;
+        }
+        final BasicProperties requestProps = new BasicProperties
+                .Builder()
+                .correlationId(requestID)
+                .replyTo(callbackQueueName)
+                .build();
         //time measuring starts after request creation
-        timeStart = System.currentTimeMillis();
-        clientRequestSize = clientRequestToSend.getEntries().size();
-        Log.log("Client with ID: " + this.clientID + " sent a ClientRequest.", LogLevel.INFO);
+        pendingRequest.timeStart = System.currentTimeMillis();
+        pendingRequest.clientRequestSize = clientRequestToSend.getEntries().size();
+        pendingRequests.put(requestID, pendingRequest);
+        try {
+            final long serializeStart = System.nanoTime();
+            final byte[] serializedRequest = SerializationUtils.serialize(clientRequestToSend);
+            SERIALIZE_LATENCY.recordSince(serializeStart);
+            //Read by the server's RequestTracer
+            final Map<String, Object> headers = Collections.singletonMap(MessageHeaders.CLIENT_SEND_TIME.toString(), System.currentTimeMillis());
+            channel.basicPublish("", CLIENT_REQUEST_QUEUE_NAME, requestProps.builder().headers(headers).build(), serializedRequest);
+        } catch (IOException e) {
+            pendingRequests.remove(requestID);
+            throw e;
+        }
+        SENT_REQUESTS.increment();
+        SENT_ENTRIES.add(pendingRequest.clientRequestSize);
+        Log.log("Client with ID: " + this.clientID + " sent ClientRequest " + requestID + ".", LogLevel.INFO);
+        return requestID;
+    }
+
+    /**
+     * @return the # of requests sent, but not answered yet
+     */
+    public int getPendingRequestCount() {
+        return pendingRequests.size();
     }
 
     @Override
@@ -119,20 +198,29 @@ public class Client implements IConnectionPoint, Runnable, Consumer {
     @Override
     public void handleDelivery(String s, Envelope envelope, AMQP.BasicProperties basicProperties, byte[] bytes) throws IOException {
         Log.log("Client with ID: " + this.clientID + " received a message on queue: " + this.callbackQueueName);
-        logTimeAndWorkingLoadLimit();
+        final long deserializeStart = System.nanoTime();
         final Object deliveredObject = SerializationUtils.deserialize(bytes);
+        DESERIALIZE_LATENCY.recordSince(deserializeStart);
+        //Results carry their request ID, the server's messages only the correlation ID of the request
+        final String requestID = deliveredObject instanceof IResult ? ((IResult) deliveredObject).getRequestID() : basicProperties.getCorrelationId();
+        final PendingRequest pendingRequest = requestID == null ? null : pendingRequests.remove(requestID);
         if (deliveredObject instanceof IResult) {
             Log.log("Message is instance of IResult.", LogLevel.INFO);
-            handleResult((IResult) deliveredObject);
+            if (pendingRequest == null) {
+                Log.log("Discarded result of unknown request " + requestID, LogLevel.WARNING);
+                return;
+            }
+            logTimeAndWorkingLoadLimit(pendingRequest);
+            handleResult(pendingRequest, (IResult) deliveredObject);
         } else {
-            //TODO: log message debuggen (start zeichen)
-            Log.log("SERVER: " + new String(bytes), LogLevel.SEVERE);
+            Log.log("SERVER: " + deliveredObject + " (request " + requestID + ")", LogLevel.SEVERE);
         }
     }
 
-    private void logTimeAndWorkingLoadLimit() {
+    private void logTimeAndWorkingLoadLimit(PendingRequest pendingRequest) {
         long timeEnd = System.currentTimeMillis();
-        long timeTakenMillis = (timeEnd - timeStart);
+        long timeTakenMillis = (timeEnd - pendingRequest.timeStart);
+        REQUEST_LATENCY.record(timeTakenMillis, TimeUnit.MILLISECONDS);
 //        Log.log("timeTakenInMillis: " + timeTakenMillis, LogLevel.INFO);
         double timeTakenSecs = timeTakenMillis / 1000.0;
 //        Log.log("timeTakenInSecs: " + timeTakenSecs, LogLevel.INFO);
@@ -142,32 +230,94 @@ public class Client implements IConnectionPoint, Runnable, Consumer {
 //        Log.log("timeTakenFullMinsInSec: " + timeTakenFullMinsInSecs);
         int timeTakenSecDifference = ((Double) (timeTakenSecs - timeTakenFullMinsInSecs)).intValue();
         Log.log("TIME TAKEN: " + timeTakenFullMins + " min " + timeTakenSecDifference + " sec");
-        int workingLoadLimitXSecs = ((Double) ((double) clientRequestSize / timeTakenSecs * AMOUNT_OF_SECS)).intValue();
+        int workingLoadLimitXSecs = ((Double) ((double) pendingRequest.clientRequestSize / timeTakenSecs * AMOUNT_OF_SECS)).intValue();
         Log.log("WORKING LOAD LIMIT: " + workingLoadLimitXSecs + " entries in " + AMOUNT_OF_SECS + " secs. ");
     }
 
-    private void handleResult(IResult result) {
-        final File outDir = new File(outputDirectory);
-        int additionalIndex = 0;
-        for (String resultContent : result.getFileContents()) {
-            final String timeStamp = DEFAULT_TIMESTAMP_FORMAT.format(new Date());
-            final String filename = DEFAULT_RESULT_PREFIX + "_" + timeStamp + additionalIndex + resultFileExtension;
+    private void handleResult(PendingRequest pendingRequest, IResult result) {
+        if (result.getPartialResults().isEmpty() && pendingRequest.reusedPartials.isEmpty()) {
+            writeResultFiles(pendingRequest, result.getFileContents());
+        } else {
+            final long assembleStart = System.nanoTime();
+            final List<String> fileContents = mergeWithReusedPartials(pendingRequest, result.getPartialResults());
+            ASSEMBLE_LATENCY.recordSince(assembleStart);
+            writeResultFiles(pendingRequest, fileContents);
+        }
+    }
 
-            if (!outDir.exists())
-                Log.log("Output-directory doesn't exist!", LogLevel.SEVERE);
-            else {
+    /**
+     * Merges the received partials with those of the unchanged entries and updates the manifests.
+     *
+     * @param receivedPartials the partials of the entries sent to the server
+     * @return the contents of the result files
+     */
+    private List<String> mergeWithReusedPartials(PendingRequest pendingRequest, List<IPartialResult> receivedPartials) {
+        final List<IPartialResult> partials = new ArrayList<>(pendingRequest.reusedPartials);
+        partials.addAll(receivedPartials);
+        final List<ConversionManifest> requestedManifests = pendingRequest.requestedManifests;
+        //By index of the .bib-file
+        final List<Set<String>> currentEntryHashes = new ArrayList<>();
+        final List<Map<String, Map<String, String>>> renderedPartials = new ArrayList<>();
+        requestedManifests.forEach(manifest -> {
+            currentEntryHashes.add(new HashSet<>());
+            renderedPartials.add(new HashMap<>());
+        });
+        pendingRequest.requestedEntryHashes.forEach((entryIdentifier, entryHash) ->
+                currentEntryHashes.get(entryIdentifier.getBibFileIndex()).add(entryHash));
+        for (IPartialResult partialResult : partials) {
+            final PartialResultIdentifier identifier = (PartialResultIdentifier) partialResult.getIdentifier();
+            final String entryHash = pendingRequest.requestedEntryHashes.get(identifier.getEntryIdentifier());
+            final Map<String, String> partialHashes = pendingRequest.requestedPartialHashes.get(identifier.getEntryIdentifier());
+            if (identifier.isHasErrors() || partialHashes == null)
+                continue;
+            final String partialHash = partialHashes.get(HashUtils.getPartialKey(identifier.getCslFileIndex(), identifier.getTemplateFileIndex()));
+            if (partialHash != null)
+                renderedPartials.get(identifier.getBibFileIndex()).computeIfAbsent(entryHash, key -> new HashMap<>())
+                        .put(partialHash, partialResult.getContent());
+        }
+        for (int bibFileIndex = 0; bibFileIndex < requestedManifests.size(); bibFileIndex++)
+            requestedManifests.get(bibFileIndex).save(currentEntryHashes.get(bibFileIndex), renderedPartials.get(bibFileIndex));
+        return DefaultResult.buildResultfromPartials(partials).getFileContents();
+    }
+
+    /**
+     * Writes the result files in parallel on the resultFileWriter. Each file appears under its final name only once
+     * it is complete. The names carry the request ID, as requests finishing in the same second may share the output
+     * directory.
+     */
+    private void writeResultFiles(PendingRequest pendingRequest, List<String> fileContents) {
+        final File outDir = new File(pendingRequest.outputDirectory);
+        if (!outDir.exists()) {
+            Log.log("Output-directory doesn't exist!", LogLevel.SEVERE);
+            return;
+        }
+        //One timestamp for all files of the result, the request ID and index keep their names apart
+        final String timeStamp = LocalDateTime.now().format(DEFAULT_TIMESTAMP_FORMAT);
+        final CompletableFuture<?>[] writtenResultFiles = new CompletableFuture<?>[fileContents.size()];
+        for (int additionalIndex = 0; additionalIndex < fileContents.size(); additionalIndex++) {
+            final String filename = DEFAULT_RESULT_PREFIX + "_" + timeStamp + "_" + pendingRequest.requestID + "_" + additionalIndex
+                    + pendingRequest.resultFileExtension;
+            final String resultContent = fileContents.get(additionalIndex);
+            writtenResultFiles[additionalIndex] = CompletableFuture.runAsync(() -> {
                 try {
-                    Files.write(new File(outDir, filename).toPath(), resultContent.getBytes());
+                    FileUtils.writeStringAtomically(new File(outDir, filename).toPath(), resultContent);
                 } catch (IOException e) {
                     Log.log("Failed to write output file", e);
                 }
-            }
-            additionalIndex++;
+            }, resultFileWriter);
         }
+        pendingResultFiles = CompletableFuture.allOf(pendingResultFiles, CompletableFuture.allOf(writtenResultFiles));
     }
 
     @Override
     public void closeConnection() throws IOException, TimeoutException {
+        try {
+            pendingResultFiles.get(RESULT_FILE_WRITE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.log("Failed to write output files", e);
+        }
         channel.close();
         connection.close();
     }
@@ -247,8 +397,63 @@ public class Client implements IConnectionPoint, Runnable, Consumer {
         this.resultFileExtension = resultFileExtension.toString();
     }
 
-    private IClientRequest createClientRequest() throws IOException {
-        return new DefaultClientRequest(secretKey, clientID, BibTeXFileSplitter.INSTANCE.createIEntryListFromClientFileModel(clientFileModel));
+    private IClientRequest createClientRequest(String requestID, PendingRequest pendingRequest) throws IOException {
+        final long deadline = timeoutSeconds > 0 ? System.currentTimeMillis() + timeoutSeconds * 1000 : 0;
+        final ArrayList<IEntry> entries = BibTeXFileSplitter.INSTANCE.createIEntryListFromClientFileModel(clientFileModel, requestID);
+        if (!incrementalConversion || entries == null)
+            return new DefaultClientRequest(secretKey, clientID, requestID, entries, deadline, false);
+        return new DefaultClientRequest(secretKey, clientID, requestID, selectChangedEntries(pendingRequest, entries), deadline, true);
+    }
+
+    /**
+     * Looks the partials of the entries up in the manifests of their .bib-files. The partials found are kept for
+     * merging them with the result.
+     *
+     * @return the entries which are new or changed since the last conversion
+     */
+    private ArrayList<IEntry> selectChangedEntries(PendingRequest pendingRequest, List<IEntry> entries) {
+        final List<ConversionManifest> requestedManifests = pendingRequest.requestedManifests;
+        final Map<IIdentifier, Map<String, String>> requestedPartialHashes = pendingRequest.requestedPartialHashes;
+        clientFileModel.getBibFiles().forEach(bibFile -> requestedManifests.add(ConversionManifest.load(bibFile)));
+        final ArrayList<IEntry> changedEntries = new ArrayList<>();
+        for (IEntry entry : entries) {
+            final ConversionManifest manifest = requestedManifests.get(entry.getEntryIdentifier().getBibFileIndex());
+            final String entryHash = HashUtils.getEntryHash(entry);
+            final Map<String, String> partialHashes = HashUtils.getPartialHashes(entry);
+            pendingRequest.requestedEntryHashes.put(entry.getEntryIdentifier(), entryHash);
+            requestedPartialHashes.put(entry.getEntryIdentifier(), partialHashes);
+            final List<IPartialResult> partials = new ArrayList<>();
+            for (Map.Entry<String, String> partialHash : partialHashes.entrySet()) {
+                final String content = manifest.get(entryHash, partialHash.getValue());
+                if (content == null)
+                    break;
+                partials.add(new DefaultPartialResult(content, new PartialResultIdentifier(entry.getEntryIdentifier(),
+                        HashUtils.getCslFileIndex(partialHash.getKey()), HashUtils.getTemplateFileIndex(partialHash.getKey()))));
+            }
+            if (partials.size() == partialHashes.size())
+                pendingRequest.reusedPartials.addAll(partials);
+            else
+                changedEntries.add(entry);
+        }
+        Log.log(changedEntries.size() + " of " + entries.size() + " entries changed since the last conversion.", LogLevel.INFO);
+        return changedEntries;
+    }
+
+    /**
+     * @param incrementalConversion whether only entries that changed since the last conversion should be sent
+     */
+    public void setIncrementalConversion(boolean incrementalConversion) {
+        this.incrementalConversion = incrementalConversion;
+    }
+
+    /**
+     * Sets the time the server has to finish a request, before it is aborted.
+     *
+     * @param timeoutSeconds the timeout in seconds or 0, if requests should never expire
+     */
+    public void setTimeout(long timeoutSeconds) {
+        this.timeoutSeconds = timeoutSeconds;
+        Log.log("Set timeout to: " + timeoutSeconds + "s");
     }
 
     public void setKeyToUse(String secretKey) {
@@ -1,23 +1,27 @@
 package client.model;
 
-import client.controller.ClientFileHandler;
 import global.logging.Log;
 import global.logging.LogLevel;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author daan
  *         created on 11/30/16.
  * Represents all the files needed for a request. It is used by the Client class and is changed
  * by the Client Controller, when the user adds the appropriate files.
+ * The .bib-files are parsed once, when they are validated, and their entries are kept for building the request.
  */
 public class ClientFileModel {
 
+    //Shared by all models, as it is keyed by the path of the files
+    private static final ParsedBibFileCache PARSED_BIB_FILES = new ParsedBibFileCache();
+
     private final String clientID;
     private ArrayList<File> bibFiles = new ArrayList<>();
     private ArrayList<File> cslFiles = new ArrayList<>();
@@ -60,25 +64,45 @@ public class ClientFileModel {
         }
         if (bibFiles.contains(bibFileToAdd))
             return false;
-        try {
-            if (ClientFileHandler.isValidBibFile(bibFileToAdd)) {
-                try {
-                    bibFiles.add(bibFileToAdd);
-                    return true;
-                } catch (Exception e) {
-                    //expandability & maintenance
-                    Log.log("couldn't add .bib-file '" + bibFileToAdd.getAbsolutePath() + "' to file-model.", LogLevel.WARNING);
-                    return false;
-                }
-            }
-        } catch (FileNotFoundException e) {
+        if (!bibFileToAdd.exists()) {
             Log.log(".bib-file '" + bibFileToAdd.getAbsolutePath() + "' not found.", LogLevel.WARNING);
             return false;
         }
+        if (PARSED_BIB_FILES.getEntryContents(bibFileToAdd) != null) {
+            try {
+                bibFiles.add(bibFileToAdd);
+                return true;
+            } catch (Exception e) {
+                //expandability & maintenance
+                Log.log("couldn't add .bib-file '" + bibFileToAdd.getAbsolutePath() + "' to file-model.", LogLevel.WARNING);
+                return false;
+            }
+        }
         Log.log("file '" + bibFileToAdd.getAbsolutePath() + "' isn't a valid .bib-file.", LogLevel.WARNING);
         return false;
     }
 
+    /**
+     * parses 1 .bib-file on a background thread, so addBibFile doesn't have to parse it again
+     *
+     * @param bibFileToValidate .bib-file you want to add later on
+     * @return completed with true if the .bib-file is valid, else: false
+     */
+    public CompletableFuture<Boolean> validateBibFileInBackground(File bibFileToValidate) {
+        Objects.requireNonNull(bibFileToValidate, "(bibFileToValidate == null) in clientFileModel.validateBibFileInBackground()");
+        return PARSED_BIB_FILES.validateInBackground(bibFileToValidate);
+    }
+
+    /**
+     * returns the text of the entries of 1 .bib-file. It is parsed only if it changed since it was added.
+     *
+     * @param bibFile .bib-file of the model
+     * @return the text of its entries or null, if it isn't valid (anymore)
+     */
+    public List<String> getEntryContents(File bibFile) {
+        return PARSED_BIB_FILES.getEntryContents(bibFile);
+    }
+
     /**
      * adds 1 .csl-file to model
      *
@@ -152,6 +176,7 @@ public class ClientFileModel {
             return false;
         try {
             bibFiles.remove(bibFileToRemove);
+            PARSED_BIB_FILES.invalidate(bibFileToRemove);
             return true;
         } catch (Exception e) {
             //expandability & maintenance
@@ -167,6 +192,7 @@ public class ClientFileModel {
      */
     public boolean clearBibFiles() {
         try {
+            bibFiles.forEach(PARSED_BIB_FILES::invalidate);
             bibFiles.clear();
             return true;
         } catch (Exception e) {
@@ -0,0 +1,101 @@
+package client.model;
+
+import global.logging.Log;
+import global.logging.LogLevel;
+import global.util.HashUtils;
+import org.apache.commons.lang3.SerializationException;
+import org.apache.commons.lang3.SerializationUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @author daan
+ *         <p>
+ *         Remembers the converted partials of the entries of one .bib-file. They are kept by the content hash of their
+ *         entry (see HashUtils.getEntryHash) and then by the content hash of entry, csl file and template (see
+ *         HashUtils.getPartialHashes), so the outputs of every style and template used before are kept until their
+ *         entry is removed from the file or changed. Used by the Client to only send entries that changed since the
+ *         last conversion. The manifests are kept in the directory ".bib2html/manifests" in the user's home, named after
+ *         the hash of the path of their .bib-file.
+ */
+public class ConversionManifest {
+
+    private static final Path MANIFEST_DIRECTORY = Paths.get(System.getProperty("user.home"), ".bib2html", "manifests");
+    private static final String MANIFEST_FILE_EXTENSION = ".manifest";
+
+    private final Path manifestPath;
+    //Key : content hash of an entry | Value : its partials' contents by their content hash
+    private final HashMap<String, HashMap<String, String>> renderedEntries;
+
+    private ConversionManifest(Path manifestPath, HashMap<String, HashMap<String, String>> renderedEntries) {
+        this.manifestPath = manifestPath;
+        this.renderedEntries = renderedEntries;
+    }
+
+    /**
+     * Loads the manifest of the .bib-file. If there is none or it can't be read, the manifest is empty.
+     */
+    public static ConversionManifest load(File bibFile) {
+        return load(bibFile, MANIFEST_DIRECTORY);
+    }
+
+    //Package-private for the tests
+    static ConversionManifest load(File bibFile, Path manifestDirectory) {
+        final String bibFileHash = HashUtils.sha256(bibFile.getAbsolutePath());
+        final Path manifestPath = manifestDirectory.resolve(bibFileHash + MANIFEST_FILE_EXTENSION);
+        HashMap<String, HashMap<String, String>> renderedEntries = new HashMap<>();
+        if (Files.exists(manifestPath)) {
+            try {
+                final HashMap<String, ?> readEntries = SerializationUtils.deserialize(Files.readAllBytes(manifestPath));
+                //Manifests of older versions map the partials directly
+                if (!readEntries.values().stream().allMatch(partials -> partials instanceof HashMap))
+                    throw new ClassCastException("Not a manifest of this version");
+                @SuppressWarnings("unchecked") final HashMap<String, HashMap<String, String>> castEntries =
+                        (HashMap<String, HashMap<String, String>>) readEntries;
+                renderedEntries = castEntries;
+            } catch (IOException | SerializationException | ClassCastException e) {
+                Log.log("Couldn't read the manifest of " + bibFile + ", converting all of its entries.", LogLevel.WARNING);
+            }
+        }
+        return new ConversionManifest(manifestPath, renderedEntries);
+    }
+
+    /**
+     * @return the content of the partial or null, if it wasn't converted before
+     */
+    public String get(String entryHash, String partialHash) {
+        final Map<String, String> renderedPartials = renderedEntries.get(entryHash);
+        return renderedPartials == null ? null : renderedPartials.get(partialHash);
+    }
+
+    /**
+     * Adds the partials to the manifest, drops the entries which aren't in the .bib-file anymore and writes it. The
+     * manifest file is replaced atomically.
+     *
+     * @param currentEntryHashes the content hashes of all current entries of the .bib-file
+     * @param renderedPartials   the converted partials by their content hash, by the content hash of their entry
+     */
+    public void save(Set<String> currentEntryHashes, Map<String, Map<String, String>> renderedPartials) {
+        renderedEntries.keySet().retainAll(currentEntryHashes);
+        renderedPartials.forEach((entryHash, partials) -> {
+            if (currentEntryHashes.contains(entryHash))
+                renderedEntries.computeIfAbsent(entryHash, key -> new HashMap<>()).putAll(partials);
+        });
+        final Path tempPath = manifestPath.resolveSibling(manifestPath.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(manifestPath.getParent());
+            Files.write(tempPath, SerializationUtils.serialize(renderedEntries));
+            Files.move(tempPath, manifestPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Log.log("Couldn't write the manifest " + manifestPath, e);
+        }
+    }
+}
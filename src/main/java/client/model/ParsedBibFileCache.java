@@ -0,0 +1,209 @@
+package client.model;
+
+import client.controller.BibTeXFileSplitter;
+import global.logging.Log;
+import global.logging.LogLevel;
+import global.metrics.LatencyHistogram;
+import global.metrics.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * @author daan
+ *         <p>
+ *         Keeps the entries of the .bib-files of the ClientFileModels, so each file is split only once: when it is
+ *         validated, which may happen on a background thread, and not again when the request is built. A parsed
+ *         file is reused as long as its size and modification time are unchanged. Besides, a WatchService drops
+ *         files from the cache as soon as they are modified or deleted on disk.
+ *         <p>
+ *         The cache holds at most MAX_CACHED_CHARACTERS of entry text, the least recently used files are dropped
+ *         beyond that. A file larger than the limit isn't kept at all and is split again when the request is built.
+ */
+class ParsedBibFileCache {
+
+    private static final Executor DIRECT_EXECUTOR = Runnable::run;
+    private static final LatencyHistogram PARSE_LATENCY = Metrics.histogram("client.parse");
+    //32M characters, i.e. 64 MB of entry text
+    static final long MAX_CACHED_CHARACTERS = 32L * 1024 * 1024;
+
+    private final long maxCachedCharacters;
+
+    //Key : absolute path of a .bib-file | Value : the parsed file, completed once parsing is done
+    private final ConcurrentMap<Path, CompletableFuture<ParsedBibFile>> parsedBibFiles = new ConcurrentHashMap<>();
+    private final ExecutorService backgroundParser = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "bib-file parser");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ConcurrentMap<Path, Boolean> watchedDirectories = new ConcurrentHashMap<>();
+    private WatchService watchService;
+
+    private static final class ParsedBibFile {
+        private final long size, lastModified;
+        //null, if the file is invalid or missing
+        private final List<String> entryContents;
+        private final long characters;
+        private volatile long lastAccess = System.nanoTime();
+
+        private ParsedBibFile(long size, long lastModified, List<String> entryContents) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.entryContents = entryContents;
+            this.characters = entryContents == null ? 0 : entryContents.stream().mapToLong(String::length).sum();
+        }
+
+        private boolean isUpToDate(Path path) {
+            try {
+                return Files.size(path) == size && Files.getLastModifiedTime(path).toMillis() == lastModified;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+
+    ParsedBibFileCache() {
+        this(MAX_CACHED_CHARACTERS);
+    }
+
+    //Package-private for the tests
+    ParsedBibFileCache(long maxCachedCharacters) {
+        this.maxCachedCharacters = maxCachedCharacters;
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            final Thread watcher = new Thread(this::watch, "bib-file watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+        } catch (IOException | UnsupportedOperationException e) {
+            Log.log("Couldn't watch the .bib-files, changes are detected by size and modification time only.", LogLevel.WARNING);
+        }
+    }
+
+    /**
+     * Parses the file on a background thread, unless it is cached already.
+     *
+     * @return whether the file is a valid .bib-file, once it is parsed
+     */
+    CompletableFuture<Boolean> validateInBackground(File bibFile) {
+        return getOrParse(bibFile, backgroundParser).thenApply(parsedBibFile -> parsedBibFile.entryContents != null);
+    }
+
+    /**
+     * Parses the file in the calling thread, unless it is cached already or parsed by another thread.
+     *
+     * @return the text of the entries of the file or null, if it is invalid or missing
+     */
+    List<String> getEntryContents(File bibFile) {
+        return getOrParse(bibFile, DIRECT_EXECUTOR).join().entryContents;
+    }
+
+    void invalidate(File bibFile) {
+        parsedBibFiles.remove(bibFile.toPath().toAbsolutePath());
+    }
+
+    private CompletableFuture<ParsedBibFile> getOrParse(File bibFile, Executor executor) {
+        final Path path = bibFile.toPath().toAbsolutePath();
+        final CompletableFuture<ParsedBibFile> created = new CompletableFuture<>();
+        final CompletableFuture<ParsedBibFile> parsedBibFile = parsedBibFiles.compute(path, (key, cached) -> {
+            //Files still being parsed count as up to date
+            if (cached != null && (!cached.isDone() || cached.join().isUpToDate(path)))
+                return cached;
+            return created;
+        });
+        if (parsedBibFile == created) {
+            watch(path.getParent());
+            executor.execute(() -> {
+                created.complete(parse(path));
+                trim();
+            });
+        } else if (parsedBibFile.isDone()) {
+            parsedBibFile.join().lastAccess = System.nanoTime();
+        }
+        return parsedBibFile;
+    }
+
+    /**
+     * Drops the least recently used files, until the cached entry text fits into maxCachedCharacters.
+     */
+    private void trim() {
+        final List<Map.Entry<Path, CompletableFuture<ParsedBibFile>>> parsed = new ArrayList<>();
+        long characters = 0;
+        for (Map.Entry<Path, CompletableFuture<ParsedBibFile>> entry : parsedBibFiles.entrySet()) {
+            if (entry.getValue().isDone()) {
+                parsed.add(entry);
+                characters += entry.getValue().join().characters;
+            }
+        }
+        if (characters <= maxCachedCharacters)
+            return;
+        parsed.sort(Comparator.comparingLong(entry -> entry.getValue().join().lastAccess));
+        for (Map.Entry<Path, CompletableFuture<ParsedBibFile>> entry : parsed) {
+            if (characters <= maxCachedCharacters)
+                break;
+            if (parsedBibFiles.remove(entry.getKey(), entry.getValue())) {
+                characters -= entry.getValue().join().characters;
+                Log.log(".bib-file '" + entry.getKey() + "' dropped from the cache.", LogLevel.LOW);
+            }
+        }
+    }
+
+    //Package-private for the tests
+    boolean isCached(File bibFile) {
+        return parsedBibFiles.containsKey(bibFile.toPath().toAbsolutePath());
+    }
+
+    private static ParsedBibFile parse(Path path) {
+        long size = -1, lastModified = -1;
+        try {
+            //Read before parsing, so a change while parsing makes the result stale
+            size = Files.size(path);
+            lastModified = Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            Log.log(".bib-file '" + path + "' not found.", LogLevel.WARNING);
+            return new ParsedBibFile(size, lastModified, null);
+        }
+        final long parseStart = System.nanoTime();
+        final List<String> entryContents = BibTeXFileSplitter.INSTANCE.splitBibFile(path.toFile());
+        PARSE_LATENCY.recordSince(parseStart);
+        return new ParsedBibFile(size, lastModified, entryContents);
+    }
+
+    private void watch(Path directory) {
+        if (watchService == null || directory == null || watchedDirectories.putIfAbsent(directory, true) != null)
+            return;
+        try {
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_CREATE);
+        } catch (IOException e) {
+            Log.log("Couldn't watch directory '" + directory + "'.", LogLevel.LOW);
+        }
+    }
+
+    private void watch() {
+        while (true) {
+            final WatchKey watchKey;
+            try {
+                watchKey = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            final Path directory = (Path) watchKey.watchable();
+            for (WatchEvent<?> event : watchKey.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    //Events were lost, the size and modification time checks still catch changes
+                    continue;
+                }
+                final Path changedPath = directory.resolve((Path) event.context());
+                if (parsedBibFiles.remove(changedPath) != null)
+                    Log.log(".bib-file '" + changedPath + "' changed on disk.", LogLevel.LOW);
+            }
+            watchKey.reset();
+        }
+    }
+}
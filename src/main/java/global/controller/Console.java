@@ -1,29 +1,121 @@
 package global.controller;
 
-import javafx.application.Platform;
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.scene.control.TextArea;
+import javafx.util.Duration;
 
-import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 
 /**
  * @author Maximilian Schirm
  *         15.12.2016
+ *         <p>
+ *         Buffers the bytes written to it and decodes them as UTF-8, characters split between two writes included.
+ *         The text is appended to the TextArea at most FRAMES_PER_SECOND times a second on the FX thread. Only the
+ *         last MAXIMUM_LINES lines are kept, text arriving faster than the TextArea shows it is cut off at the front.
  */
 public class Console extends OutputStream {
 
+    private static final int FRAMES_PER_SECOND = 10;
+    private static final int MAXIMUM_LINES = 5000;
+    //Lines are trimmed in steps of this many, so the TextArea isn't changed at its start on every frame
+    private static final int TRIMMED_LINES = 500;
+    //Pending text beyond this length would be trimmed anyway, so it isn't kept in the first place
+    private static final int MAXIMUM_PENDING_CHARS = 1 << 20;
+
     private final TextArea textArea;
+    //Guarded by the lock of the Console
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    //Bytes of a character not completely written yet
+    private ByteBuffer undecodedBytes = ByteBuffer.allocate(16);
+    private StringBuilder pendingText = new StringBuilder();
+    //Only accessed on the FX thread
+    private int lineCount = 0;
 
     public Console(TextArea textArea) {
         this.textArea = textArea;
+        final Timeline refresh = new Timeline(new KeyFrame(Duration.millis(1000.0 / FRAMES_PER_SECOND), event -> appendPendingText()));
+        refresh.setCycleCount(Animation.INDEFINITE);
+        refresh.play();
     }
 
     public void clearTextArea() {
+        synchronized (this) {
+            pendingText.setLength(0);
+        }
         textArea.clear();
+        lineCount = 0;
+    }
+
+    @Override
+    public void write(int b) {
+        write(new byte[]{(byte) b}, 0, 1);
     }
 
     @Override
-    public void write(int b) throws IOException {
-        Platform.runLater(() -> textArea.appendText(String.valueOf((char) b)));
+    public synchronized void write(byte[] bytes, int offset, int length) {
+        ByteBuffer input = ByteBuffer.wrap(bytes, offset, length);
+        if (undecodedBytes.position() > 0) {
+            final ByteBuffer joined = ByteBuffer.allocate(undecodedBytes.position() + length);
+            undecodedBytes.flip();
+            joined.put(undecodedBytes).put(input).flip();
+            undecodedBytes.clear();
+            input = joined;
+        }
+        final CharBuffer chars = CharBuffer.allocate((int) (input.remaining() * (double) decoder.maxCharsPerByte()) + 1);
+        decoder.decode(input, chars, false);
+        chars.flip();
+        pendingText.append(chars);
+        //The start of a character, whose other bytes follow with the next write
+        if (input.hasRemaining()) {
+            if (undecodedBytes.capacity() < input.remaining())
+                undecodedBytes = ByteBuffer.allocate(input.remaining());
+            undecodedBytes.put(input);
+        }
+        if (pendingText.length() > MAXIMUM_PENDING_CHARS)
+            pendingText.delete(0, pendingText.length() - MAXIMUM_PENDING_CHARS);
+    }
+
+    /**
+     * Runs on the FX thread once per frame.
+     */
+    private void appendPendingText() {
+        final String text;
+        synchronized (this) {
+            if (pendingText.length() == 0)
+                return;
+            text = pendingText.toString();
+            pendingText = new StringBuilder();
+        }
+        textArea.appendText(text);
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n')
+                lineCount++;
+        }
+        if (lineCount > MAXIMUM_LINES + TRIMMED_LINES)
+            trimLines(lineCount - MAXIMUM_LINES);
+    }
+
+    private void trimLines(int linesToRemove) {
+        final String content = textArea.getText();
+        int end = 0, removed = 0;
+        while (removed < linesToRemove) {
+            final int lineEnd = content.indexOf('\n', end);
+            if (lineEnd < 0)
+                break;
+            end = lineEnd + 1;
+            removed++;
+        }
+        textArea.deleteText(0, end);
+        lineCount -= removed;
     }
 }
@@ -6,17 +6,22 @@ import java.util.Objects;
  * @author Maximilian Schirm, daan
  *         created: 05.12.2016
  *         <p>
- *         Identifies and entry by the Clients ID, combined with the index of its file (more than one file per request)
- *         and the position of the Bib Entry in this file.
+ *         Identifies and entry by the Clients ID and the ID of its request, combined with the index of its file (more
+ *         than one file per request) and the position of the Bib Entry in this file.
  */
 
 public class EntryIdentifier implements IIdentifier {
 
-    private final String clientID;
+    private final String clientID, requestID;
     private final int bibFileIndex, positionInBibFile;
 
     public EntryIdentifier(String clientID, int bibFileIndex, int positionInBibFile) {
+        this(clientID, clientID, bibFileIndex, positionInBibFile);
+    }
+
+    public EntryIdentifier(String clientID, String requestID, int bibFileIndex, int positionInBibFile) {
         this.clientID = clientID;
+        this.requestID = requestID;
         this.bibFileIndex = bibFileIndex;
         this.positionInBibFile = positionInBibFile;
     }
@@ -26,6 +31,11 @@ public class EntryIdentifier implements IIdentifier {
         return clientID;
     }
 
+    @Override
+    public String getRequestID() {
+        return requestID;
+    }
+
     @Override
     public int getBibFileIndex() {
         return bibFileIndex;
@@ -38,7 +48,7 @@ public class EntryIdentifier implements IIdentifier {
 
     @Override
     public String toString() {
-        return ("Entry from client " + clientID +
+        return ("Entry from client " + clientID + " of request " + requestID +
                 " in .bib-file " + bibFileIndex + " at position " + positionInBibFile + ".");
     }
 
@@ -49,11 +59,12 @@ public class EntryIdentifier implements IIdentifier {
         EntryIdentifier that = (EntryIdentifier) o;
         return getBibFileIndex() == that.getBibFileIndex() &&
                 getPositionInBibFile() == that.getPositionInBibFile() &&
-                Objects.equals(getClientID(), that.getClientID());
+                Objects.equals(getClientID(), that.getClientID()) &&
+                Objects.equals(getRequestID(), that.getRequestID());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(getClientID(), getBibFileIndex(), getPositionInBibFile());
+        return Objects.hash(getClientID(), getRequestID(), getBibFileIndex(), getPositionInBibFile());
     }
 }
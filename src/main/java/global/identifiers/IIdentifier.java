@@ -12,6 +12,11 @@ public interface IIdentifier extends Serializable {
 
     String getClientID();
 
+    /**
+     * @return the ID of the request the identified object belongs to. A client may have many requests in flight.
+     */
+    String getRequestID();
+
     int getBibFileIndex();
 
     int getPositionInBibFile();
@@ -0,0 +1,31 @@
+package global.identifiers;
+
+/**
+ * @author daan
+ * Names of the AMQP message headers used by Client, Server and MicroService.
+ */
+public enum MessageHeaders {
+
+    DEADLINE("deadline"),
+    //Times in ms since the epoch at which a request or task passed a hop, read by the RequestTracer
+    CLIENT_SEND_TIME("client-send-time"),
+    DISPATCH_TIME("dispatch-time"),
+    DEQUEUE_TIME("dequeue-time"),
+    //Start and end of the processing of an entry, i.e. of all its pandoc runs
+    PANDOC_START_TIME("pandoc-start-time"),
+    PANDOC_END_TIME("pandoc-end-time"),
+    PARTIAL_PUBLISH_TIME("partial-publish-time"),
+    //ID of the MicroService that converted a partial
+    SERVICE_ID("service-id");
+
+    private final String nameOfHeader;
+
+    MessageHeaders(String nameOfHeader) {
+        this.nameOfHeader = nameOfHeader;
+    }
+
+    @Override
+    public String toString() {
+        return nameOfHeader;
+    }
+}
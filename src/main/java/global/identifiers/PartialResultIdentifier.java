@@ -10,6 +10,11 @@ package global.identifiers;
 
 public class PartialResultIdentifier implements IIdentifier {
 
+    /*
+    Used as csl and template index by the partials of an entry whose conversion was aborted.
+     */
+    public static final int ABORTED_CONVERSION_INDEX = -1337;
+
     private final IIdentifier entryIdentifier;
     private final int cslFileIndex, templateFileIndex;
     private boolean hasErrors;
@@ -30,6 +35,11 @@ public class PartialResultIdentifier implements IIdentifier {
         return entryIdentifier.getClientID();
     }
 
+    @Override
+    public String getRequestID() {
+        return entryIdentifier.getRequestID();
+    }
+
     @Override
     public int getBibFileIndex() {
         return entryIdentifier.getBibFileIndex();
@@ -40,6 +50,10 @@ public class PartialResultIdentifier implements IIdentifier {
         return entryIdentifier.getPositionInBibFile();
     }
 
+    public IIdentifier getEntryIdentifier() {
+        return entryIdentifier;
+    }
+
     public int getCslFileIndex() {
         return cslFileIndex;
     }
@@ -51,6 +65,7 @@ public class PartialResultIdentifier implements IIdentifier {
     @Override
     public String toString() {
         return ("PartialResult for client " + entryIdentifier.getClientID() +
+                " of request " + entryIdentifier.getRequestID() +
                 " belongs to .bib-file " + entryIdentifier.getBibFileIndex() +
                 " at position " + entryIdentifier.getPositionInBibFile() +
                 "and was converted with .csl-file " + cslFileIndex +
@@ -10,6 +10,7 @@ public enum QueueNames {
     TASK_QUEUE_NAME("taskQueue"),
     MICROSERVICE_REGISTRATION_QUEUE_NAME("registrationQueue"),
     MICROSERVICE_STOP_QUEUE_NAME("stopQueueName"),
+    MICROSERVICE_HEARTBEAT_QUEUE_NAME("heartbeatQueue"),
     STOP_EXCHANGE_NAME("stopExchange"),
     CLIENT_CALLBACK_EXCHANGE_NAME("clientCallbackExchangeName");
 
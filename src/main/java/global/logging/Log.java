@@ -1,9 +1,15 @@
 package global.logging;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * @author Maximilian Schirm
@@ -12,16 +18,64 @@ import java.io.StringWriter;
  * It has several LogLevels indicating the severity of the message.
  * All log messages having at least the specified LogLevel are printed in the output stream
  * The GUI uses this output stream to print out the messages.
+ * <p>
+ * The level is checked before a message is formatted. Logging threads only put the message into a lock-free ring
+ * buffer, one background thread writes the messages to the output stream in UTF-8 encoded batches. If the buffer is
+ * full, messages are dropped and their # is logged, once there is room again.
  */
 
 public class Log {
 
+    //# of messages the ring buffer holds, a power of 2
+    private static final int BUFFER_CAPACITY = 1 << 16;
+    //max. # of messages written to the output stream at once
+    private static final int BATCH_SIZE = 512;
+    private static final long SHUTDOWN_FLUSH_TIMEOUT_MILLIS = 2000;
+
     private static final Log INSTANCE = new Log();
-    private static LogLevel minimumRequiredLevel = LogLevel.LOW;
-    private OutputStream outputStream;
+    private static volatile LogLevel minimumRequiredLevel = LogLevel.LOW;
+    private volatile OutputStream outputStream;
+
+    //Producers claim slots by advancing tail, the writer is the only one advancing head
+    private final int bufferCapacity;
+    private final AtomicReferenceArray<String> buffer;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head = 0;
+    private final AtomicLong droppedMessages = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean writerParked = false;
+    private volatile boolean shuttingDown = false;
 
     private Log() {
+        this(BUFFER_CAPACITY, true);
+    }
+
+    /**
+     * @param bufferCapacity the # of messages the ring buffer holds, a power of 2
+     * @param startWriter    whether a writer thread writes the messages, otherwise writeBatch() has to be called
+     */
+    //Package-private for the tests
+    Log(int bufferCapacity, boolean startWriter) {
+        this.bufferCapacity = bufferCapacity;
+        this.buffer = new AtomicReferenceArray<>(bufferCapacity);
         this.outputStream = System.out;
+        if (!startWriter) {
+            this.writer = null;
+            return;
+        }
+        this.writer = new Thread(this::writeMessages, "log-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+        //Messages logged right before the JVM exits, e.g. by System.exit(), are still written
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            shuttingDown = true;
+            LockSupport.unpark(writer);
+            try {
+                writer.join(SHUTDOWN_FLUSH_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "log-flush"));
     }
 
     /**
@@ -31,11 +85,12 @@ public class Log {
      * @param t
      */
     public static void log(String message, Throwable t) {
-        log(message, LogLevel.ERROR);
+        if (!isLoggable(LogLevel.ERROR))
+            return;
         StringWriter sw = new StringWriter();
         t.printStackTrace(new PrintWriter(sw));
-        String exceptionAsString = t.getMessage() + "\n" + sw.toString();
-        log(exceptionAsString, LogLevel.ERROR);
+        //One entry, so other messages can't get between message and stack trace
+        INSTANCE.printOut(message + "\n" + t.getMessage() + "\n" + sw.toString());
     }
 
     /**
@@ -44,8 +99,7 @@ public class Log {
      * @param message
      */
     public static void log(String message) {
-        if (INSTANCE != null)
-            INSTANCE.printOut(message, LogLevel.INFO);
+        log(message, LogLevel.INFO);
     }
 
     /**
@@ -55,44 +109,104 @@ public class Log {
      * @param level
      */
     public static void log(String message, LogLevel level) {
-        if (INSTANCE != null)
-            INSTANCE.printOut(message, level);
+        if (INSTANCE != null && isLoggable(level))
+            INSTANCE.printOut(message);
     }
 
     /**
-     * Prints the String if the level is at least at the minimum required level.
+     * @return whether messages of the level are printed, check it before building expensive messages
+     */
+    public static boolean isLoggable(LogLevel level) {
+        return minimumRequiredLevel.ordinal() <= level.ordinal();
+    }
+
+    /**
+     * Puts the message into the ring buffer or drops it, if the buffer is full.
      *
      * @param message
-     * @param level
      */
-    private void printOut(String message, LogLevel level) {
-        Thread thread = new Thread(() -> {
-            synchronized (outputStream) {
-                int ordLev = level.ordinal();
-                int minLev = minimumRequiredLevel.ordinal();
-
-                if (minLev <= ordLev) {
-                    try {
-                        for (char c : message.toCharArray())
-                            outputStream.write(c);
-                        outputStream.write("\n".getBytes());
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
+    //Package-private for the tests
+    void printOut(String message) {
+        long slot;
+        do {
+            slot = tail.get();
+            if (slot - head >= bufferCapacity) {
+                droppedMessages.incrementAndGet();
+                return;
             }
-        });
-        thread.run();
+        } while (!tail.compareAndSet(slot, slot + 1));
+        buffer.set((int) (slot & (bufferCapacity - 1)), message == null ? "null" : message);
+        if (writerParked)
+            LockSupport.unpark(writer);
+    }
+
+    /**
+     * Loop of the writer thread.
+     */
+    private void writeMessages() {
+        final ByteArrayOutputStream batch = new ByteArrayOutputStream(64 * 1024);
+        while (true) {
+            final int written = writeBatch(batch);
+            if (written == 0) {
+                if (shuttingDown)
+                    return;
+                writerParked = true;
+                //Checked again after announcing the park, so no message is left waiting for the timeout
+                if (tail.get() == head)
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+                writerParked = false;
+            }
+        }
+    }
+
+    /**
+     * @return the # of messages written
+     */
+    //Package-private for the tests
+    int writeBatch(ByteArrayOutputStream batch) {
+        final long dropped = droppedMessages.getAndSet(0);
+        if (dropped > 0)
+            appendLine(batch, "[Log] Dropped " + dropped + " messages, the log buffer was full.");
+        int count = 0;
+        long position = head;
+        while (count < BATCH_SIZE && position < tail.get()) {
+            final int index = (int) (position & (bufferCapacity - 1));
+            String message = buffer.get(index);
+            //The slot is claimed, but the message not set yet
+            while (message == null) {
+                Thread.yield();
+                message = buffer.get(index);
+            }
+            buffer.set(index, null);
+            appendLine(batch, message);
+            position++;
+            count++;
+            head = position;
+        }
+        if (batch.size() > 0) {
+            final OutputStream currentOutputStream = outputStream;
+            try {
+                batch.writeTo(currentOutputStream);
+                currentOutputStream.flush();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            batch.reset();
+        }
+        return count;
+    }
+
+    private static void appendLine(ByteArrayOutputStream batch, String message) {
+        final byte[] bytes = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        batch.write(bytes, 0, bytes.length);
     }
 
     public static LogLevel getMinimumRequiredLevel() {
-        if (INSTANCE != null)
-            return INSTANCE.minimumRequiredLevel;
         return minimumRequiredLevel;
     }
 
     private void setMinimumRequiredLevel(LogLevel minimumRequiredLevel) {
-        this.minimumRequiredLevel = minimumRequiredLevel;
+        Log.minimumRequiredLevel = minimumRequiredLevel;
     }
 
     public static void alterMinimumRequiredLevel(LogLevel minimumRequiredLevel) {
@@ -112,4 +226,4 @@ public class Log {
     public void setOutputStream(OutputStream outputStream) {
         this.outputStream = outputStream;
     }
-}
\ No newline at end of file
+}
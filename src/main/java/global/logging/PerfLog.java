@@ -1,10 +1,21 @@
 package global.logging;
 
+import global.util.FileUtils;
+
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * @author Maximilian
@@ -13,99 +24,204 @@ import java.util.Map;
  * Offers logging tools accessible statically from anywhere in the project.
  * NOTE : Disabled by default, use setLoggingState(true) for enabling log file output.
  *
+ * Logged values are only appended to the end of the key's file, every FLUSH_INTERVAL_MILLIS or on writeChanges().
+ * A file exceeding MAXIMUM_FILE_SIZE is rotated to "key.csv.1" etc. The last RECENT_VALUES_CAPACITY values of each key
+ * are kept in memory, nothing more.
  */
 public class PerfLog {
 
     private static final PerfLog INSTANCE = new PerfLog();
     private static final String DEFAULT_KEY = "defaultPerformanceLog";
     private static final char CSV_SEPERATOR = ';';
-    private Map<String, LogContent> loggingKeyToLogContentMap;
-    private File outputDirectory;
-    private static boolean loggingActive = false;
+    private static final String FILE_EXTENSION = ".csv";
+    private static final long FLUSH_INTERVAL_MILLIS = 1000;
+    private static final long MAXIMUM_FILE_SIZE = 16 * 1024 * 1024;
+    //# of rotated files kept besides the current one
+    private static final int MAXIMUM_ROTATED_FILES = 5;
+    private static final int RECENT_VALUES_CAPACITY = 1024;
+    //Unwritten content beyond this length is written right away instead of waiting for the next flush
+    private static final int MAXIMUM_UNWRITTEN_CHARS = 64 * 1024;
+
+    private final ConcurrentMap<String, LogContent> loggingKeyToLogContentMap = new ConcurrentHashMap<>();
+    private final long maximumFileSize;
+    private final int recentValuesCapacity;
+    private volatile File outputDirectory;
+    private static volatile boolean loggingActive = false;
 
+    /**
+     * The values logged for one key. Access is guarded by the lock of the LogContent.
+     */
     private class LogContent{
-        private boolean hasBeenChanged = true;
-        private StringBuilder content = new StringBuilder();
+        private final String key;
+        private final String[] recentValues = new String[recentValuesCapacity];
+        private long valueCount = 0;
+        private final StringBuilder unwrittenContent = new StringBuilder();
+        //The file is truncated before the unwritten content is written
+        private boolean overwritten = false;
+        private FileChannel channel;
+        private Path channelPath;
 
-        public LogContent(){
+        private LogContent(String key){
+            this.key = key;
+        }
 
+        private void appendContent(String toAppend){
+            remember(toAppend);
+            if(!loggingActive)
+                return;
+            unwrittenContent.append(toAppend).append(CSV_SEPERATOR);
+            if(unwrittenContent.length() >= MAXIMUM_UNWRITTEN_CHARS)
+                flush();
         }
 
-        public LogContent(String content){
-            this.content.append(content);
+        private void overwriteContent(String newContent){
+            remember(newContent);
+            if(!loggingActive)
+                return;
+            unwrittenContent.setLength(0);
+            unwrittenContent.append(newContent);
+            overwritten = true;
         }
 
-        public void appendContent(String toAppend){
-            content.append(toAppend);
+        private void remember(String value){
+            recentValues[(int) (valueCount % recentValuesCapacity)] = value;
+            valueCount++;
+        }
 
-            setHasBeenChanged(true);
+        private List<String> getRecentValues(){
+            final List<String> values = new ArrayList<>();
+            for(long i = Math.max(0, valueCount - recentValuesCapacity); i < valueCount; i++)
+                values.add(recentValues[(int) (i % recentValuesCapacity)]);
+            return values;
         }
 
-        public void overwriteContent(String newContent){
-            content = new StringBuilder();
-            content.append(newContent);
+        private void flush(){
+            if(unwrittenContent.length() == 0 && !overwritten)
+                return;
+            final Path path = new File(outputDirectory, key + FILE_EXTENSION).toPath();
+            try{
+                if(overwritten || !path.equals(channelPath) || !Files.exists(path)){
+                    closeChannel();
+                    openChannel(path, overwritten);
+                    overwritten = false;
+                } else if(channel.size() >= maximumFileSize){
+                    closeChannel();
+                    rotate(path);
+                    openChannel(path, false);
+                }
+                final ByteBuffer bytes = ByteBuffer.wrap(FileUtils.toBytes(unwrittenContent.toString()));
+                while(bytes.hasRemaining())
+                    channel.write(bytes);
+                unwrittenContent.setLength(0);
+            } catch (IOException e){
+                Log.log("Failed to write the log file for the key " + key + "!", e);
+                closeChannel();
+            }
+        }
 
-            setHasBeenChanged(true);
+        /**
+         * Opens the file for appending. New or truncated files start with the key.
+         */
+        private void openChannel(Path path, boolean truncate) throws IOException{
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    truncate ? StandardOpenOption.TRUNCATE_EXISTING : StandardOpenOption.APPEND);
+            channelPath = path;
+            if(channel.size() == 0)
+                channel.write(ByteBuffer.wrap(FileUtils.toBytes(key + CSV_SEPERATOR)));
         }
 
-        public boolean hasBeenChanged() {
-            return hasBeenChanged;
+        private void closeChannel(){
+            if(channel == null)
+                return;
+            try{
+                channel.close();
+            } catch (IOException e){
+                Log.log("Failed to close the log file for the key " + key + "!", e);
+            }
+            channel = null;
+            channelPath = null;
         }
 
-        private void setHasBeenChanged(boolean hasBeenChanged) {
-            this.hasBeenChanged = hasBeenChanged;
+        /**
+         * Moves key.csv to key.csv.1, key.csv.1 to key.csv.2 and so on. The oldest file is deleted.
+         */
+        private void rotate(Path path) throws IOException{
+            Files.deleteIfExists(rotatedPath(path, MAXIMUM_ROTATED_FILES));
+            for(int index = MAXIMUM_ROTATED_FILES - 1; index >= 1; index--){
+                if(Files.exists(rotatedPath(path, index)))
+                    Files.move(rotatedPath(path, index), rotatedPath(path, index + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+            Files.move(path, rotatedPath(path, 1), StandardCopyOption.REPLACE_EXISTING);
         }
 
-        @Override
-        public String toString(){
-            return content.toString();
+        private Path rotatedPath(Path path, int index){
+            return path.resolveSibling(path.getFileName() + "." + index);
         }
     }
 
     public PerfLog() {
+        this(MAXIMUM_FILE_SIZE, RECENT_VALUES_CAPACITY, true);
+    }
+
+    //Package-private for the tests, which flush by calling writeToFiles()
+    PerfLog(long maximumFileSize, int recentValuesCapacity, boolean flushPeriodically) {
+        this.maximumFileSize = maximumFileSize;
+        this.recentValuesCapacity = recentValuesCapacity;
         this.outputDirectory = new File(System.getProperty("user.home"));
-        loggingKeyToLogContentMap = new HashMap<>();
+        if(!flushPeriodically)
+            return;
+        final Timer flushTimer = new Timer("perflog-flush", true);
+        flushTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                writeToFiles();
+            }
+        }, FLUSH_INTERVAL_MILLIS, FLUSH_INTERVAL_MILLIS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::writeToFiles, "perflog-shutdown"));
     }
 
-    private void setLoggingActive(boolean active){
+    //Package-private for the tests
+    void setLoggingActive(boolean active){
         loggingActive = active;
     }
 
     public void setOutputDirectory(File outputDirectory) {
+        //What's logged so far belongs into the old directory
+        writeToFiles();
         this.outputDirectory = outputDirectory;
-        loggingKeyToLogContentMap.forEach((key, content) -> content.setHasBeenChanged(true));
     }
 
-    private void writeContentLog(String loggingKey, String toAddToLog, boolean append){
-        LogContent theContent = loggingKeyToLogContentMap.get(loggingKey);
-        //Create a new entry?
-        if(theContent == null)
-            theContent = new LogContent();
-
-        //Add/overwrite the new content to the log
-        if(append)
-            theContent.appendContent(toAddToLog + CSV_SEPERATOR);
-        else
-            theContent.overwriteContent(toAddToLog);
-
-        //Put the changed entry back into our map
-        loggingKeyToLogContentMap.put(loggingKey, theContent);
+    //Package-private for the tests
+    void writeContentLog(String loggingKey, String toAddToLog, boolean append){
+        LogContent theContent = loggingKeyToLogContentMap.computeIfAbsent(loggingKey, LogContent::new);
+        synchronized (theContent) {
+            //Add/overwrite the new content to the log
+            if(append)
+                theContent.appendContent(toAddToLog);
+            else
+                theContent.overwriteContent(toAddToLog);
+        }
     }
 
-    private void writeToFiles() {
-        if(loggingActive) loggingKeyToLogContentMap.forEach((currentKey, currentEntry) -> {
-            if(currentEntry.hasBeenChanged){
-                try{
-                    String outputFileContent = currentKey + CSV_SEPERATOR + currentEntry.toString();
-                    File writeFile = new File(outputDirectory, currentKey + ".csv");
-                    Files.write(writeFile.toPath(),outputFileContent.getBytes());
-                } catch (IOException e){
-                    Log.log("Failed to write the log file for the key " + currentKey + "!", e);
-                }
+    //Package-private for the tests
+    void writeToFiles() {
+        loggingKeyToLogContentMap.values().forEach(currentEntry -> {
+            synchronized (currentEntry) {
+                currentEntry.flush();
             }
         });
     }
 
+    //Package-private for the tests
+    List<String> recentValuesOf(String loggingKey){
+        LogContent theContent = loggingKeyToLogContentMap.get(loggingKey);
+        if(theContent == null)
+            return new ArrayList<>();
+        synchronized (theContent) {
+            return theContent.getRecentValues();
+        }
+    }
+
     //Public methods (all static)
 
     /**
@@ -118,7 +234,7 @@ public class PerfLog {
     }
 
     /**
-     * Will write the changed log entries to their files.
+     * Will write the changed log entries to their files. Happens every second anyway.
      */
     public static void writeChanges() {
         if(INSTANCE!=null)
@@ -127,7 +243,7 @@ public class PerfLog {
 
     /**
      * Logs some String to the log.
-     * NOTE : Not yet written. Call writeChanges() for writing to files.
+     * NOTE : Written to the file within a second or by calling writeChanges().
      *
      * @param loggingKey
      * @param logContent
@@ -171,4 +287,12 @@ public class PerfLog {
         log(DEFAULT_KEY, logContent);
     }
 
-}
\ No newline at end of file
+    /**
+     * @param loggingKey
+     * @return the last values logged for the key, the oldest first
+     */
+    public static List<String> getRecentValues(String loggingKey){
+        return INSTANCE.recentValuesOf(loggingKey);
+    }
+
+}
@@ -0,0 +1,39 @@
+package global.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author daan
+ *         <p>
+ *         A count that only goes up, e.g. the # of entries converted. Cheap to increment from many threads at once.
+ */
+public final class Counter {
+
+    private final String name;
+    private final LongAdder count = new LongAdder();
+
+    Counter(String name) {
+        this.name = name;
+    }
+
+    public void increment() {
+        count.increment();
+    }
+
+    public void add(long amount) {
+        count.add(amount);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return name + " : " + getCount();
+    }
+}
@@ -0,0 +1,181 @@
+package global.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author daan
+ *         <p>
+ *         Distribution of durations in ns. The buckets are fixed: Every power of two is split into SUB_BUCKET_COUNT
+ *         buckets of equal width, so a percentile is off by at most 1 / SUB_BUCKET_COUNT (~3%) of its value. Recording
+ *         is an increment of one bucket without any allocation or lock. Durations beyond MAXIMUM_TRACKABLE_NANOS
+ *         (~73 min) are counted in the last bucket, their maximum is kept exactly.
+ */
+public final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAXIMUM_EXPONENT = 42;
+    public static final long MAXIMUM_TRACKABLE_NANOS = (1L << (MAXIMUM_EXPONENT + 1)) - 1;
+    private static final int BUCKET_COUNT = bucketIndex(MAXIMUM_TRACKABLE_NANOS) + 1;
+
+    private final String name;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maximumNanos = new AtomicLong();
+
+    LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Records a duration, negative ones (e.g. between two machines with skewed clocks) as 0.
+     */
+    public void record(long nanos) {
+        final long value = Math.max(nanos, 0);
+        buckets.incrementAndGet(bucketIndex(Math.min(value, MAXIMUM_TRACKABLE_NANOS)));
+        totalNanos.addAndGet(value);
+        if (value > maximumNanos.get())
+            maximumNanos.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * Records the time passed since the start.
+     *
+     * @param startNanos a value of System.nanoTime()
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public void record(long duration, TimeUnit unit) {
+        record(unit.toNanos(duration));
+    }
+
+    /**
+     * @return a copy of the current distribution. Recordings made while it's copied may be partially included.
+     */
+    public Snapshot getSnapshot() {
+        final long[] bucketCounts = new long[BUCKET_COUNT];
+        long snapshotCount = 0;
+        for (int index = 0; index < BUCKET_COUNT; index++) {
+            bucketCounts[index] = buckets.get(index);
+            snapshotCount += bucketCounts[index];
+        }
+        return new Snapshot(name, bucketCounts, snapshotCount, totalNanos.get(), maximumNanos.get());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    private static int bucketIndex(long nanos) {
+        if (nanos < SUB_BUCKET_COUNT)
+            return (int) nanos;
+        final int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        final int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKET_COUNT;
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * @return the largest value counted in the bucket, Long.MAX_VALUE for the last one which counts the untrackable
+     * durations, too
+     */
+    private static long bucketUpperBound(int index) {
+        if (index == BUCKET_COUNT - 1)
+            return Long.MAX_VALUE;
+        if (index < SUB_BUCKET_COUNT)
+            return index;
+        final int shift = index / SUB_BUCKET_COUNT - 1;
+        final long subBucket = SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    @Override
+    public String toString() {
+        return getSnapshot().toString();
+    }
+
+    /**
+     * The distribution of a LatencyHistogram at one point in time.
+     */
+    public static final class Snapshot {
+        private final String name;
+        private final long[] bucketCounts;
+        private final long count;
+        private final long totalNanos;
+        private final long maximumNanos;
+
+        private Snapshot(String name, long[] bucketCounts, long count, long totalNanos, long maximumNanos) {
+            this.name = name;
+            this.bucketCounts = bucketCounts;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maximumNanos = maximumNanos;
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return the smallest duration in ns that percentile % of the recordings don't exceed, 0 if there are none
+         */
+        public long getPercentileNanos(double percentile) {
+            if (count == 0)
+                return 0;
+            final long rank = Math.max(1, (long) Math.ceil(Math.min(Math.max(percentile, 0), 100) / 100 * count));
+            long seen = 0;
+            for (int index = 0; index < bucketCounts.length; index++) {
+                seen += bucketCounts[index];
+                if (seen >= rank)
+                    return Math.min(bucketUpperBound(index), maximumNanos);
+            }
+            return maximumNanos;
+        }
+
+        /**
+         * @param earlier a snapshot of the same histogram, taken before this one
+         * @return the distribution of the durations recorded between both snapshots. Its max. is only as exact as
+         * the buckets.
+         */
+        public Snapshot since(Snapshot earlier) {
+            final long[] difference = new long[bucketCounts.length];
+            long differenceCount = 0;
+            int highestBucket = -1;
+            for (int index = 0; index < bucketCounts.length; index++) {
+                difference[index] = Math.max(bucketCounts[index] - earlier.bucketCounts[index], 0);
+                differenceCount += difference[index];
+                if (difference[index] > 0)
+                    highestBucket = index;
+            }
+            final long differenceMaximum = highestBucket < 0 ? 0 : Math.min(bucketUpperBound(highestBucket), maximumNanos);
+            return new Snapshot(name, difference, differenceCount, totalNanos - earlier.totalNanos, differenceMaximum);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getMaximumNanos() {
+            return maximumNanos;
+        }
+
+        public double getMeanNanos() {
+            return count == 0 ? 0 : (double) totalNanos / count;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s : count %d, mean %.3f ms, p50 %.3f ms, p90 %.3f ms, p99 %.3f ms, max. %.3f ms",
+                    name, count, getMeanNanos() / 1e6, getPercentileNanos(50) / 1e6, getPercentileNanos(90) / 1e6,
+                    getPercentileNanos(99) / 1e6, maximumNanos / 1e6);
+        }
+    }
+}
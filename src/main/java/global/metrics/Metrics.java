@@ -0,0 +1,86 @@
+package global.metrics;
+
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.LongSupplier;
+
+/**
+ * @author daan
+ *         <p>
+ *         Registry of the counters, gauges and latency histograms of everything running in this JVM: Server,
+ *         MicroServices and Client record to the same registry. Metrics are created on first use, so callers should
+ *         look them up once and keep the reference. Names are dot separated and start with the component, e.g.
+ *         "microservice.pandoc".
+ */
+public final class Metrics {
+
+    private static final ConcurrentMap<String, Counter> COUNTERS = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, LongSupplier> GAUGES = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, LatencyHistogram> HISTOGRAMS = new ConcurrentHashMap<>();
+
+    private Metrics() {
+        throw new AssertionError("Metrics is a static class.");
+    }
+
+    public static Counter counter(String name) {
+        return COUNTERS.computeIfAbsent(name, Counter::new);
+    }
+
+    public static LatencyHistogram histogram(String name) {
+        return HISTOGRAMS.computeIfAbsent(name, LatencyHistogram::new);
+    }
+
+    /**
+     * Registers a value that is read whenever the metrics are queried, replacing a gauge of the same name.
+     */
+    public static void registerGauge(String name, LongSupplier gauge) {
+        GAUGES.put(name, gauge);
+    }
+
+    public static void unregisterGauge(String name) {
+        GAUGES.remove(name);
+    }
+
+    /**
+     * @return the counts of all counters, by name
+     */
+    public static SortedMap<String, Long> getCounterValues() {
+        final SortedMap<String, Long> values = new TreeMap<>();
+        COUNTERS.forEach((name, counter) -> values.put(name, counter.getCount()));
+        return values;
+    }
+
+    /**
+     * @return the current values of all gauges, by name
+     */
+    public static SortedMap<String, Long> getGaugeValues() {
+        final SortedMap<String, Long> values = new TreeMap<>();
+        GAUGES.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+        return values;
+    }
+
+    /**
+     * @return snapshots of all histograms, by name
+     */
+    public static SortedMap<String, LatencyHistogram.Snapshot> getHistogramSnapshots() {
+        final SortedMap<String, LatencyHistogram.Snapshot> snapshots = new TreeMap<>();
+        HISTOGRAMS.forEach((name, histogram) -> snapshots.put(name, histogram.getSnapshot()));
+        return snapshots;
+    }
+
+    /**
+     * @return one line per metric, for logging or the CLI
+     */
+    public static String format() {
+        final StringBuilder formatted = new StringBuilder();
+        for (Map.Entry<String, Long> counter : getCounterValues().entrySet())
+            formatted.append(counter.getKey()).append(" : ").append(counter.getValue()).append('\n');
+        for (Map.Entry<String, Long> gauge : getGaugeValues().entrySet())
+            formatted.append(gauge.getKey()).append(" : ").append(gauge.getValue()).append('\n');
+        getHistogramSnapshots().values().forEach(snapshot -> formatted.append(snapshot).append('\n'));
+        return formatted.toString();
+    }
+}
@@ -0,0 +1,174 @@
+package global.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import global.logging.Log;
+import global.logging.LogLevel;
+import global.util.FileUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+/**
+ * @author daan
+ *         <p>
+ *         Optional HTTP endpoint serving the Metrics of this JVM and its memory, GC and thread stats at "/metrics" in
+ *         the Prometheus text format. It is started by Server and MicroService, if the system property
+ *         "metrics.port" is set; Server and MicroServices running in the same JVM share one endpoint.
+ *         <p>
+ *         Names get the prefix "bib2html_", the dots and capitals of the registry names become underscores. Counters
+ *         end with "_total", histograms are exported as summaries in seconds.
+ */
+public final class MetricsEndpoint {
+
+    public static final String PORT_PROPERTY = "metrics.port";
+    private static final String PATH = "/metrics";
+    private static final String PREFIX = "bib2html_";
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private static HttpServer httpServer;
+
+    private MetricsEndpoint() {
+        throw new AssertionError("MetricsEndpoint is a static class.");
+    }
+
+    /**
+     * Starts the endpoint on the port given by the system property "metrics.port", unless it's not set or the
+     * endpoint runs already.
+     */
+    public static synchronized void startIfConfigured() {
+        final Integer port = Integer.getInteger(PORT_PROPERTY);
+        if (port == null || httpServer != null)
+            return;
+        try {
+            httpServer = HttpServer.create(new InetSocketAddress(port), 0);
+            httpServer.createContext(PATH, MetricsEndpoint::handle);
+            httpServer.setExecutor(Executors.newSingleThreadExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "metrics-endpoint");
+                thread.setDaemon(true);
+                return thread;
+            }));
+            httpServer.start();
+            Log.log("Serving metrics at http://localhost:" + port + PATH, LogLevel.INFO);
+        } catch (IOException e) {
+            httpServer = null;
+            Log.log("Failed to start the metrics endpoint on port " + port, e);
+        }
+    }
+
+    public static synchronized void stop() {
+        if (httpServer == null)
+            return;
+        httpServer.stop(0);
+        httpServer = null;
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            final byte[] body = FileUtils.toBytes(format());
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream responseBody = exchange.getResponseBody()) {
+                responseBody.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @return all metrics in the Prometheus text format
+     */
+    public static String format() {
+        final StringBuilder formatted = new StringBuilder();
+        for (Map.Entry<String, Long> counter : Metrics.getCounterValues().entrySet()) {
+            final String name = toPrometheusName(counter.getKey()) + "_total";
+            appendType(formatted, name, "counter");
+            appendSample(formatted, name, "", counter.getValue());
+        }
+        for (Map.Entry<String, Long> gauge : Metrics.getGaugeValues().entrySet()) {
+            final String name = toPrometheusName(gauge.getKey());
+            appendType(formatted, name, "gauge");
+            appendSample(formatted, name, "", gauge.getValue());
+        }
+        for (LatencyHistogram.Snapshot snapshot : Metrics.getHistogramSnapshots().values()) {
+            final String name = toPrometheusName(snapshot.getName()) + "_seconds";
+            appendType(formatted, name, "summary");
+            for (double quantile : QUANTILES)
+                appendSample(formatted, name, "{quantile=\"" + quantile + "\"}", snapshot.getPercentileNanos(quantile * 100) / 1e9);
+            appendSample(formatted, name + "_sum", "", snapshot.getTotalNanos() / 1e9);
+            appendSample(formatted, name + "_count", "", snapshot.getCount());
+        }
+        appendJvmMetrics(formatted);
+        return formatted.toString();
+    }
+
+    private static void appendJvmMetrics(StringBuilder formatted) {
+        final MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        final MemoryUsage nonHeap = ManagementFactory.getMemoryMXBean().getNonHeapMemoryUsage();
+        appendType(formatted, "jvm_memory_used_bytes", "gauge");
+        appendSample(formatted, "jvm_memory_used_bytes", "{area=\"heap\"}", heap.getUsed());
+        appendSample(formatted, "jvm_memory_used_bytes", "{area=\"nonheap\"}", nonHeap.getUsed());
+        appendType(formatted, "jvm_memory_committed_bytes", "gauge");
+        appendSample(formatted, "jvm_memory_committed_bytes", "{area=\"heap\"}", heap.getCommitted());
+        appendSample(formatted, "jvm_memory_committed_bytes", "{area=\"nonheap\"}", nonHeap.getCommitted());
+        appendType(formatted, "jvm_memory_max_bytes", "gauge");
+        appendSample(formatted, "jvm_memory_max_bytes", "{area=\"heap\"}", heap.getMax());
+
+        appendType(formatted, "jvm_gc_collections_total", "counter");
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+            appendSample(formatted, "jvm_gc_collections_total", "{gc=\"" + escape(collector.getName()) + "\"}", collector.getCollectionCount());
+        appendType(formatted, "jvm_gc_collection_seconds_total", "counter");
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+            appendSample(formatted, "jvm_gc_collection_seconds_total", "{gc=\"" + escape(collector.getName()) + "\"}", collector.getCollectionTime() / 1e3);
+
+        appendType(formatted, "jvm_threads_live", "gauge");
+        appendSample(formatted, "jvm_threads_live", "", ManagementFactory.getThreadMXBean().getThreadCount());
+    }
+
+    private static void appendType(StringBuilder formatted, String name, String type) {
+        formatted.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void appendSample(StringBuilder formatted, String name, String labels, double value) {
+        formatted.append(name).append(labels).append(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value))
+            formatted.append((long) value);
+        else
+            formatted.append(value);
+        formatted.append('\n');
+    }
+
+    /**
+     * "server.tasksDispatched" becomes "bib2html_server_tasks_dispatched".
+     */
+    static String toPrometheusName(String name) {
+        final StringBuilder converted = new StringBuilder(PREFIX);
+        for (int i = 0; i < name.length(); i++) {
+            final char character = name.charAt(i);
+            if (Character.isUpperCase(character)) {
+                converted.append('_').append(Character.toLowerCase(character));
+            } else if ((character >= 'a' && character <= 'z') || (character >= '0' && character <= '9')) {
+                converted.append(character);
+            } else {
+                converted.append('_');
+            }
+        }
+        return converted.toString();
+    }
+
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -9,14 +9,31 @@ import java.util.Collection;
  */
 public class DefaultClientRequest implements IClientRequest {
 
-    private final String clientID;
+    private final String clientID, requestID;
     private final ArrayList<IEntry> entries;
     private final String secretKey;
+    private final long deadline;
+    private final boolean partialResultsRequested;
 
     public DefaultClientRequest(String secretKey, String clientID, Collection<IEntry> entries) {
+        this(secretKey, clientID, entries, 0);
+    }
+
+    public DefaultClientRequest(String secretKey, String clientID, Collection<IEntry> entries, long deadline) {
+        this(secretKey, clientID, entries, deadline, false);
+    }
+
+    public DefaultClientRequest(String secretKey, String clientID, Collection<IEntry> entries, long deadline, boolean partialResultsRequested) {
+        this(secretKey, clientID, clientID, entries, deadline, partialResultsRequested);
+    }
+
+    public DefaultClientRequest(String secretKey, String clientID, String requestID, Collection<IEntry> entries, long deadline, boolean partialResultsRequested) {
         this.secretKey = secretKey;
         this.clientID = clientID;
+        this.requestID = requestID;
         this.entries = new ArrayList<>(entries);
+        this.deadline = deadline;
+        this.partialResultsRequested = partialResultsRequested;
     }
 
     @Override
@@ -24,6 +41,11 @@ public class DefaultClientRequest implements IClientRequest {
         return clientID;
     }
 
+    @Override
+    public String getRequestID() {
+        return requestID;
+    }
+
     @Override
     public String getSecretKey() { return secretKey; }
 
@@ -32,9 +54,19 @@ public class DefaultClientRequest implements IClientRequest {
         return entries;
     }
 
+    @Override
+    public long getDeadline() {
+        return deadline;
+    }
+
+    @Override
+    public boolean isPartialResultsRequested() {
+        return partialResultsRequested;
+    }
+
     @Override
     public String toString() {
-        return ("DefaultClientRequest " + clientID + " has " + entries.size() + " entries.");
+        return ("DefaultClientRequest " + requestID + " of client " + clientID + " has " + entries.size() + " entries.");
     }
 
 }
@@ -18,12 +18,18 @@ public class DefaultEntry implements IEntry {
 
     public static final class Builder {
 
-        private String clientID, content;
+        private String clientID, requestID, content;
         private ArrayList<String> cslFiles, templatesFiles;
         private int bibFileIndex, positionInBibFile;
 
         public Builder(String clientID) {
             this.clientID = clientID;
+            this.requestID = clientID;
+        }
+
+        public Builder requestID(String requestID) {
+            this.requestID = requestID;
+            return this;
         }
 
         public Builder content(String content) {
@@ -58,7 +64,7 @@ public class DefaultEntry implements IEntry {
 
     private DefaultEntry(Builder builder) {
         this.entryIdentifier = new EntryIdentifier(
-                builder.clientID, builder.bibFileIndex, builder.positionInBibFile);
+                builder.clientID, builder.requestID, builder.bibFileIndex, builder.positionInBibFile);
         this.content = builder.content;
         this.cslFiles = builder.cslFiles;
         this.templateFiles = builder.templatesFiles;
@@ -0,0 +1,105 @@
+package global.model;
+
+/**
+ * @author daan
+ */
+public class DefaultHeartbeat implements IHeartbeat {
+
+    private final String microServiceID, microServiceIP;
+    private final long heartbeatInterval;
+    private final int inFlightCount, prefetchLimit;
+    private final double throughput, cpuLoad;
+
+    public static final class Builder {
+
+        private final String microServiceID, microServiceIP;
+        private long heartbeatInterval;
+        private int inFlightCount, prefetchLimit;
+        private double throughput, cpuLoad = -1;
+
+        public Builder(String microServiceID, String microServiceIP) {
+            this.microServiceID = microServiceID;
+            this.microServiceIP = microServiceIP;
+        }
+
+        public Builder heartbeatInterval(long heartbeatInterval) {
+            this.heartbeatInterval = heartbeatInterval;
+            return this;
+        }
+
+        public Builder inFlightCount(int inFlightCount) {
+            this.inFlightCount = inFlightCount;
+            return this;
+        }
+
+        public Builder prefetchLimit(int prefetchLimit) {
+            this.prefetchLimit = prefetchLimit;
+            return this;
+        }
+
+        public Builder throughput(double throughput) {
+            this.throughput = throughput;
+            return this;
+        }
+
+        public Builder cpuLoad(double cpuLoad) {
+            this.cpuLoad = cpuLoad;
+            return this;
+        }
+
+        public DefaultHeartbeat build() {
+            return new DefaultHeartbeat(this);
+        }
+    }
+
+    private DefaultHeartbeat(Builder builder) {
+        this.microServiceID = builder.microServiceID;
+        this.microServiceIP = builder.microServiceIP;
+        this.heartbeatInterval = builder.heartbeatInterval;
+        this.inFlightCount = builder.inFlightCount;
+        this.prefetchLimit = builder.prefetchLimit;
+        this.throughput = builder.throughput;
+        this.cpuLoad = builder.cpuLoad;
+    }
+
+    @Override
+    public String getMicroServiceID() {
+        return microServiceID;
+    }
+
+    @Override
+    public String getMicroServiceIP() {
+        return microServiceIP;
+    }
+
+    @Override
+    public long getHeartbeatInterval() {
+        return heartbeatInterval;
+    }
+
+    @Override
+    public int getInFlightCount() {
+        return inFlightCount;
+    }
+
+    @Override
+    public int getPrefetchLimit() {
+        return prefetchLimit;
+    }
+
+    @Override
+    public double getThroughput() {
+        return throughput;
+    }
+
+    @Override
+    public double getCpuLoad() {
+        return cpuLoad;
+    }
+
+    @Override
+    public String toString() {
+        return ("Heartbeat of MicroService " + microServiceID + ": " + inFlightCount + " in flight (prefetch "
+                + prefetchLimit + "), " + throughput + " entries/s, cpu load " + cpuLoad);
+    }
+}
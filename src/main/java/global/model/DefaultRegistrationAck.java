@@ -5,14 +5,20 @@ package global.model;
  */
 public class DefaultRegistrationAck implements IRegistrationAck {
 
-    private final String taskQueueName;
+    private final String taskQueueName, directTaskQueueName;
 
-    public DefaultRegistrationAck(String taskQueueName) {
+    public DefaultRegistrationAck(String taskQueueName, String directTaskQueueName) {
         this.taskQueueName = taskQueueName;
+        this.directTaskQueueName = directTaskQueueName;
     }
 
     @Override
     public String getTaskQueueName() {
         return taskQueueName;
     }
+
+    @Override
+    public String getDirectTaskQueueName() {
+        return directTaskQueueName;
+    }
 }
@@ -6,10 +6,16 @@ package global.model;
 public class DefaultRegistrationRequest implements IRegistrationRequest {
 
     private final String ID, hostIP;
+    private final int capacity;
 
     public DefaultRegistrationRequest(String ID, String hostIP) {
+        this(ID, hostIP, 1);
+    }
+
+    public DefaultRegistrationRequest(String ID, String hostIP, int capacity) {
         this.ID = ID;
         this.hostIP = hostIP;
+        this.capacity = capacity;
     }
 
     @Override
@@ -21,4 +27,9 @@ public class DefaultRegistrationRequest implements IRegistrationRequest {
     public String getID() {
         return ID;
     }
+
+    @Override
+    public int getCapacity() {
+        return capacity;
+    }
 }
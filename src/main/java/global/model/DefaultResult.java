@@ -1,5 +1,6 @@
 package global.model;
 
+import global.identifiers.IIdentifier;
 import global.identifiers.PartialResultIdentifier;
 
 import java.lang.reflect.Array;
@@ -12,12 +13,23 @@ import java.util.*;
 
 public class DefaultResult implements IResult {
 
-    private final String clientID;
+    private final String clientID, requestID;
     private final ArrayList<String> fileContents;
+    private final ArrayList<IPartialResult> partialResults;
 
     public DefaultResult(String clientID, Collection<String> fileContents) {
+        this(clientID, fileContents, Collections.emptyList());
+    }
+
+    public DefaultResult(String clientID, Collection<String> fileContents, Collection<IPartialResult> partialResults) {
+        this(clientID, clientID, fileContents, partialResults);
+    }
+
+    public DefaultResult(String clientID, String requestID, Collection<String> fileContents, Collection<IPartialResult> partialResults) {
         this.clientID = clientID;
+        this.requestID = requestID;
         this.fileContents = new ArrayList<>(fileContents);
+        this.partialResults = new ArrayList<>(partialResults);
     }
 
     @Override
@@ -25,14 +37,24 @@ public class DefaultResult implements IResult {
         return clientID;
     }
 
+    @Override
+    public String getRequestID() {
+        return requestID;
+    }
+
     @Override
     public ArrayList<String> getFileContents() {
         return fileContents;
     }
 
+    @Override
+    public ArrayList<IPartialResult> getPartialResults() {
+        return partialResults;
+    }
+
     @Override
     public String toString() {
-        return ("DefaultResult " + clientID + " has " + fileContents.size() + " outputFiles.");
+        return ("DefaultResult " + requestID + " of client " + clientID + " has " + fileContents.size() + " outputFiles.");
     }
 
     public static DefaultResult buildResultfromPartials(Collection<IPartialResult> partials) {
@@ -57,12 +79,11 @@ public class DefaultResult implements IResult {
             tempResults.forEach(result -> bldr.append(result.getContent()));
             generatedStrings.add(bldr.toString());
         });
-        //Extract Client ID
-        String cid = partials.stream()
+        //Extract Client and Request ID
+        final IIdentifier firstIdentifier = partials.stream()
                 .findFirst()
                 .get()
-                .getIdentifier()
-                .getClientID();
-        return new DefaultResult(cid, generatedStrings);
+                .getIdentifier();
+        return new DefaultResult(firstIdentifier.getClientID(), firstIdentifier.getRequestID(), generatedStrings, partials);
     }
 }
\ No newline at end of file
@@ -14,10 +14,29 @@ public interface IClientRequest extends Serializable {
 
     String getClientID();
 
+    /**
+     * @return the ID the server collects the result by, distinct for each request the client has in flight
+     */
+    String getRequestID();
+
     String getSecretKey();
 
     ArrayList<IEntry> getEntries();
 
+    /**
+     * The clocks of client and server are expected to be synchronized.
+     *
+     * @return the time (ms since epoch) after which the result is of no use to the client anymore or 0, if the
+     * request has no deadline
+     */
+    long getDeadline();
+
+    /**
+     * @return whether the result should carry the partials it was built from, e.g. to merge them with partials
+     * the client kept from earlier requests
+     */
+    boolean isPartialResultsRequested();
+
     String toString();
 
 }
@@ -0,0 +1,41 @@
+package global.model;
+
+import java.io.Serializable;
+
+/**
+ * @author daan
+ * Published periodically by every MicroService on the heartbeat queue. Besides telling the server that the service
+ * is still alive, it reports how loaded the service currently is.
+ */
+public interface IHeartbeat extends Serializable {
+
+    String getMicroServiceID();
+
+    String getMicroServiceIP();
+
+    /**
+     * @return the time in ms the service waits between two heartbeats
+     */
+    long getHeartbeatInterval();
+
+    /**
+     * @return the number of entries the service is converting right now
+     */
+    int getInFlightCount();
+
+    /**
+     * @return the prefetch limit (basicQos) of the service's channel
+     */
+    int getPrefetchLimit();
+
+    /**
+     * @return the number of entries converted per second since the last heartbeat
+     */
+    double getThroughput();
+
+    /**
+     * @return the system load average divided by the available processors, or a negative value if not available
+     */
+    double getCpuLoad();
+
+}
@@ -11,4 +11,9 @@ public interface IRegistrationAck extends Serializable {
 
     String getTaskQueueName();
 
+    /**
+     * @return the name of the queue the server uses to route tasks directly to this MicroService
+     */
+    String getDirectTaskQueueName();
+
 }
\ No newline at end of file
@@ -12,4 +12,9 @@ public interface IRegistrationRequest extends Serializable {
 
     String getID();
 
+    /**
+     * @return the number of processors available to the MicroService
+     */
+    int getCapacity();
+
 }
\ No newline at end of file
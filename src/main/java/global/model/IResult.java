@@ -12,7 +12,14 @@ public interface IResult extends Serializable {
 
     String getClientID();
 
+    String getRequestID();
+
     ArrayList<String> getFileContents();
 
+    /**
+     * @return the partials the file contents were built from or an empty list, if the client didn't request them
+     */
+    ArrayList<IPartialResult> getPartialResults();
+
     String toString();
 }
@@ -1,32 +1,113 @@
 package global.util;
 
-import java.io.*;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Objects;
 
 /**
  * Created by daan on 1/17/17.
- * Used to convert Files into Strings in ClientFileHandler and the Server.
+ * Reads and writes the text files of client, server and microservice, i.e. .bib-files, csl files, templates and
+ * results. All text is UTF-8, independent of the platform's default charset, and the content is kept byte for byte:
+ * line separators aren't changed. Large files are read through a memory-mapped buffer instead of being copied into
+ * the heap first. Result files are written atomically, so readers never see a partly written file.
  */
 public final class FileUtils {
 
+    public static final Charset CHARSET = StandardCharsets.UTF_8;
+    //Files of at least this size are mapped, smaller ones are cheaper to read at once
+    private static final long MAPPING_THRESHOLD = 1024 * 1024;
+    private static final String PART_FILE_EXTENSION = ".part";
+    //Each writing thread encodes into its own direct buffer, so large contents are never copied into a byte[]
+    private static final ThreadLocal<ByteBuffer> WRITE_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(256 * 1024));
+
     private FileUtils() {
         throw new AssertionError("FileUtils is a static class.");
     }
 
     public static String readStringFromFile(File file) throws IOException {
-        Objects.requireNonNull(file, "(file == null) in ClientFileHandler.readStringFromFile()");
-        FileInputStream fis = new FileInputStream(file);
-        InputStreamReader isr = new InputStreamReader(fis);
-        BufferedReader br = new BufferedReader(isr);
-        StringBuilder sb = new StringBuilder();
-        sb.append(br.readLine());
-        while (br.ready()) {
-            sb.append(System.lineSeparator());
-            sb.append(br.readLine());
+        Objects.requireNonNull(file, "(file == null) in FileUtils.readStringFromFile()");
+        return readString(file.toPath());
+    }
+
+    public static String readString(Path path) throws IOException {
+        Objects.requireNonNull(path, "(path == null) in FileUtils.readString()");
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException(path + " is too large to be read into a String.");
+            if (size < MAPPING_THRESHOLD)
+                return fromBytes(Files.readAllBytes(path));
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return CHARSET.decode(buffer).toString();
+        }
+    }
+
+    /**
+     * Writes the content, replacing the file if it exists.
+     */
+    public static void writeString(Path path, String content) throws IOException {
+        Objects.requireNonNull(path, "(path == null) in FileUtils.writeString()");
+        Objects.requireNonNull(content, "(content == null) in FileUtils.writeString()");
+        final ByteBuffer bytes = CHARSET.encode(content);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (bytes.hasRemaining())
+                channel.write(bytes);
         }
-        fis.close();
-        isr.close();
-        br.close();
-        return sb.toString();
+    }
+
+    /**
+     * Writes the content to a ".part"-file next to the path and renames it, once it is complete. So the file at
+     * the path is either missing or complete, even if writing fails or the process dies.
+     */
+    public static void writeStringAtomically(Path path, String content) throws IOException {
+        Objects.requireNonNull(path, "(path == null) in FileUtils.writeStringAtomically()");
+        Objects.requireNonNull(content, "(content == null) in FileUtils.writeStringAtomically()");
+        final Path partPath = path.resolveSibling(path.getFileName() + PART_FILE_EXTENSION);
+        final CharsetEncoder encoder = CHARSET.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        final CharBuffer chars = CharBuffer.wrap(content);
+        final ByteBuffer buffer = WRITE_BUFFER.get();
+        buffer.clear();
+        try (FileChannel channel = FileChannel.open(partPath, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            CoderResult coderResult;
+            do {
+                coderResult = encoder.encode(chars, buffer, true);
+                writeBuffer(channel, buffer);
+            } while (coderResult.isOverflow());
+            while (encoder.flush(buffer).isOverflow())
+                writeBuffer(channel, buffer);
+            writeBuffer(channel, buffer);
+        } catch (IOException e) {
+            Files.deleteIfExists(partPath);
+            throw e;
+        }
+        Files.move(partPath, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void writeBuffer(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    public static byte[] toBytes(String content) {
+        return content.getBytes(CHARSET);
+    }
+
+    public static String fromBytes(byte[] bytes) {
+        return new String(bytes, CHARSET);
     }
 }
@@ -0,0 +1,86 @@
+package global.util;
+
+import global.model.IEntry;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Created by daan.
+ * Content hashes used as cache keys for converted entries.
+ */
+public final class HashUtils {
+
+    private HashUtils() {
+        throw new AssertionError("HashUtils is a static class.");
+    }
+
+    /**
+     * Hashes the parts with SHA-256. Every part is prefixed with its length, so different splits of the same
+     * characters don't collide.
+     *
+     * @param parts the parts to hash, null is treated like the empty string
+     * @return the hash as lower case hex string
+     */
+    public static String sha256(String... parts) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("Every Java platform has to support SHA-256.", e);
+        }
+        for (String part : parts) {
+            final byte[] bytes = (part == null ? "" : part).getBytes(StandardCharsets.UTF_8);
+            digest.update(Integer.toString(bytes.length).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) ':');
+            digest.update(bytes);
+        }
+        final StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest())
+            hex.append(String.format("%02x", b));
+        return hex.toString();
+    }
+
+    /**
+     * @return the content hash of the entry, the key of its partials in a ConversionManifest
+     */
+    public static String getEntryHash(IEntry entry) {
+        return sha256(entry.getContent());
+    }
+
+    /**
+     * Hashes the content of the entry with each combination of its csl files and templates, i.e. the input of
+     * each of its partials.
+     *
+     * @return the content hashes of the partials by their key (see getPartialKey)
+     */
+    public static LinkedHashMap<String, String> getPartialHashes(IEntry entry) {
+        final LinkedHashMap<String, String> partialHashes = new LinkedHashMap<>();
+        final List<String> cslFiles = entry.getCslFiles().isEmpty() ? Collections.singletonList(null) : entry.getCslFiles();
+        final List<String> templates = entry.getTemplates().isEmpty() ? Collections.singletonList(null) : entry.getTemplates();
+        for (int cslFileIndex = 0; cslFileIndex < cslFiles.size(); cslFileIndex++) {
+            for (int templateFileIndex = 0; templateFileIndex < templates.size(); templateFileIndex++) {
+                //Index -1 stands for the pandoc default, like in the DefaultEntryProcessor
+                partialHashes.put(getPartialKey(entry.getCslFiles().isEmpty() ? -1 : cslFileIndex, entry.getTemplates().isEmpty() ? -1 : templateFileIndex),
+                        sha256(entry.getContent(), cslFiles.get(cslFileIndex), templates.get(templateFileIndex)));
+            }
+        }
+        return partialHashes;
+    }
+
+    public static String getPartialKey(int cslFileIndex, int templateFileIndex) {
+        return cslFileIndex + ":" + templateFileIndex;
+    }
+
+    public static int getCslFileIndex(String partialKey) {
+        return Integer.parseInt(partialKey.split(":")[0]);
+    }
+
+    public static int getTemplateFileIndex(String partialKey) {
+        return Integer.parseInt(partialKey.split(":")[1]);
+    }
+}
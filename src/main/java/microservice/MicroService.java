@@ -3,10 +3,15 @@ package microservice;
 import com.rabbitmq.client.*;
 import com.rabbitmq.client.AMQP.BasicProperties;
 import global.controller.IConnectionPoint;
+import global.identifiers.MessageHeaders;
 import global.identifiers.QueueNames;
 import global.logging.Log;
 import global.logging.LogLevel;
 import global.logging.PerfLog;
+import global.metrics.Counter;
+import global.metrics.LatencyHistogram;
+import global.metrics.Metrics;
+import global.metrics.MetricsEndpoint;
 import global.model.*;
 import global.util.ConnectionUtils;
 import microservice.model.processor.DefaultEntryProcessor;
@@ -14,9 +19,17 @@ import microservice.model.processor.IEntryProcessor;
 import org.apache.commons.lang3.SerializationUtils;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Maximilian Schirm, Karsten Schaefers, daan
@@ -29,18 +42,39 @@ public class MicroService implements IConnectionPoint, Runnable, Consumer {
     private final String microServiceID;
     private final String REGISTRATION_QUEUE_NAME = QueueNames.MICROSERVICE_REGISTRATION_QUEUE_NAME.toString();
     private final String STOP_EXCHANGE_NAME = QueueNames.STOP_EXCHANGE_NAME.toString();
+    private final String HEARTBEAT_QUEUE_NAME = QueueNames.MICROSERVICE_HEARTBEAT_QUEUE_NAME.toString();
+    private final static int PREFETCH_LIMIT = 5;
+    private final static long HEARTBEAT_INTERVAL = 2000;
+    //A task taking longer than this many heartbeat intervals counts as stuck
+    private final static int STALLED_TASK_HEARTBEATS = 30;
     private final String registrationCallbackQueueName;
     private final String stopQueueName;
     private String taskQueueName = "";
+    private String directTaskQueueName = "";
 
     private volatile boolean isRunning = false;
     private final static boolean LOGGING = true;
+    private final static LatencyHistogram DESERIALIZE_LATENCY = Metrics.histogram("microservice.deserialize");
+    private final static LatencyHistogram SERIALIZE_LATENCY = Metrics.histogram("microservice.serialize");
+    //From the dispatch by the server until the task is delivered, based on the clocks of both
+    private final static LatencyHistogram QUEUE_WAIT_LATENCY = Metrics.histogram("microservice.queueWait");
+    private final static LatencyHistogram PROCESS_LATENCY = Metrics.histogram("microservice.process");
+    private final static Counter CONVERTED_ENTRIES = Metrics.counter("microservice.entriesConverted");
 
     private final IEntryProcessor DEFAULT_PROCESSOR = new DefaultEntryProcessor();
     private final Connection connection;
     private final Channel channel;
+    //Heartbeats are published by the heartbeatTimer, not by the thread consuming on channel
+    private final Channel heartbeatChannel;
 
     private final BasicProperties registrationReplyProps;
+
+    private final Timer heartbeatTimer = new Timer(true);
+    private final AtomicInteger inFlightCount = new AtomicInteger();
+    //Start of the task being processed in ms, 0 if no task is processed
+    private volatile long taskStartTime = 0;
+    private final AtomicInteger convertedSinceLastHeartbeat = new AtomicInteger();
+    private long lastHeartbeatTime;
 //    private List<Envelope> currEnvelopes = new ArrayList<>();
 //    private long currDeliveryTag;
     public static void main(String[] args) {
@@ -79,7 +113,8 @@ public class MicroService implements IConnectionPoint, Runnable, Consumer {
         factory.setHost(hostIP);
         this.connection = factory.newConnection();
         this.channel = connection.createChannel();
-        channel.basicQos(5);
+        channel.basicQos(PREFETCH_LIMIT);
+        this.heartbeatChannel = connection.createChannel();
         this.registrationReplyProps = new BasicProperties
                 .Builder()
                 .correlationId(microServiceID)
@@ -94,6 +129,7 @@ public class MicroService implements IConnectionPoint, Runnable, Consumer {
             }
         };
         Runtime.getRuntime().addShutdownHook(new Thread(deathRunner));
+        MetricsEndpoint.startIfConfigured();
     }
 
     @Override
@@ -125,7 +161,9 @@ public class MicroService implements IConnectionPoint, Runnable, Consumer {
     public void handleDelivery(String s, Envelope envelope, AMQP.BasicProperties basicProperties, byte[] bytes) throws IOException {
         Log.log("MicroService (ID: " + microServiceID + " received a message", LogLevel.LOW);
 
+        final long deserializeStart = System.nanoTime();
         final Object receivedObject = SerializationUtils.deserialize(bytes);
+        DESERIALIZE_LATENCY.recordSince(deserializeStart);
         final AMQP.BasicProperties replyProps = ConnectionUtils.getReplyProps(basicProperties);
 
         if (receivedObject instanceof IStopOrder) {
@@ -145,23 +183,47 @@ public class MicroService implements IConnectionPoint, Runnable, Consumer {
 //            currEnvelopes.add(envelope);
 //            currDeliveryTag = envelope.getDeliveryTag();
 
-            IEntry received = SerializationUtils.deserialize(bytes);
+            IEntry received = (IEntry) receivedObject;
+            final long dequeueTime = System.currentTimeMillis();
+            recordQueueWait(basicProperties);
+
+            if (isExpired(basicProperties)) {
+                Log.log("MicroService (ID: " + microServiceID + ") dropped an expired task", LogLevel.LOW);
+                channel.basicAck(envelope.getDeliveryTag(), false);
+                return;
+            }
 
             //Process and measure time
-            long timeStart = System.currentTimeMillis();
-            List<IPartialResult> resultList = DEFAULT_PROCESSOR.processEntry(received);
-            long timeDelta = System.currentTimeMillis() - timeStart;
-            double performance = timeDelta / resultList.size();
+            inFlightCount.incrementAndGet();
+            final long pandocStartTime = System.currentTimeMillis();
+            taskStartTime = pandocStartTime;
+            long timeStart = System.nanoTime();
+            final List<IPartialResult> resultList;
+            try {
+                resultList = DEFAULT_PROCESSOR.processEntry(received);
+            } finally {
+                taskStartTime = 0;
+                inFlightCount.decrementAndGet();
+            }
+            long timeDelta = System.nanoTime() - timeStart;
+            final long pandocEndTime = System.currentTimeMillis();
+            convertedSinceLastHeartbeat.incrementAndGet();
+            PROCESS_LATENCY.record(timeDelta);
+            CONVERTED_ENTRIES.increment();
+            double performance = timeDelta / 1e6 / Math.max(resultList.size(), 1);
 
             if(LOGGING) {
-                //Log measurement
+                //Log measurement, written to the file by the PerfLog within a second
                 PerfLog.log(getID() + "-TimeMSPerEntry", performance + "");
-                PerfLog.writeChanges();
             }
 
             resultList.forEach(partialResult -> {
                 try {
-                    channel.basicPublish("", basicProperties.getReplyTo(), replyProps, SerializationUtils.serialize(partialResult));
+                    final long serializeStart = System.nanoTime();
+                    final byte[] serializedPartial = SerializationUtils.serialize(partialResult);
+                    SERIALIZE_LATENCY.recordSince(serializeStart);
+                    final AMQP.BasicProperties tracedReplyProps = getTracedReplyProps(replyProps, basicProperties, dequeueTime, pandocStartTime, pandocEndTime);
+                    channel.basicPublish("", basicProperties.getReplyTo(), tracedReplyProps, serializedPartial);
                 } catch (IOException e) {
                     Log.log("Failed to send a PartialResult to server", e);
                 }
@@ -171,6 +233,40 @@ public class MicroService implements IConnectionPoint, Runnable, Consumer {
         }
     }
 
+    /**
+     * @return the reply properties with the times of the hops the task passed, for the server's RequestTracer
+     */
+    private AMQP.BasicProperties getTracedReplyProps(AMQP.BasicProperties replyProps, AMQP.BasicProperties taskProps,
+                                                     long dequeueTime, long pandocStartTime, long pandocEndTime) {
+        final Map<String, Object> headers = new HashMap<>();
+        if (taskProps.getHeaders() != null && taskProps.getHeaders().get(MessageHeaders.DISPATCH_TIME.toString()) != null)
+            headers.put(MessageHeaders.DISPATCH_TIME.toString(), taskProps.getHeaders().get(MessageHeaders.DISPATCH_TIME.toString()));
+        headers.put(MessageHeaders.DEQUEUE_TIME.toString(), dequeueTime);
+        headers.put(MessageHeaders.PANDOC_START_TIME.toString(), pandocStartTime);
+        headers.put(MessageHeaders.PANDOC_END_TIME.toString(), pandocEndTime);
+        headers.put(MessageHeaders.PARTIAL_PUBLISH_TIME.toString(), System.currentTimeMillis());
+        headers.put(MessageHeaders.SERVICE_ID.toString(), microServiceID);
+        return replyProps.builder().headers(headers).build();
+    }
+
+    private void recordQueueWait(AMQP.BasicProperties basicProperties) {
+        if (basicProperties.getHeaders() == null)
+            return;
+        final Object dispatchTime = basicProperties.getHeaders().get(MessageHeaders.DISPATCH_TIME.toString());
+        if (dispatchTime instanceof Long)
+            QUEUE_WAIT_LATENCY.record(System.currentTimeMillis() - (Long) dispatchTime, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Checks whether the deadline a task was published with has passed.
+     */
+    private boolean isExpired(AMQP.BasicProperties basicProperties) {
+        if (basicProperties.getHeaders() == null)
+            return false;
+        final Object deadline = basicProperties.getHeaders().get(MessageHeaders.DEADLINE.toString());
+        return deadline instanceof Long && (Long) deadline < System.currentTimeMillis();
+    }
+
     @Override
     public void run() {
         try {
@@ -214,6 +310,8 @@ public class MicroService implements IConnectionPoint, Runnable, Consumer {
         channel.queueDeclare(REGISTRATION_QUEUE_NAME, false, false, false, null);
         channel.queueDeclare(registrationCallbackQueueName, false, false, false, null);
         channel.queueDeclare(stopQueueName, false, false, false, null);
+        //outgoing queues
+        channel.queueDeclare(HEARTBEAT_QUEUE_NAME, false, false, false, null);
         //declare exchange
         channel.exchangeDeclare(STOP_EXCHANGE_NAME, BuiltinExchangeType.FANOUT);
         channel.queueBind(stopQueueName, STOP_EXCHANGE_NAME, "");
@@ -228,17 +326,67 @@ public class MicroService implements IConnectionPoint, Runnable, Consumer {
     private void consumeReceivedTaskQueue(IRegistrationAck registrationAck) {
         final String receivedTaskQueueName = registrationAck.getTaskQueueName();
         this.taskQueueName = receivedTaskQueueName;
+        this.directTaskQueueName = registrationAck.getDirectTaskQueueName();
         Log.log("successfully received acknowledgement: " + taskQueueName, LogLevel.INFO);
         try {
             channel.queueDeclare(taskQueueName, false, false, false, null);
             channel.basicConsume(taskQueueName, false, this);
+            //tasks routed to this service only
+            channel.queueDeclare(directTaskQueueName, false, false, false, null);
+            channel.basicConsume(directTaskQueueName, false, this);
         } catch (IOException e) {
             Log.log("couldn't declare/consume taskQueue received from server.", e);
         }
+        startHeartbeats();
+    }
+
+    /**
+     * Starts reporting the load of this service to the server every HEARTBEAT_INTERVAL ms.
+     * The server considers the service dead if the heartbeats stop. A service stuck on a task for more than
+     * STALLED_TASK_HEARTBEATS intervals stops them and closes its connection, so RabbitMQ requeues the tasks it
+     * didn't acknowledge yet.
+     */
+    private void startHeartbeats() {
+        lastHeartbeatTime = System.currentTimeMillis();
+        TimerTask heartbeatTask = new TimerTask() {
+            @Override
+            public void run() {
+                final long startOfTask = taskStartTime;
+                if (startOfTask != 0 && System.currentTimeMillis() - startOfTask > STALLED_TASK_HEARTBEATS * HEARTBEAT_INTERVAL) {
+                    Log.log("MicroService (ID: " + microServiceID + ") is stuck on a task for more than "
+                            + STALLED_TASK_HEARTBEATS * HEARTBEAT_INTERVAL / 1000 + " s and disconnects.", LogLevel.SEVERE);
+                    heartbeatTimer.cancel();
+                    closeConnection();
+                    return;
+                }
+                try {
+                    sendHeartbeat();
+                } catch (IOException e) {
+                    Log.log("Failed to send heartbeat to server", e);
+                }
+            }
+        };
+        heartbeatTimer.schedule(heartbeatTask, 0, HEARTBEAT_INTERVAL);
+    }
+
+    private void sendHeartbeat() throws IOException {
+        final long now = System.currentTimeMillis();
+        final double secondsSinceLastHeartbeat = Math.max(now - lastHeartbeatTime, 1) / 1000.0;
+        lastHeartbeatTime = now;
+        final OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+        final double loadAverage = osBean.getSystemLoadAverage();
+        final IHeartbeat heartbeat = new DefaultHeartbeat.Builder(microServiceID, hostIP)
+                .heartbeatInterval(HEARTBEAT_INTERVAL)
+                .inFlightCount(inFlightCount.get())
+                .prefetchLimit(PREFETCH_LIMIT)
+                .throughput(convertedSinceLastHeartbeat.getAndSet(0) / secondsSinceLastHeartbeat)
+                .cpuLoad(loadAverage < 0 ? -1 : loadAverage / osBean.getAvailableProcessors())
+                .build();
+        heartbeatChannel.basicPublish("", HEARTBEAT_QUEUE_NAME, registrationReplyProps, SerializationUtils.serialize(heartbeat));
     }
 
     private void initRegistrationProcess() throws IOException {
-        IRegistrationRequest registrationRequest = new DefaultRegistrationRequest(microServiceID, hostIP);
+        IRegistrationRequest registrationRequest = new DefaultRegistrationRequest(microServiceID, hostIP, Runtime.getRuntime().availableProcessors());
         channel.basicPublish("", REGISTRATION_QUEUE_NAME, registrationReplyProps, SerializationUtils.serialize(registrationRequest));
     }
 
@@ -264,6 +412,7 @@ public class MicroService implements IConnectionPoint, Runnable, Consumer {
     }
 
     private void terminate() throws IOException, TimeoutException {
+        heartbeatTimer.cancel();
         isRunning = false;
         channel.close();
     }
@@ -6,9 +6,12 @@ import global.identifiers.IIdentifier;
 import global.identifiers.PartialResultIdentifier;
 import global.logging.Log;
 import global.logging.LogLevel;
+import global.metrics.LatencyHistogram;
+import global.metrics.Metrics;
 import global.model.DefaultPartialResult;
 import global.model.IEntry;
 import global.model.IPartialResult;
+import global.util.FileUtils;
 import microservice.model.validator.CslValidator;
 import microservice.model.validator.TemplateValidator;
 import microservice.model.validator.IValidator;
@@ -26,6 +29,8 @@ import java.util.*;
  */
 public class DefaultEntryProcessor implements IEntryProcessor {
 
+    //One run of pandoc, producing one partial
+    private static final LatencyHistogram PANDOC_LATENCY = Metrics.histogram("microservice.pandoc");
     private static final Path WORKING_DIRECTORY = Paths.get(System.getProperty("user.dir"));
 
     /*
@@ -72,8 +77,8 @@ public class DefaultEntryProcessor implements IEntryProcessor {
         copyCustomDefaultsToWorkingDir(defaultCslTarget, defaultTemplateTarget);
 
         try {
-            CUSTOM_DEFAULT_CSL_CONTENT = new String(Files.readAllBytes(defaultCslTarget));
-            CUSTOM_DEFAULT_TEMPLATE_CONTENT = new String(Files.readAllBytes(defaultTemplateTarget));
+            CUSTOM_DEFAULT_CSL_CONTENT = FileUtils.readString(defaultCslTarget);
+            CUSTOM_DEFAULT_TEMPLATE_CONTENT = FileUtils.readString(defaultTemplateTarget);
         } catch (IOException e) {
             Log.log("couldn't read defaults content.", LogLevel.ERROR);
         }
@@ -129,10 +134,11 @@ public class DefaultEntryProcessor implements IEntryProcessor {
             final String currentCommand = currentCommandInformation.command;
             //executing command
             try {
+                final long pandocStart = System.nanoTime();
                 final Process p = Runtime.getRuntime().exec(currentCommand);
                 p.waitFor();
-                final byte[] currentResultBytes = Files.readAllBytes(new File(resultName).toPath());
-                final String currentResultContent = new String(currentResultBytes);
+                PANDOC_LATENCY.recordSince(pandocStart);
+                final String currentResultContent = FileUtils.readString(new File(resultName).toPath());
                 currentPartialResult = new DefaultPartialResult(currentResultContent, currentPartialIdentifier);
             } catch (Exception e) {
                 Log.log("error while executing pandoc command or generating/reading result.", e);
@@ -240,7 +246,7 @@ public class DefaultEntryProcessor implements IEntryProcessor {
         final IIdentifier failedEntryIdentifier = failedEntry.getEntryIdentifier();
         final PartialResultIdentifier errorIdentifier =
                 new PartialResultIdentifier
-                        (failedEntryIdentifier, -1337, -1337);
+                        (failedEntryIdentifier, PartialResultIdentifier.ABORTED_CONVERSION_INDEX, PartialResultIdentifier.ABORTED_CONVERSION_INDEX);
         IPartialResult currentErrorPartialResult;
         for (int i = 0; i < expectedAmountOfPartials; i++) {
             currentErrorPartialResult = createErrorPartial(errorIdentifier);
@@ -260,8 +266,8 @@ public class DefaultEntryProcessor implements IEntryProcessor {
         boolean result = false;
         final String mdString = "--- \nbibliography: " + bibFileName + "\nnocite: \"@*\" \n...";
         try {
-            Files.write(Paths.get(WORKING_DIRECTORY.toAbsolutePath().toString(), wrapperFileName), mdString.getBytes());
-            Files.write(Paths.get(WORKING_DIRECTORY.toAbsolutePath().toString(), bibFileName), toConvert.getContent().getBytes());
+            FileUtils.writeString(Paths.get(WORKING_DIRECTORY.toAbsolutePath().toString(), wrapperFileName), mdString);
+            FileUtils.writeString(Paths.get(WORKING_DIRECTORY.toAbsolutePath().toString(), bibFileName), toConvert.getContent());
             result = true;
         } catch (IOException e) {
             Log.log("couldn't write required file(s) in working dir");
@@ -274,7 +280,7 @@ public class DefaultEntryProcessor implements IEntryProcessor {
             final String cslContentToWrite;
             cslContentToWrite = toConvert.getCslFiles().get(cslIndex);
             try {
-                Files.write(Paths.get(cslFileName), cslContentToWrite.getBytes());
+                FileUtils.writeString(Paths.get(cslFileName), cslContentToWrite);
             } catch (IOException e) {
                 Log.log("failed to write csl-file.", LogLevel.ERROR);
             }
@@ -286,7 +292,7 @@ public class DefaultEntryProcessor implements IEntryProcessor {
             final String templateContentToWrite;
             templateContentToWrite = toConvert.getTemplates().get(templateIndex);
             try {
-                Files.write(Paths.get(templateName), templateContentToWrite.getBytes());
+                FileUtils.writeString(Paths.get(templateName), templateContentToWrite);
             } catch (IOException e) {
                 Log.log("failed to write template.", LogLevel.ERROR);
             }
@@ -47,18 +47,18 @@ public class ServerController implements IEventListener {
     private class ClientRequestDisplayItem {
 
 
-        private final String clientID;
+        private final String requestID;
 
         private final int expectedSize;
         private double completion;
-        private ClientRequestDisplayItem(String clientID, int expectedSize) {
-            this.clientID = clientID;
+        private ClientRequestDisplayItem(String requestID, int expectedSize) {
+            this.requestID = requestID;
             this.expectedSize = expectedSize;
             this.completion = 0.0;
         }
 
-        public String getClientID() {
-            return clientID;
+        public String getRequestID() {
+            return requestID;
         }
 
         public void setCompletion(double completion) {
@@ -67,19 +67,19 @@ public class ServerController implements IEventListener {
 
         @Override
         public String toString() {
-            return clientID + ", Expected Size : " + expectedSize + " (" + completion + ")";
+            return requestID + ", Expected Size : " + expectedSize + " (" + completion + ")";
         }
         @Override
         public boolean equals(Object o) {
             if (this == o) return true;
             if (o == null || getClass() != o.getClass()) return false;
             ClientRequestDisplayItem that = (ClientRequestDisplayItem) o;
-            return clientID.equals(that.clientID);
+            return requestID.equals(that.requestID);
         }
 
         @Override
         public int hashCode(){
-            return clientID.hashCode();
+            return requestID.hashCode();
         }
 
     }
@@ -119,7 +119,7 @@ public class ServerController implements IEventListener {
             serverAdressLabel.setText("ERROR");
         }
 
-        EventManager.getInstance().registerListener(this);
+        EventManager.getInstance().registerAsyncListener(this);
         Log.log("Initialized the Server.", LogLevel.INFO);
     }
 
@@ -134,30 +134,30 @@ public class ServerController implements IEventListener {
             Log.log("Unregistered Microservice with ID " + disconnectedServiceID, LogLevel.WARNING);
             Platform.runLater(() -> microServiceListView.getItems().remove(disconnectedServiceID));
         } else if (toNotify instanceof RequestStoppedEvent) {
-            String toRemoveClientID = ((RequestStoppedEvent) toNotify).getStoppedRequestClientID();
-            ClientRequestDisplayItem temp = new ClientRequestDisplayItem(toRemoveClientID,0);
+            String toRemoveRequestID = ((RequestStoppedEvent) toNotify).getStoppedRequestID();
+            ClientRequestDisplayItem temp = new ClientRequestDisplayItem(toRemoveRequestID,0);
             displayedClientRequests.remove(temp);
-            Log.log("Removed Request with ID " + toRemoveClientID, LogLevel.WARNING);
+            Log.log("Removed Request with ID " + toRemoveRequestID, LogLevel.WARNING);
             updateClientRequestListView();
         } else if (toNotify instanceof RequestAcceptedEvent) {
             int newRequestSize = ((RequestAcceptedEvent) toNotify).getReqSize();
-            String newClientID = ((RequestAcceptedEvent) toNotify).getRequestID();
-            ClientRequestDisplayItem newDisplayItem = new ClientRequestDisplayItem(newClientID, newRequestSize);
+            String newRequestID = ((RequestAcceptedEvent) toNotify).getRequestID();
+            ClientRequestDisplayItem newDisplayItem = new ClientRequestDisplayItem(newRequestID, newRequestSize);
             displayedClientRequests.add(newDisplayItem);
             updateClientRequestListView();
         } else if (toNotify instanceof FinishedCollectingResultEvent) {
-            String removeClientID = ((FinishedCollectingResultEvent) toNotify).getResult().getClientID();
-            ClientRequestDisplayItem toRemoveItem = new ClientRequestDisplayItem(removeClientID, 0);
+            String removeRequestID = ((FinishedCollectingResultEvent) toNotify).getResult().getRequestID();
+            ClientRequestDisplayItem toRemoveItem = new ClientRequestDisplayItem(removeRequestID, 0);
             displayedClientRequests.remove(toRemoveItem);
             updateClientRequestListView();
         } else if (toNotify instanceof ProgressUpdateEvent) {
-            String toUpdateClientID = ((ProgressUpdateEvent) toNotify).getClientID();
+            String toUpdateRequestID = ((ProgressUpdateEvent) toNotify).getRequestID();
             double newCompletion = ((ProgressUpdateEvent) toNotify).getProgress();
             //Only display 2 decimals after 0
             newCompletion = newCompletion - (newCompletion % 0.01);
 
             for (ClientRequestDisplayItem item : displayedClientRequests) {
-                if (item.getClientID().equals(toUpdateClientID)) {
+                if (item.getRequestID().equals(toUpdateRequestID)) {
                     item.setCompletion(newCompletion);
                     break;
                 }
@@ -196,8 +196,8 @@ public class ServerController implements IEventListener {
 
     public void cancelRequestButtonPressed() {
         if (clientRequestListView.getSelectionModel().getSelectedItem() != null) {
-            String toStopClientID = clientRequestListView.getSelectionModel().getSelectedItem().getClientID();
-            EventManager.getInstance().publishEvent(new RequestStoppedEvent(toStopClientID));
+            String toStopRequestID = clientRequestListView.getSelectionModel().getSelectedItem().getRequestID();
+            EventManager.getInstance().publishEvent(new RequestStoppedEvent(toStopRequestID));
         }
     }
 
@@ -1,19 +1,172 @@
 package server.events;
 
 import global.logging.Log;
+import global.logging.LogLevel;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
-
-/*
-*Part of the Server. Manages all Listeners.
-*/
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Part of the Server. Manages all Listeners.
+ * <p>
+ * Listeners registered without an executor are notified synchronously on the publishing thread. Listeners
+ * registered with an executor get a bounded queue of their own: Publishing only enqueues the event, the listener is
+ * notified on its executor, one event after the other in the order they were published. If its queue is full,
+ * publishers wait, so no event is lost.
+ * <p>
+ * A listener registered for a class or interface is notified of all events of its subtypes, too. Which listeners
+ * get an event of a class is resolved once per class into a dispatch table, which is rebuilt on (un)registration.
+ * Events nobody listens to are dropped silently.
+ */
 public class EventManager {
 
     private final static EventManager INSTANCE = new EventManager();
-    private ConcurrentMap<Class<? extends IEvent>, Set<IEventListener>> eventMap = new ConcurrentHashMap<>();
+    //# of events an asynchronous listener may have queued, before publishers have to wait
+    public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+    //# of events delivered in one run on the executor, so listeners sharing an executor take turns
+    private static final int DISPATCH_BATCH_SIZE = 256;
+
+    private static final Subscriber[] NO_SUBSCRIBERS = new Subscriber[0];
+
+    //Key : type listened to | Value : its listeners in the order of registration. Guarded by the EventManager.
+    private final Map<Class<? extends IEvent>, Set<IEventListener>> subscriptions = new HashMap<>();
+    private final ConcurrentMap<IEventListener, AsyncListener> asyncListeners = new ConcurrentHashMap<>();
+    //Key : class of published events | Value : who to notify, incl. the listeners of its supertypes. Replaced, when
+    //the subscriptions change.
+    private volatile ConcurrentMap<Class<?>, Subscriber[]> dispatchTable = new ConcurrentHashMap<>();
+    private final ExecutorService defaultExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            final Thread thread = new Thread(runnable, "event-dispatcher-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * A listener as it is notified, either synchronously or by an AsyncListener.
+     */
+    private interface Subscriber {
+        void accept(IEvent event);
+    }
+
+    private static final class SyncListener implements Subscriber {
+        private final IEventListener listener;
+
+        private SyncListener(IEventListener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void accept(IEvent event) {
+            deliver(listener, event);
+        }
+    }
+
+    /**
+     * An asynchronously notified listener along with its queue and the statistics of its deliveries.
+     */
+    private static final class AsyncListener implements Subscriber {
+        private final IEventListener listener;
+        private final Executor executor;
+        private final int capacity;
+        private final Queue<QueuedEvent> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger depth = new AtomicInteger();
+        //Only one run drains the queue at a time, which keeps the events in order
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private volatile Thread drainingThread;
+        private final AtomicInteger maximumDepth = new AtomicInteger();
+        private final AtomicLong deliveredCount = new AtomicLong();
+        private final AtomicLong totalLatencyNanos = new AtomicLong();
+        private final AtomicLong maximumLatencyNanos = new AtomicLong();
+
+        private AsyncListener(IEventListener listener, Executor executor, int capacity) {
+            this.listener = listener;
+            this.executor = executor;
+            this.capacity = capacity;
+        }
+
+        @Override
+        public void accept(IEvent event) {
+            //The listener publishing to itself mustn't wait for its own queue
+            if (Thread.currentThread() != drainingThread) {
+                synchronized (this) {
+                    boolean interrupted = false;
+                    while (depth.get() >= capacity) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                        }
+                    }
+                    if (interrupted)
+                        Thread.currentThread().interrupt();
+                }
+            }
+            maximumDepth.accumulateAndGet(depth.incrementAndGet(), Math::max);
+            queue.add(new QueuedEvent(event));
+            schedule();
+        }
+
+        private void schedule() {
+            if (!draining.compareAndSet(false, true))
+                return;
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                draining.set(false);
+                Log.log("Executor of " + listener.getClass().getSimpleName() + " rejected the delivery of events.", LogLevel.SEVERE);
+            }
+        }
+
+        private void drain() {
+            drainingThread = Thread.currentThread();
+            try {
+                QueuedEvent queuedEvent;
+                for (int delivered = 0; delivered < DISPATCH_BATCH_SIZE && (queuedEvent = queue.poll()) != null; delivered++) {
+                    if (depth.getAndDecrement() >= capacity) {
+                        synchronized (this) {
+                            notifyAll();
+                        }
+                    }
+                    final long latencyNanos = System.nanoTime() - queuedEvent.enqueueNanos;
+                    deliveredCount.incrementAndGet();
+                    totalLatencyNanos.addAndGet(latencyNanos);
+                    maximumLatencyNanos.accumulateAndGet(latencyNanos, Math::max);
+                    deliver(listener, queuedEvent.event);
+                }
+            } finally {
+                drainingThread = null;
+                draining.set(false);
+            }
+            //Events enqueued while the last ones were delivered or left over by the batch limit
+            if (!queue.isEmpty())
+                schedule();
+        }
+
+        @Override
+        public String toString() {
+            final long delivered = deliveredCount.get();
+            return listener.getClass().getName() + " : Queued " + depth.get() + " (max. " + maximumDepth.get()
+                    + " of " + capacity + "), Delivered " + delivered
+                    + ", Latency mean " + (delivered == 0 ? 0 : totalLatencyNanos.get() / delivered / 1000) + " us"
+                    + ", max. " + maximumLatencyNanos.get() / 1000 + " us.";
+        }
+    }
+
+    private static final class QueuedEvent {
+        private final IEvent event;
+        private final long enqueueNanos = System.nanoTime();
+
+        private QueuedEvent(IEvent event) {
+            this.event = event;
+        }
+    }
 
     private EventManager() {
     }
@@ -22,32 +175,106 @@ public class EventManager {
         return INSTANCE;
     }
 
-    public void registerListener(IEventListener toRegister) {
-        toRegister.getEvents().forEach(event -> {
-            Set<IEventListener> entryForEvent = eventMap.get(event);
-            if (entryForEvent == null) {
-                Set<IEventListener> newEventSet = new HashSet<>();
-                newEventSet.add(toRegister);
-                eventMap.put(event, newEventSet);
-            } else {
-                entryForEvent.add(toRegister);
-                eventMap.put(event, entryForEvent);
-            }
-        });
+    /**
+     * Registers the listener to be notified synchronously on the publishing thread.
+     */
+    public synchronized void registerListener(IEventListener toRegister) {
+        toRegister.getEvents().forEach(event ->
+                subscriptions.computeIfAbsent(event, key -> new LinkedHashSet<>()).add(toRegister));
+        dispatchTable = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Registers the listener to be notified on a thread shared with other asynchronous listeners.
+     */
+    public void registerAsyncListener(IEventListener toRegister) {
+        registerAsyncListener(toRegister, defaultExecutor, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Registers the listener to be notified on the executor, in the order the events are published.
+     *
+     * @param capacity the # of events the listener may have queued, before publishers have to wait
+     */
+    public synchronized void registerAsyncListener(IEventListener toRegister, Executor executor, int capacity) {
+        Objects.requireNonNull(executor, "(executor == null) in EventManager.registerAsyncListener()");
+        if (capacity < 1)
+            throw new IllegalArgumentException("The queue capacity has to be positive.");
+        asyncListeners.put(toRegister, new AsyncListener(toRegister, executor, capacity));
+        registerListener(toRegister);
+    }
+
+    public synchronized void unregisterListener(IEventListener toUnregister) {
+        subscriptions.values().forEach(listeners -> listeners.remove(toUnregister));
+        asyncListeners.remove(toUnregister);
+        dispatchTable = new ConcurrentHashMap<>();
     }
 
     public void publishEvent(IEvent toPublish) {
+        Subscriber[] subscribers = dispatchTable.get(toPublish.getClass());
+        if (subscribers == null)
+            subscribers = resolveSubscribers(toPublish.getClass());
+        for (Subscriber subscriber : subscribers)
+            subscriber.accept(toPublish);
+    }
+
+    /**
+     * Collects the listeners of the class and all of its superclasses and interfaces into the dispatch table.
+     */
+    private synchronized Subscriber[] resolveSubscribers(Class<?> eventClass) {
+        final Set<IEventListener> listeners = new LinkedHashSet<>();
+        for (Class<?> type : getTypeHierarchy(eventClass)) {
+            final Set<IEventListener> listenersOfType = subscriptions.get(type);
+            if (listenersOfType != null)
+                listeners.addAll(listenersOfType);
+        }
+        final Subscriber[] subscribers = listeners.isEmpty() ? NO_SUBSCRIBERS : listeners.stream()
+                .map(listener -> asyncListeners.containsKey(listener) ? asyncListeners.get(listener) : new SyncListener(listener))
+                .toArray(Subscriber[]::new);
+        dispatchTable.put(eventClass, subscribers);
+        return subscribers;
+    }
+
+    /**
+     * @return the type with its superclasses and interfaces, the more specific types first
+     */
+    private static Set<Class<?>> getTypeHierarchy(Class<?> type) {
+        final Set<Class<?>> hierarchy = new LinkedHashSet<>();
+        final Deque<Class<?>> toVisit = new ArrayDeque<>();
+        toVisit.add(type);
+        while (!toVisit.isEmpty()) {
+            final Class<?> current = toVisit.poll();
+            if (!hierarchy.add(current))
+                continue;
+            if (current.getSuperclass() != null)
+                toVisit.add(current.getSuperclass());
+            toVisit.addAll(Arrays.asList(current.getInterfaces()));
+        }
+        return hierarchy;
+    }
+
+    private static void deliver(IEventListener listener, IEvent event) {
         try {
-            eventMap.get(toPublish.getClass()).forEach(listener -> {
-                try {
-                    listener.notify(toPublish);
-                } catch (NullPointerException e) {
-                    Log.log("Couldn't publish the event to the listener : Listener was null", e);
-                }
-            });
-        } catch (NullPointerException e) {
-            Log.log("No classes registered for the event " + toPublish.getClass(), e);
+            listener.notify(event);
+        } catch (RuntimeException e) {
+            Log.log("Listener " + listener.getClass().getSimpleName() + " failed to handle " + event.getClass().getSimpleName(), e);
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * @return queue depth and dispatch latency of each asynchronous listener
+     */
+    public Collection<String> getDispatchStatistics() {
+        final Collection<String> statistics = new ArrayList<>();
+        asyncListeners.values().forEach(asyncListener -> statistics.add(asyncListener.toString()));
+        return statistics;
+    }
+
+    /**
+     * @return the # of events waiting in the queues of the asynchronous listeners
+     */
+    public int getQueuedEventCount() {
+        return asyncListeners.values().stream().mapToInt(asyncListener -> asyncListener.depth.get()).sum();
+    }
+
+}
@@ -8,10 +8,16 @@ public class MicroServiceConnectedEvent implements IEvent {
 
     private final String connectedSvcID;
     private final String connectedSvcIP;
+    private final int connectedSvcCapacity;
 
     public MicroServiceConnectedEvent(String connectedSvcID, String connectedSvcIP) {
+        this(connectedSvcID, connectedSvcIP, 1);
+    }
+
+    public MicroServiceConnectedEvent(String connectedSvcID, String connectedSvcIP, int connectedSvcCapacity) {
         this.connectedSvcID = connectedSvcID;
         this.connectedSvcIP = connectedSvcIP;
+        this.connectedSvcCapacity = connectedSvcCapacity;
     }
 
     public String getConnectedSvcID() {
@@ -21,4 +27,8 @@ public class MicroServiceConnectedEvent implements IEvent {
     public String getConnectedSvcIP() {
         return connectedSvcIP;
     }
+
+    public int getConnectedSvcCapacity() {
+        return connectedSvcCapacity;
+    }
 }
@@ -5,17 +5,17 @@ package server.events;
  */
 public class ProgressUpdateEvent implements IEvent {
 
-    private final String clientID;
+    private final String requestID;
     private final double progress;
 
 
-    public ProgressUpdateEvent(String clientID, double progress) {
-        this.clientID = clientID;
+    public ProgressUpdateEvent(String requestID, double progress) {
+        this.requestID = requestID;
         this.progress = progress;
     }
 
-    public String getClientID() {
-        return clientID;
+    public String getRequestID() {
+        return requestID;
     }
 
     public double getProgress() {
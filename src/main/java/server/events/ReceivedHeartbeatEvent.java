@@ -0,0 +1,20 @@
+package server.events;
+
+import global.model.IHeartbeat;
+
+/**
+ * @author daan
+ * Fired by the Server whenever a MicroService reported its load.
+ */
+public class ReceivedHeartbeatEvent implements IEvent {
+
+    private final IHeartbeat heartbeat;
+
+    public ReceivedHeartbeatEvent(IHeartbeat heartbeat) {
+        this.heartbeat = heartbeat;
+    }
+
+    public IHeartbeat getHeartbeat() {
+        return heartbeat;
+    }
+}
@@ -8,10 +8,18 @@ public class RequestAcceptedEvent implements IEvent {
 
     private final String requestID;
     private final int reqSize;
+    private final int partialsPerEntry;
+    private final long deadline;
 
     public RequestAcceptedEvent(String requestID, int reqSize) {
+        this(requestID, reqSize, 1, 0);
+    }
+
+    public RequestAcceptedEvent(String requestID, int reqSize, int partialsPerEntry, long deadline) {
         this.requestID = requestID;
         this.reqSize = reqSize;
+        this.partialsPerEntry = partialsPerEntry;
+        this.deadline = deadline;
     }
 
     public String getRequestID() {
@@ -21,4 +29,15 @@ public class RequestAcceptedEvent implements IEvent {
     public int getReqSize() {
         return reqSize;
     }
+
+    public int getPartialsPerEntry() {
+        return partialsPerEntry;
+    }
+
+    /**
+     * @return the deadline of the request (ms since epoch) or 0, if it has none
+     */
+    public long getDeadline() {
+        return deadline;
+    }
 }
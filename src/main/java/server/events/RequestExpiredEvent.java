@@ -0,0 +1,18 @@
+package server.events;
+
+/**
+ * @author daan
+ * Fired by the PartialResultCollector when a request passed its deadline before all partials arrived.
+ */
+public class RequestExpiredEvent implements IEvent {
+
+    private final String requestID;
+
+    public RequestExpiredEvent(String requestID) {
+        this.requestID = requestID;
+    }
+
+    public String getRequestID() {
+        return requestID;
+    }
+}
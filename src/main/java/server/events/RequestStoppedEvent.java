@@ -6,13 +6,13 @@ package server.events;
  */
 public class RequestStoppedEvent implements IEvent {
 
-    private final String clientIDofStoppedRequest;
+    private final String stoppedRequestID;
 
-    public RequestStoppedEvent(String requestClientID) {
-        clientIDofStoppedRequest = requestClientID;
+    public RequestStoppedEvent(String stoppedRequestID) {
+        this.stoppedRequestID = stoppedRequestID;
     }
 
-    public String getStoppedRequestClientID() {
-        return clientIDofStoppedRequest;
+    public String getStoppedRequestID() {
+        return stoppedRequestID;
     }
-}
\ No newline at end of file
+}
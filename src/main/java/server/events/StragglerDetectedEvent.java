@@ -0,0 +1,38 @@
+package server.events;
+
+import global.model.IEntry;
+
+/**
+ * @author daan
+ * Fired by the PartialResultCollector when one of the last entries of a request takes considerably longer than usual.
+ * The entry should be converted once more by another service.
+ */
+public class StragglerDetectedEvent implements IEvent {
+
+    private final IEntry straggler;
+    private final String serviceID;
+    private final long deadline;
+
+    /**
+     * @param straggler the late entry
+     * @param serviceID the service the entry was routed to directly or null, if it went to the shared task queue
+     * @param deadline  the deadline of the request the entry belongs to or 0, if it has none
+     */
+    public StragglerDetectedEvent(IEntry straggler, String serviceID, long deadline) {
+        this.straggler = straggler;
+        this.serviceID = serviceID;
+        this.deadline = deadline;
+    }
+
+    public IEntry getStraggler() {
+        return straggler;
+    }
+
+    public String getServiceID() {
+        return serviceID;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+}
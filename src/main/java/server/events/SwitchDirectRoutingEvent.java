@@ -0,0 +1,18 @@
+package server.events;
+
+/**
+ * @author daan
+ * Fired when the routing of tasks over one direct queue per MicroService is enabled or disabled.
+ */
+public class SwitchDirectRoutingEvent implements IEvent {
+
+    private final boolean useDirectRouting;
+
+    public SwitchDirectRoutingEvent(boolean useDirectRouting) {
+        this.useDirectRouting = useDirectRouting;
+    }
+
+    public boolean isUseDirectRouting() {
+        return useDirectRouting;
+    }
+}
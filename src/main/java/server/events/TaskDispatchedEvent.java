@@ -0,0 +1,30 @@
+package server.events;
+
+import global.model.IEntry;
+
+/**
+ * @author daan
+ * Fired by the TaskDispatcher whenever it published an entry as task.
+ */
+public class TaskDispatchedEvent implements IEvent {
+
+    private final IEntry entry;
+    private final String serviceID;
+
+    /**
+     * @param entry     the dispatched entry
+     * @param serviceID the service the task was routed to directly or null, if it went to the shared task queue
+     */
+    public TaskDispatchedEvent(IEntry entry, String serviceID) {
+        this.entry = entry;
+        this.serviceID = serviceID;
+    }
+
+    public IEntry getEntry() {
+        return entry;
+    }
+
+    public String getServiceID() {
+        return serviceID;
+    }
+}
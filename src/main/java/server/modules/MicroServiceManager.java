@@ -3,10 +3,14 @@ package server.modules;
 import com.rabbitmq.client.Channel;
 import global.logging.Log;
 import global.logging.LogLevel;
+import global.metrics.Metrics;
+import global.model.IHeartbeat;
 import server.events.*;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.stream.Collectors;
 
 /**
@@ -26,9 +30,14 @@ public class MicroServiceManager implements IEventListener {
     private final static int UTIL_START_DELAY = 1500;
     private final static int UTIL_FREQ = 3000;
     public final static int MAXIMUM_UTILIZATION = 250;
-
-    //Key : ID | Value : IP
-    private HashMap<String, String> microServices = new HashMap<>();
+    //Max. # of seconds the registered services may need for the queued tasks, based on their reported throughput.
+    private final static int MAXIMUM_DRAIN_SECONDS = 60;
+    //# of heartbeats a service may miss before it is considered dead.
+    private final static int MISSED_HEARTBEATS_UNTIL_DEAD = 3;
+    private final static int DEATH_CHECK_FREQ = 1000;
+
+    //Key : ID | Value : status (IP and last reported load)
+    private final ConcurrentMap<String, MicroServiceStatus> microServices = new ConcurrentHashMap<>();
     private int runningServicesCount;
     private final Channel channel;
     private final String TASK_QUEUE_NAME;
@@ -42,6 +51,7 @@ public class MicroServiceManager implements IEventListener {
         this.channel = channel;
         this.TASK_QUEUE_NAME = taskQueueName;
         EventManager.getInstance().registerListener(this);
+        Metrics.registerGauge("server.registeredServices", microServices::size);
 
         TimerTask utilizationCheckerTask = new TimerTask() {
             @Override
@@ -56,8 +66,15 @@ public class MicroServiceManager implements IEventListener {
                 }
             }
         };
+        TimerTask deathCheckerTask = new TimerTask() {
+            @Override
+            public void run() {
+                removeDeadMicroServices();
+            }
+        };
         Timer timer = new Timer();
         timer.schedule(utilizationCheckerTask, UTIL_START_DELAY, UTIL_FREQ);
+        timer.schedule(deathCheckerTask, DEATH_CHECK_FREQ, DEATH_CHECK_FREQ);
     }
 
 
@@ -109,14 +126,20 @@ public class MicroServiceManager implements IEventListener {
     /**
      * Checks the utilization of the system.
      * This method will start new microservices, until the number of tasks divided by the number of running services
-     * is below MAXIMUM_UTILIZATION (test-value!!)
+     * is below MAXIMUM_UTILIZATION (test-value!!) and the registered services are able to work off the queued tasks
+     * within MAXIMUM_DRAIN_SECONDS at the throughput they reported with their heartbeats.
      *
      * @return number of added services. 0, if no new services where added.
      */
     private void checkUtilization() throws IOException {
-        final int currTasks = channel.queueDeclarePassive(TASK_QUEUE_NAME).getMessageCount();
+        //Tasks held back by the TaskDispatcher and tasks routed to the direct queues of the services count as well
+        final TaskDispatcher taskDispatcher = TaskDispatcher.getInstance();
+        final int currTasks = channel.queueDeclarePassive(TASK_QUEUE_NAME).getMessageCount() + taskDispatcher.getPendingTaskCount()
+                + taskDispatcher.getDirectQueueBacklog();
+        final double totalThroughput = getTotalThroughput();
         Log.log("currentAmountOfTasks: " + currTasks, LogLevel.LOW);
         Log.log("currently running services: " + runningServicesCount, LogLevel.LOW);
+        Log.log("current total throughput: " + totalThroughput + " entries/s", LogLevel.LOW);
 
         //To avoid dividing by 0
         if (runningServicesCount == 0) {
@@ -124,14 +147,49 @@ public class MicroServiceManager implements IEventListener {
             runningServicesCount++;
         }
 
-        if (currTasks / runningServicesCount > MAXIMUM_UTILIZATION && !(runningServicesCount >= MAXIMUM_AUTOMATIC_SERVICES)) {
+        final boolean tooManyTasksPerService = currTasks / runningServicesCount > MAXIMUM_UTILIZATION;
+        final boolean drainsTooSlowly = totalThroughput > 0 && currTasks / totalThroughput > MAXIMUM_DRAIN_SECONDS;
+        if ((tooManyTasksPerService || drainsTooSlowly) && !(runningServicesCount >= MAXIMUM_AUTOMATIC_SERVICES)) {
             runningServicesCount++;
             startMicroService();
         }
     }
 
+    /**
+     * Removes every MicroService which missed more than MISSED_HEARTBEATS_UNTIL_DEAD heartbeats.
+     * A stop order is sent to the removed services as well, so a service that only hangs terminates as soon as it
+     * recovers and RabbitMQ requeues the tasks it didn't acknowledge yet. A service stuck on a single task stops its
+     * heartbeats and disconnects by itself, which requeues its tasks as well.
+     */
+    private void removeDeadMicroServices() {
+        microServices.values().stream()
+                .filter(status -> status.isDead(MISSED_HEARTBEATS_UNTIL_DEAD))
+                .collect(Collectors.toList())
+                .forEach(deadService -> {
+                    Log.log("MicroService " + deadService.getServiceID() + " missed " + MISSED_HEARTBEATS_UNTIL_DEAD
+                            + " heartbeats and is considered dead.", LogLevel.WARNING);
+                    EventManager.getInstance().publishEvent(new MicroServiceDisconnectionRequestEvent(deadService.getServiceID()));
+                    EventManager.getInstance().publishEvent(new MicroServiceDisconnectedEvent(deadService.getServiceID()));
+                });
+    }
+
+    /**
+     * @return the sum of the throughput (entries/s) the registered services reported with their last heartbeat
+     */
+    public double getTotalThroughput() {
+        return microServices.values().stream().mapToDouble(MicroServiceStatus::getThroughput).sum();
+    }
+
     public Collection<String> getMicroServices() {
-        return microServices.keySet().stream().map(serviceID -> serviceID + " : " + microServices.get(serviceID)).collect(Collectors.toList());
+        return microServices.values().stream().map(MicroServiceStatus::toString).collect(Collectors.toList());
+    }
+
+    public Collection<String> getMicroServiceIDs() {
+        return new ArrayList<>(microServices.keySet());
+    }
+
+    public Collection<MicroServiceStatus> getMicroServiceStatuses() {
+        return new ArrayList<>(microServices.values());
     }
 
     @Override
@@ -139,11 +197,19 @@ public class MicroServiceManager implements IEventListener {
         if (toNotify instanceof MicroServiceConnectedEvent) {
             String connectedServiceID = ((MicroServiceConnectedEvent) toNotify).getConnectedSvcID();
             String connectedServiceIP = ((MicroServiceConnectedEvent) toNotify).getConnectedSvcIP();
-            microServices.put(connectedServiceID, connectedServiceIP);
+            int connectedServiceCapacity = ((MicroServiceConnectedEvent) toNotify).getConnectedSvcCapacity();
+            microServices.put(connectedServiceID, new MicroServiceStatus(connectedServiceID, connectedServiceIP, connectedServiceCapacity));
         } else if (toNotify instanceof MicroServiceDisconnectedEvent) {
             String disconnectedServiceID = ((MicroServiceDisconnectedEvent) toNotify).getDisconnectedSvcID();
-            runningServicesCount--;
-            microServices.remove(disconnectedServiceID);
+            if (microServices.remove(disconnectedServiceID) != null)
+                runningServicesCount--;
+        } else if (toNotify instanceof ReceivedHeartbeatEvent) {
+            IHeartbeat heartbeat = ((ReceivedHeartbeatEvent) toNotify).getHeartbeat();
+            MicroServiceStatus status = microServices.get(heartbeat.getMicroServiceID());
+            if (status == null)
+                Log.log("Received heartbeat from unregistered MicroService " + heartbeat.getMicroServiceID(), LogLevel.LOW);
+            else
+                status.update(heartbeat);
         } else if (toNotify instanceof StartMicroServiceEvent) {
             startMicroService();
         } else if (toNotify instanceof SwitchUtilisationCheckingEvent) {
@@ -153,7 +219,7 @@ public class MicroServiceManager implements IEventListener {
 
     @Override
     public Set<Class<? extends IEvent>> getEvents() {
-        return new HashSet<>(Arrays.asList(MicroServiceConnectedEvent.class, MicroServiceDisconnectedEvent.class, StartMicroServiceEvent.class, SwitchUtilisationCheckingEvent.class));
+        return new HashSet<>(Arrays.asList(MicroServiceConnectedEvent.class, MicroServiceDisconnectedEvent.class, ReceivedHeartbeatEvent.class, StartMicroServiceEvent.class, SwitchUtilisationCheckingEvent.class));
     }
 
     /**
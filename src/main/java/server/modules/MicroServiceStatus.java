@@ -0,0 +1,109 @@
+package server.modules;
+
+import global.model.IHeartbeat;
+
+/**
+ * @author daan
+ * Holds what the server knows about one registered MicroService: where it runs, when it was last heard of and the
+ * load it reported with its last heartbeat.
+ */
+public class MicroServiceStatus {
+
+    /*
+    Used until the service sent its first heartbeat.
+     */
+    static final long DEFAULT_HEARTBEAT_INTERVAL = 2000;
+    /*
+    Used as estimated throughput per processor until the service reported a measured throughput.
+     */
+    private static final double DEFAULT_THROUGHPUT_PER_PROCESSOR = 1.0;
+    //Weight of the newest measurement in the smoothed throughput.
+    private static final double THROUGHPUT_SMOOTHING = 0.3;
+
+    private final String serviceID, serviceIP;
+    private final int capacity;
+    private volatile long lastSeen;
+    private volatile IHeartbeat lastHeartbeat;
+    private volatile double smoothedThroughput;
+
+    MicroServiceStatus(String serviceID, String serviceIP, int capacity) {
+        this.serviceID = serviceID;
+        this.serviceIP = serviceIP;
+        this.capacity = Math.max(capacity, 1);
+        this.lastSeen = System.currentTimeMillis();
+    }
+
+    void update(IHeartbeat heartbeat) {
+        this.lastHeartbeat = heartbeat;
+        this.lastSeen = System.currentTimeMillis();
+        //Idle intervals say nothing about the speed of a service
+        if (heartbeat.getThroughput() > 0) {
+            smoothedThroughput = (smoothedThroughput == 0) ? heartbeat.getThroughput()
+                    : (1 - THROUGHPUT_SMOOTHING) * smoothedThroughput + THROUGHPUT_SMOOTHING * heartbeat.getThroughput();
+        }
+    }
+
+    /**
+     * @param missedHeartbeats amount of heartbeats that may be missed before the service is considered dead
+     * @return true, if the service didn't report for more than missedHeartbeats intervals
+     */
+    boolean isDead(int missedHeartbeats) {
+        return System.currentTimeMillis() - lastSeen > getHeartbeatInterval() * missedHeartbeats;
+    }
+
+    public String getServiceID() {
+        return serviceID;
+    }
+
+    public String getServiceIP() {
+        return serviceIP;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the smoothed throughput measured while the service was busy, or an estimate based on its capacity
+     * if it didn't convert anything yet
+     */
+    public double getEstimatedThroughput() {
+        return smoothedThroughput > 0 ? smoothedThroughput : capacity * DEFAULT_THROUGHPUT_PER_PROCESSOR;
+    }
+
+    public long getLastSeen() {
+        return lastSeen;
+    }
+
+    public long getHeartbeatInterval() {
+        final IHeartbeat heartbeat = lastHeartbeat;
+        return (heartbeat == null || heartbeat.getHeartbeatInterval() <= 0) ? DEFAULT_HEARTBEAT_INTERVAL : heartbeat.getHeartbeatInterval();
+    }
+
+    public int getInFlightCount() {
+        final IHeartbeat heartbeat = lastHeartbeat;
+        return heartbeat == null ? 0 : heartbeat.getInFlightCount();
+    }
+
+    public int getPrefetchLimit() {
+        final IHeartbeat heartbeat = lastHeartbeat;
+        return heartbeat == null ? 0 : heartbeat.getPrefetchLimit();
+    }
+
+    public double getThroughput() {
+        final IHeartbeat heartbeat = lastHeartbeat;
+        return heartbeat == null ? 0 : heartbeat.getThroughput();
+    }
+
+    public double getCpuLoad() {
+        final IHeartbeat heartbeat = lastHeartbeat;
+        return heartbeat == null ? -1 : heartbeat.getCpuLoad();
+    }
+
+    @Override
+    public String toString() {
+        return serviceID + " : " + serviceIP + " (" + getInFlightCount() + " in flight (prefetch "
+                + getPrefetchLimit() + "), "
+                + String.format("%.2f", getThroughput()) + " entries/s, cpu load " + String.format("%.2f", getCpuLoad()) + ")";
+    }
+}
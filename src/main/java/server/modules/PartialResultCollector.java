@@ -1,6 +1,14 @@
 package server.modules;
 
+import global.identifiers.IIdentifier;
+import global.identifiers.PartialResultIdentifier;
+import global.logging.Log;
+import global.logging.LogLevel;
+import global.metrics.Counter;
+import global.metrics.LatencyHistogram;
+import global.metrics.Metrics;
 import global.model.DefaultResult;
+import global.model.IEntry;
 import global.model.IPartialResult;
 import server.events.*;
 import server.events.IEventListener;
@@ -8,23 +16,163 @@ import server.events.IEventListener;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Maximilian Schirm
  *         created 05.12.2016
  *         <p>
  *         This is a Singleton class with immediate instantiation
+ *         <p>
+ *         Once only a few entries of a request are missing and they take longer than most entries did recently,
+ *         they are converted a second time by another service. Whichever partial arrives first is kept, duplicates
+ *         are discarded by their identifier.
+ *         <p>
+ *         Requests passing their deadline before all partials arrived are dropped and reported by a RequestExpiredEvent.
  */
 public class PartialResultCollector implements IEventListener {
 
     private static final PartialResultCollector INSTANCE = new PartialResultCollector();
-    private final ConcurrentMap<String, Collection<IPartialResult>> mappingClientIDtoFinishedPartialResults;
-    private final ConcurrentMap<String, Integer> mappingClientIDtoExpectedResultsSize;
+    //# of recent entry latencies the straggler detection is based on
+    private static final int LATENCY_HISTORY_SIZE = 1000;
+    //min. # of recent entry latencies needed before entries are converted a second time
+    private static final int MINIMUM_LATENCY_SAMPLES = 20;
+    //Entries taking longer than this percentile of the recent latencies are stragglers.
+    private static final double STRAGGLER_LATENCY_PERCENTILE = 0.95;
+    private static final long MINIMUM_STRAGGLER_AGE = 1000;
+    //Stragglers are only looked for, if at most this many (or this fraction of all) entries of a request are missing.
+    private static final int MAXIMUM_STRAGGLER_COUNT = 3;
+    private static final double MAXIMUM_STRAGGLER_FRACTION = 0.01;
+    //From the dispatch of an entry until all of its partials are collected
+    private static final LatencyHistogram COLLECT_LATENCY = Metrics.histogram("server.collect");
+    private static final LatencyHistogram ASSEMBLE_LATENCY = Metrics.histogram("server.assemble");
+    private static final Counter RECEIVED_PARTIALS = Metrics.counter("server.partialsReceived");
+    private static final Counter FINISHED_REQUESTS = Metrics.counter("server.requestsFinished");
+    private static final Counter COLLECTED_ENTRIES = Metrics.counter("server.entriesCollected");
+
+    private final ConcurrentMap<String, CollectedRequest> mappingRequestIDtoCollectedRequest;
+    private final long[] latencyHistory = new long[LATENCY_HISTORY_SIZE];
+    private long latencyHistoryCount = 0;
+
+    /**
+     * Identifies a partial within its request, unlike PartialResultIdentifier.equals() which groups partials
+     * belonging to the same result file.
+     */
+    private static final class PartialKey {
+        private final IIdentifier entryIdentifier;
+        private final int cslFileIndex, templateFileIndex;
+
+        private PartialKey(PartialResultIdentifier identifier) {
+            this.entryIdentifier = identifier.getEntryIdentifier();
+            this.cslFileIndex = identifier.getCslFileIndex();
+            this.templateFileIndex = identifier.getTemplateFileIndex();
+        }
+
+        private boolean isAbortedConversion() {
+            return cslFileIndex == PartialResultIdentifier.ABORTED_CONVERSION_INDEX
+                    && templateFileIndex == PartialResultIdentifier.ABORTED_CONVERSION_INDEX;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof PartialKey)) return false;
+            PartialKey that = (PartialKey) o;
+            return cslFileIndex == that.cslFileIndex && templateFileIndex == that.templateFileIndex
+                    && entryIdentifier.equals(that.entryIdentifier);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(entryIdentifier, cslFileIndex, templateFileIndex);
+        }
+    }
+
+    /**
+     * An entry that was dispatched, but not all of its partials arrived yet.
+     */
+    private static final class OutstandingEntry {
+        private final IEntry entry;
+        private final long dispatchTime;
+        private String serviceID;
+        private boolean speculated = false;
+
+        private OutstandingEntry(IEntry entry, String serviceID) {
+            this.entry = entry;
+            this.serviceID = serviceID;
+            this.dispatchTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Everything collected for one request. Access has to be synchronized on the instance.
+     */
+    private static final class CollectedRequest {
+        private int expectedSize;
+        private final int partialsPerEntry;
+        private final long deadline;
+        private final Collection<IPartialResult> finishedPartials = new ArrayList<>();
+        private final Map<PartialKey, Integer> acceptedPartialKeys = new HashMap<>();
+        private final Map<IIdentifier, Integer> acceptedPartialsPerEntry = new HashMap<>();
+        private final Map<IIdentifier, OutstandingEntry> outstandingEntries = new HashMap<>();
+        private final long acceptTime = System.currentTimeMillis();
+        //# of chars of the contents in finishedPartials
+        private long finishedContentLength = 0;
+
+        private CollectedRequest(int expectedSize, int partialsPerEntry, long deadline) {
+            this.expectedSize = expectedSize;
+            this.partialsPerEntry = Math.max(partialsPerEntry, 1);
+            this.deadline = deadline;
+        }
+
+        /**
+         * @return the entry latency in ms, if the partial completed an entry which was dispatched, 0 if it didn't
+         * complete an entry and -1 if it was a duplicate
+         */
+        private long accept(IPartialResult partialResult) {
+            final PartialResultIdentifier identifier = (PartialResultIdentifier) partialResult.getIdentifier();
+            final PartialKey key = new PartialKey(identifier);
+            final int acceptedForEntry = acceptedPartialsPerEntry.getOrDefault(key.entryIdentifier, 0);
+            final int acceptedForKey = acceptedPartialKeys.getOrDefault(key, 0);
+            //An aborted conversion delivers all partials of the entry with the same identifier
+            final int allowedForKey = key.isAbortedConversion() ? partialsPerEntry : 1;
+            if (acceptedForEntry >= partialsPerEntry || acceptedForKey >= allowedForKey)
+                return -1;
+
+            acceptedPartialKeys.put(key, acceptedForKey + 1);
+            acceptedPartialsPerEntry.put(key.entryIdentifier, acceptedForEntry + 1);
+            finishedPartials.add(partialResult);
+            finishedContentLength += partialResult.getContent() == null ? 0 : partialResult.getContent().length();
+            if (acceptedForEntry + 1 == partialsPerEntry) {
+                final OutstandingEntry completed = outstandingEntries.remove(key.entryIdentifier);
+                if (completed != null)
+                    return Math.max(System.currentTimeMillis() - completed.dispatchTime, 1);
+            }
+            return 0;
+        }
+
+        private void dispatched(IEntry entry, String serviceID) {
+            final IIdentifier entryIdentifier = entry.getEntryIdentifier();
+            final OutstandingEntry outstandingEntry = outstandingEntries.get(entryIdentifier);
+            if (outstandingEntry != null)
+                outstandingEntry.serviceID = serviceID;
+            else if (acceptedPartialsPerEntry.getOrDefault(entryIdentifier, 0) < partialsPerEntry)
+                outstandingEntries.put(entryIdentifier, new OutstandingEntry(entry, serviceID));
+        }
+
+        private boolean isComplete() {
+            return finishedPartials.size() >= expectedSize;
+        }
+
+        private boolean isExpired(long now) {
+            return deadline > 0 && now > deadline;
+        }
+    }
 
     private PartialResultCollector() {
         EventManager.getInstance().registerListener(this);
-        mappingClientIDtoFinishedPartialResults = new ConcurrentHashMap<>();
-        mappingClientIDtoExpectedResultsSize = new ConcurrentHashMap<>();
+        mappingRequestIDtoCollectedRequest = new ConcurrentHashMap<>();
+        Metrics.registerGauge("server.collectingRequests", mappingRequestIDtoCollectedRequest::size);
 
         //Starts the update loop
         TimerTask updateLoop = new TimerTask() {
@@ -40,15 +188,86 @@ public class PartialResultCollector implements IEventListener {
 
     public Collection<String> getOutstandingRequests() {
         Collection<String> requests = new ArrayList<>();
-        for (String clientID : mappingClientIDtoExpectedResultsSize.keySet()) {
-            int expectedCount = mappingClientIDtoExpectedResultsSize.get(clientID);
-            Collection<IPartialResult> finished = mappingClientIDtoFinishedPartialResults.get(clientID);
-            int finishedCount = (finished == null) ? 0 : finished.size();
-            requests.add(clientID + " : Expected " + expectedCount + " , Finished " + finishedCount + ", Difference : " + (expectedCount - finishedCount) + ".");
-        }
+        mappingRequestIDtoCollectedRequest.forEach((requestID, request) -> {
+            synchronized (request) {
+                int expectedCount = request.expectedSize;
+                int finishedCount = request.finishedPartials.size();
+                requests.add(requestID + " : Expected " + expectedCount + " , Finished " + finishedCount + ", Difference : " + (expectedCount - finishedCount) + ".");
+            }
+        });
         return requests;
     }
 
+    /**
+     * The state of a request being collected at one point in time.
+     */
+    public static final class RequestProgress {
+        private final String requestID;
+        private final int expectedSize, finishedSize;
+        private final long acceptTime, finishedContentLength;
+
+        private RequestProgress(String requestID, CollectedRequest request) {
+            this.requestID = requestID;
+            this.expectedSize = request.expectedSize;
+            this.finishedSize = request.finishedPartials.size();
+            this.acceptTime = request.acceptTime;
+            this.finishedContentLength = request.finishedContentLength;
+        }
+
+        public String getRequestID() {
+            return requestID;
+        }
+
+        public int getExpectedSize() {
+            return expectedSize;
+        }
+
+        public int getFinishedSize() {
+            return finishedSize;
+        }
+
+        public double getProgress() {
+            return expectedSize == 0 ? 1 : (double) finishedSize / expectedSize;
+        }
+
+        /**
+         * @return the time since the request was accepted in ms
+         */
+        public long getAge() {
+            return System.currentTimeMillis() - acceptTime;
+        }
+
+        /**
+         * @return the time until all partials are expected, extrapolated from the rate so far, in ms; -1 if no
+         * partial finished yet
+         */
+        public long getEstimatedTimeRemaining() {
+            if (finishedSize == 0)
+                return -1;
+            return Math.max(getAge() * (expectedSize - finishedSize) / finishedSize, 0);
+        }
+
+        /**
+         * @return the # of chars of the partials held until the request is complete
+         */
+        public long getFinishedContentLength() {
+            return finishedContentLength;
+        }
+    }
+
+    /**
+     * @return the progress of every request being collected
+     */
+    public List<RequestProgress> getRequestProgress() {
+        final List<RequestProgress> progress = new ArrayList<>();
+        mappingRequestIDtoCollectedRequest.forEach((requestID, request) -> {
+            synchronized (request) {
+                progress.add(new RequestProgress(requestID, request));
+            }
+        });
+        return progress;
+    }
+
     protected static PartialResultCollector getInstance() {
         return INSTANCE;
     }
@@ -57,41 +276,137 @@ public class PartialResultCollector implements IEventListener {
     public void notify(IEvent toNotify) {
         if (toNotify instanceof ReceivedPartialResultEvent) {
             IPartialResult partialResult = ((ReceivedPartialResultEvent) toNotify).getPartialResult();
-            String id = partialResult.getIdentifier().getClientID();
-            Collection<IPartialResult> presentResults = mappingClientIDtoFinishedPartialResults.get(id);
-            if (presentResults == null) {
-                presentResults = new HashSet<>();
+            String id = partialResult.getIdentifier().getRequestID();
+            CollectedRequest request = mappingRequestIDtoCollectedRequest.get(id);
+            if (request == null) {
+                Log.log("Discarded partial result of unknown or finished request " + id, LogLevel.LOW);
+                return;
+            }
+            final long entryLatency;
+            synchronized (request) {
+                entryLatency = request.accept(partialResult);
+            }
+            if (entryLatency < 0)
+                Log.log("Discarded duplicate " + partialResult.getIdentifier(), LogLevel.LOW);
+            else
+                RECEIVED_PARTIALS.increment();
+            if (entryLatency > 0) {
+                recordLatency(entryLatency);
+                COLLECT_LATENCY.record(entryLatency, TimeUnit.MILLISECONDS);
+                COLLECTED_ENTRIES.increment();
             }
-            presentResults.add(partialResult);
-            mappingClientIDtoFinishedPartialResults.put(id, presentResults);
         } else if (toNotify instanceof ReceivedErrorEvent) {
             ReceivedErrorEvent tempEvent = (ReceivedErrorEvent) toNotify;
-            String id = tempEvent.getResultID();
-            int currentSize = mappingClientIDtoExpectedResultsSize.get(id);
-            mappingClientIDtoExpectedResultsSize.put(id, currentSize - 1);
+            CollectedRequest request = mappingRequestIDtoCollectedRequest.get(tempEvent.getResultID());
+            if (request != null) {
+                synchronized (request) {
+                    request.expectedSize--;
+                }
+            }
         } else if (toNotify instanceof RequestAcceptedEvent) {
-            String id = ((RequestAcceptedEvent) toNotify).getRequestID();
-            int size = ((RequestAcceptedEvent) toNotify).getReqSize();
-            mappingClientIDtoExpectedResultsSize.put(id, size);
-            mappingClientIDtoFinishedPartialResults.remove(id);
+            RequestAcceptedEvent acceptedEvent = (RequestAcceptedEvent) toNotify;
+            mappingRequestIDtoCollectedRequest.put(acceptedEvent.getRequestID(),
+                    new CollectedRequest(acceptedEvent.getReqSize(), acceptedEvent.getPartialsPerEntry(), acceptedEvent.getDeadline()));
+        } else if (toNotify instanceof RequestStoppedEvent) {
+            mappingRequestIDtoCollectedRequest.remove(((RequestStoppedEvent) toNotify).getStoppedRequestID());
+        } else if (toNotify instanceof TaskDispatchedEvent) {
+            IEntry entry = ((TaskDispatchedEvent) toNotify).getEntry();
+            CollectedRequest request = mappingRequestIDtoCollectedRequest.get(entry.getEntryIdentifier().getRequestID());
+            if (request != null) {
+                synchronized (request) {
+                    request.dispatched(entry, ((TaskDispatchedEvent) toNotify).getServiceID());
+                }
+            }
         }
     }
 
     /**
      * Checks whether any of the results is finished creating yet and - if that is the case - sends out a FinishedCollectingResultEvent.
+     * Otherwise looks for entries which should be converted a second time and for requests which passed their deadline.
+     * The events are published after the lock of the request is released: The TaskDispatcher dispatches stragglers
+     * synchronously and notifies this collector of the dispatch, which needs that lock again.
      */
-    private synchronized void update() {
-        mappingClientIDtoExpectedResultsSize.forEach((key, size) -> {
-            Collection<IPartialResult> parts = mappingClientIDtoFinishedPartialResults.get(key);
-            if (parts != null) {
-                EventManager.getInstance().publishEvent(new ProgressUpdateEvent(key, getProgressForClientID(key)));
-                if (parts.size() == size) {
-                    EventManager.getInstance().publishEvent(new FinishedCollectingResultEvent(DefaultResult.buildResultfromPartials(parts)));
-                    mappingClientIDtoFinishedPartialResults.remove(key);
-                    mappingClientIDtoExpectedResultsSize.remove(key);
+    //Package-private for the tests
+    synchronized void update() {
+        final long now = System.currentTimeMillis();
+        final long stragglerAge = Math.max(getLatencyPercentile(STRAGGLER_LATENCY_PERCENTILE), MINIMUM_STRAGGLER_AGE);
+        final boolean enoughSamples = getLatencySampleCount() >= MINIMUM_LATENCY_SAMPLES;
+        final List<IEvent> events = new ArrayList<>();
+        mappingRequestIDtoCollectedRequest.forEach((key, request) -> {
+            synchronized (request) {
+                if (request.isExpired(now) && !request.isComplete()) {
+                    Log.log("Request " + key + " passed its deadline with " + request.finishedPartials.size() + " of "
+                            + request.expectedSize + " partials finished.", LogLevel.WARNING);
+                    mappingRequestIDtoCollectedRequest.remove(key);
+                    events.add(new RequestExpiredEvent(key));
+                } else if (!request.finishedPartials.isEmpty()) {
+                    events.add(new ProgressUpdateEvent(key, getProgress(request)));
+                    if (request.isComplete()) {
+                        final long assembleStart = System.nanoTime();
+                        final DefaultResult result = DefaultResult.buildResultfromPartials(request.finishedPartials);
+                        ASSEMBLE_LATENCY.recordSince(assembleStart);
+                        FINISHED_REQUESTS.increment();
+                        events.add(new FinishedCollectingResultEvent(result));
+                        mappingRequestIDtoCollectedRequest.remove(key);
+                    } else if (enoughSamples) {
+                        events.addAll(detectStragglers(key, request, stragglerAge));
+                    }
                 }
             }
         });
+        events.forEach(EventManager.getInstance()::publishEvent);
+    }
+
+    /**
+     * Marks every outstanding entry older than stragglerAge to be converted a second time, if only a few entries
+     * of the request are missing. Every entry is converted a second time at most once.
+     *
+     * @return a StragglerDetectedEvent for each of the marked entries
+     */
+    private List<StragglerDetectedEvent> detectStragglers(String requestID, CollectedRequest request, long stragglerAge) {
+        final int missingEntries = (int) Math.ceil((request.expectedSize - request.finishedPartials.size()) / (double) request.partialsPerEntry);
+        final int expectedEntries = request.expectedSize / request.partialsPerEntry;
+        if (missingEntries > Math.max(MAXIMUM_STRAGGLER_COUNT, expectedEntries * MAXIMUM_STRAGGLER_FRACTION))
+            return Collections.emptyList();
+        final long now = System.currentTimeMillis();
+        final List<StragglerDetectedEvent> stragglerEvents = new ArrayList<>();
+        request.outstandingEntries.values().stream()
+                .filter(outstandingEntry -> !outstandingEntry.speculated && now - outstandingEntry.dispatchTime > stragglerAge)
+                .forEach(straggler -> {
+                    straggler.speculated = true;
+                    Log.log("Converting " + straggler.entry.getEntryIdentifier() + " of request " + requestID
+                            + " again, it is outstanding for " + (now - straggler.dispatchTime) + " ms.", LogLevel.INFO);
+                    stragglerEvents.add(new StragglerDetectedEvent(straggler.entry, straggler.serviceID, request.deadline));
+                });
+        return stragglerEvents;
+    }
+
+    private void recordLatency(long latency) {
+        synchronized (latencyHistory) {
+            latencyHistory[(int) (latencyHistoryCount % LATENCY_HISTORY_SIZE)] = latency;
+            latencyHistoryCount++;
+        }
+    }
+
+    private int getLatencySampleCount() {
+        synchronized (latencyHistory) {
+            return (int) Math.min(latencyHistoryCount, LATENCY_HISTORY_SIZE);
+        }
+    }
+
+    /**
+     * @param percentile a value between 0 and 1
+     * @return the percentile of the recent entry latencies in ms, 0 if there are none
+     */
+    public long getLatencyPercentile(double percentile) {
+        final long[] samples;
+        synchronized (latencyHistory) {
+            samples = Arrays.copyOf(latencyHistory, (int) Math.min(latencyHistoryCount, LATENCY_HISTORY_SIZE));
+        }
+        if (samples.length == 0)
+            return 0;
+        Arrays.sort(samples);
+        return samples[Math.min((int) (percentile * samples.length), samples.length - 1)];
     }
 
     @Override
@@ -100,12 +415,14 @@ public class PartialResultCollector implements IEventListener {
         evts.add(ReceivedErrorEvent.class);
         evts.add(ReceivedPartialResultEvent.class);
         evts.add(RequestAcceptedEvent.class);
+        evts.add(RequestStoppedEvent.class);
+        evts.add(TaskDispatchedEvent.class);
         return evts;
     }
 
-    private synchronized double getProgressForClientID(String clientID){
-        double toFinish = mappingClientIDtoExpectedResultsSize.get(clientID);
-        double finished = mappingClientIDtoFinishedPartialResults.get(clientID).size();
-        return finished/toFinish;
+    private static double getProgress(CollectedRequest request) {
+        double toFinish = request.expectedSize;
+        double finished = request.finishedPartials.size();
+        return finished / toFinish;
     }
 }
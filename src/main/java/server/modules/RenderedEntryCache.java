@@ -0,0 +1,349 @@
+package server.modules;
+
+import global.identifiers.IIdentifier;
+import global.identifiers.PartialResultIdentifier;
+import global.logging.Log;
+import global.logging.LogLevel;
+import global.metrics.Counter;
+import global.metrics.Metrics;
+import global.model.DefaultPartialResult;
+import global.model.IEntry;
+import global.model.IPartialResult;
+import global.util.HashUtils;
+import server.events.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * @author daan
+ *         <p>
+ *         Singleton class with lazy init
+ *         Caches converted entries across requests and clients. A partial is cached under the hash of the content of
+ *         its entry, csl file and template, so identical entries of different requests share it. Entries whose
+ *         partials are all cached are not dispatched, the server hands the cached partials to the
+ *         PartialResultCollector instead.
+ *         <p>
+ *         Identical entries looked up while the first of them is still being converted are not dispatched either.
+ *         They subscribe to the conversion in flight and get copies of its partials, identified as their own. If the
+ *         request of the converted entry is closed early, the first subscriber takes over and is dispatched.
+ *         Entries with an earlier deadline than the one in flight don't subscribe, they are dispatched themselves.
+ *         <p>
+ *         The partials are stored in a SegmentCacheStore, so the cache survives restarts of the server. Its
+ *         directory and max. size in bytes can be set with the system properties "renderedEntryCache.directory" and
+ *         "renderedEntryCache.maximumSize". If the store can't be opened, every lookup misses.
+ */
+public class RenderedEntryCache implements IEventListener {
+
+    private static RenderedEntryCache INSTANCE;
+    private final static String DEFAULT_CACHE_DIRECTORY = "renderedcache";
+    private final static long DEFAULT_MAXIMUM_CACHE_SIZE = 256L * 1024 * 1024;
+    private final static int COMPACTION_FREQ = 60000;
+
+    //Key : content hash | Value : content of the converted partial
+    private SegmentCacheStore renderedPartials;
+    //Key : identifier of a converted or subscribed entry | Value : the conversion
+    private final Map<IIdentifier, InFlightConversion> conversionsByEntry = new HashMap<>();
+    //Key : hash of an entry with its csl files and templates | Value : the conversion others can subscribe to
+    private final Map<String, InFlightConversion> conversionsByHash = new HashMap<>();
+    private final Counter hits = Metrics.counter("server.cache.hits"), misses = Metrics.counter("server.cache.misses"),
+            coalesced = Metrics.counter("server.cache.coalesced");
+
+    /**
+     * An entry waiting for conversion, with the entries subscribed to its partials.
+     */
+    private static final class InFlightConversion {
+        private final String hash;
+        //Key : csl and template index | Value : content hash of the partial
+        private final Map<String, String> partialHashes;
+        //Hashes of the partials not received yet
+        private final Map<String, String> expectedPartialHashes;
+        private final LinkedList<Subscriber> subscribers = new LinkedList<>();
+        private Subscriber converted;
+
+        private InFlightConversion(String hash, Map<String, String> partialHashes, Subscriber converted) {
+            this.hash = hash;
+            this.partialHashes = partialHashes;
+            this.expectedPartialHashes = new HashMap<>(partialHashes);
+            this.converted = converted;
+        }
+    }
+
+    private static final class Subscriber {
+        private final IEntry entry;
+        private final long deadline;
+
+        private Subscriber(IEntry entry, long deadline) {
+            this.entry = entry;
+            this.deadline = deadline;
+        }
+
+        private long getSortableDeadline() {
+            return deadline > 0 ? deadline : Long.MAX_VALUE;
+        }
+    }
+
+    private RenderedEntryCache() {
+        this(Paths.get(System.getProperty("renderedEntryCache.directory", DEFAULT_CACHE_DIRECTORY)),
+                Long.getLong("renderedEntryCache.maximumSize", DEFAULT_MAXIMUM_CACHE_SIZE));
+    }
+
+    //Package-private for the tests
+    RenderedEntryCache(Path directory, long maximumSize) {
+        try {
+            renderedPartials = new SegmentCacheStore(directory, maximumSize);
+            Log.log("Opened rendered entry cache with " + renderedPartials.getEntryCount() + " partials.", LogLevel.INFO);
+        } catch (IOException e) {
+            Log.log("Couldn't open the rendered entry cache, entries are not cached.", e);
+        }
+        EventManager.getInstance().registerListener(this);
+        Metrics.registerGauge("server.cache.sizeBytes", this::getCacheSize);
+        Metrics.registerGauge("server.cache.evictions", this::getEvictions);
+
+        TimerTask compactionTask = new TimerTask() {
+            @Override
+            public void run() {
+                compact();
+            }
+        };
+        Timer timer = new Timer(true);
+        timer.schedule(compactionTask, COMPACTION_FREQ, COMPACTION_FREQ);
+    }
+
+    public static RenderedEntryCache getInstance() {
+        if (INSTANCE == null)
+            INSTANCE = new RenderedEntryCache();
+        return INSTANCE;
+    }
+
+    /**
+     * Looks up the partials of the entry. If they aren't all cached, the entry subscribes to an identical entry in
+     * flight or, if there is none, is remembered, so its partials are cached once they are received.
+     *
+     * @param entry    the entry to convert
+     * @param deadline the deadline of its request or 0, if it has none
+     * @return the partials of the entry, if all of them are cached; an empty list, if the entry subscribed to a
+     * conversion in flight; null, if the entry has to be dispatched
+     */
+    public synchronized List<IPartialResult> lookup(IEntry entry, long deadline) {
+        final Map<String, String> partialHashes = HashUtils.getPartialHashes(entry);
+        final List<IPartialResult> cachedPartials = new ArrayList<>();
+        for (Map.Entry<String, String> partialHash : partialHashes.entrySet()) {
+            final String content = get(partialHash.getValue());
+            if (content == null)
+                break;
+            cachedPartials.add(new DefaultPartialResult(content, new PartialResultIdentifier(entry.getEntryIdentifier(),
+                    HashUtils.getCslFileIndex(partialHash.getKey()), HashUtils.getTemplateFileIndex(partialHash.getKey()))));
+        }
+        if (cachedPartials.size() == partialHashes.size()) {
+            hits.increment();
+            return cachedPartials;
+        }
+        final Subscriber subscriber = new Subscriber(entry, deadline);
+        final String hash = HashUtils.sha256(partialHashes.values().toArray(new String[0]));
+        final InFlightConversion inFlight = conversionsByHash.get(hash);
+        if (inFlight != null && subscriber.getSortableDeadline() >= inFlight.converted.getSortableDeadline()) {
+            inFlight.subscribers.add(subscriber);
+            conversionsByEntry.put(entry.getEntryIdentifier(), inFlight);
+            coalesced.increment();
+            return Collections.emptyList();
+        }
+        misses.increment();
+        final InFlightConversion conversion = new InFlightConversion(hash, partialHashes, subscriber);
+        conversionsByEntry.put(entry.getEntryIdentifier(), conversion);
+        conversionsByHash.putIfAbsent(hash, conversion);
+        return null;
+    }
+
+    /**
+     * Caches a received partial, if its entry was looked up before and it was converted without errors.
+     *
+     * @return copies of the partial for the subscribed entries
+     */
+    public synchronized List<IPartialResult> offer(IPartialResult partialResult) {
+        final PartialResultIdentifier identifier = (PartialResultIdentifier) partialResult.getIdentifier();
+        final InFlightConversion conversion = conversionsByEntry.get(identifier.getEntryIdentifier());
+        if (conversion == null || !conversion.converted.entry.getEntryIdentifier().equals(identifier.getEntryIdentifier()))
+            return Collections.emptyList();
+        final String hash;
+        if (identifier.getCslFileIndex() == PartialResultIdentifier.ABORTED_CONVERSION_INDEX) {
+            //The partials of an aborted conversion share their index, one of them replaces each expected partial
+            final Iterator<String> expected = conversion.expectedPartialHashes.values().iterator();
+            hash = expected.hasNext() ? expected.next() : null;
+            if (hash != null)
+                expected.remove();
+        } else {
+            hash = conversion.expectedPartialHashes.remove(HashUtils.getPartialKey(identifier.getCslFileIndex(), identifier.getTemplateFileIndex()));
+        }
+        //Already received, e.g. from a straggler converted twice
+        if (hash == null)
+            return Collections.emptyList();
+        if (!identifier.isHasErrors())
+            put(hash, partialResult.getContent());
+        final List<IPartialResult> copies = new ArrayList<>();
+        for (Subscriber subscriber : conversion.subscribers)
+            copies.add(new DefaultPartialResult(partialResult.getContent(), new PartialResultIdentifier(subscriber.entry.getEntryIdentifier(),
+                    identifier.getCslFileIndex(), identifier.getTemplateFileIndex(), identifier.isHasErrors())));
+        if (conversion.expectedPartialHashes.isEmpty())
+            finish(conversion);
+        return copies;
+    }
+
+    private void finish(InFlightConversion conversion) {
+        conversionsByEntry.remove(conversion.converted.entry.getEntryIdentifier());
+        conversion.subscribers.forEach(subscriber -> conversionsByEntry.remove(subscriber.entry.getEntryIdentifier()));
+        conversionsByHash.remove(conversion.hash, conversion);
+    }
+
+    private String get(String hash) {
+        if (renderedPartials == null)
+            return null;
+        try {
+            return renderedPartials.get(hash);
+        } catch (IOException e) {
+            Log.log("Failed to read from the rendered entry cache", e);
+            return null;
+        }
+    }
+
+    private void put(String hash, String content) {
+        if (renderedPartials == null)
+            return;
+        try {
+            renderedPartials.put(hash, content);
+        } catch (IOException e) {
+            Log.log("Failed to write to the rendered entry cache", e);
+        }
+    }
+
+    private synchronized void compact() {
+        if (renderedPartials == null)
+            return;
+        try {
+            final int compactedSegments = renderedPartials.compact();
+            if (compactedSegments > 0)
+                Log.log("Compacted " + compactedSegments + " segment(s) of the rendered entry cache.", LogLevel.LOW);
+        } catch (IOException e) {
+            Log.log("Failed to compact the rendered entry cache", e);
+        }
+    }
+
+    /**
+     * @return the share of looked up entries whose partials were all cached
+     */
+    public double getHitRate() {
+        final long lookups = hits.getCount() + misses.getCount() + coalesced.getCount();
+        return lookups == 0 ? 0 : (double) hits.getCount() / lookups;
+    }
+
+    public long getHits() {
+        return hits.getCount();
+    }
+
+    public long getMisses() {
+        return misses.getCount();
+    }
+
+    /**
+     * @return the # of looked up entries which subscribed to a conversion in flight
+     */
+    public long getCoalesced() {
+        return coalesced.getCount();
+    }
+
+    public synchronized long getEvictions() {
+        return renderedPartials == null ? 0 : renderedPartials.getEvictions();
+    }
+
+    public synchronized int getCachedPartialCount() {
+        return renderedPartials == null ? 0 : renderedPartials.getEntryCount();
+    }
+
+    /**
+     * @return the size of the cached partials in bytes
+     */
+    public synchronized long getCacheSize() {
+        return renderedPartials == null ? 0 : renderedPartials.getLiveSize();
+    }
+
+    /**
+     * @return the size of the segment files in bytes, including evicted and replaced partials not compacted yet
+     */
+    public synchronized long getDiskSize() {
+        return renderedPartials == null ? 0 : renderedPartials.getDiskSize();
+    }
+
+    public synchronized long getMaximumSize() {
+        return renderedPartials == null ? 0 : renderedPartials.getMaximumSize();
+    }
+
+    /**
+     * Unsubscribes the entries of a closed request. Conversions for the request are taken over by their first
+     * subscriber.
+     *
+     * @return the entries which took over a conversion and have to be dispatched, with the deadlines of their requests
+     */
+    //Package-private for the tests
+    synchronized Map<IEntry, Long> forgetRequest(String requestID) {
+        final Map<IEntry, Long> toDispatch = new LinkedHashMap<>();
+        for (InFlightConversion conversion : new HashSet<>(conversionsByEntry.values())) {
+            conversion.subscribers.removeIf(subscriber -> subscriber.entry.getEntryIdentifier().getRequestID().equals(requestID));
+            if (!conversion.converted.entry.getEntryIdentifier().getRequestID().equals(requestID))
+                continue;
+            if (conversion.subscribers.isEmpty()) {
+                finish(conversion);
+            } else {
+                conversionsByEntry.remove(conversion.converted.entry.getEntryIdentifier());
+                conversion.converted = conversion.subscribers.removeFirst();
+                conversion.expectedPartialHashes.putAll(conversion.partialHashes);
+                toDispatch.put(conversion.converted.entry, conversion.converted.deadline);
+            }
+        }
+        conversionsByEntry.keySet().removeIf(entryIdentifier -> entryIdentifier.getRequestID().equals(requestID));
+        return toDispatch;
+    }
+
+    /**
+     * Dispatches the entries which took over a conversion, without holding the cache's monitor.
+     */
+    private void dispatch(Map<IEntry, Long> toDispatch) {
+        toDispatch.forEach((entry, deadline) -> {
+            try {
+                TaskDispatcher.getInstance().dispatch(Collections.singletonList(entry), deadline);
+            } catch (IOException e) {
+                Log.log("Failed to dispatch " + entry.getEntryIdentifier(), e);
+            }
+        });
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Rendered entry cache: %d partials, %.1f of %.1f MB (%.1f MB on disk), hit rate %.1f%% (%d hits, %d misses, %d coalesced), %d evictions",
+                getCachedPartialCount(), getCacheSize() / 1048576.0, getMaximumSize() / 1048576.0, getDiskSize() / 1048576.0,
+                getHitRate() * 100, getHits(), getMisses(), getCoalesced(), getEvictions());
+    }
+
+    @Override
+    public void notify(IEvent toNotify) {
+        if (toNotify instanceof FinishedCollectingResultEvent) {
+            dispatch(forgetRequest(((FinishedCollectingResultEvent) toNotify).getResult().getRequestID()));
+        } else if (toNotify instanceof RequestStoppedEvent) {
+            dispatch(forgetRequest(((RequestStoppedEvent) toNotify).getStoppedRequestID()));
+        } else if (toNotify instanceof RequestExpiredEvent) {
+            dispatch(forgetRequest(((RequestExpiredEvent) toNotify).getRequestID()));
+        }
+        if (Log.isLoggable(LogLevel.LOW))
+            Log.log(toString(), LogLevel.LOW);
+    }
+
+    @Override
+    public Set<Class<? extends IEvent>> getEvents() {
+        Set<Class<? extends IEvent>> events = new HashSet<>();
+        events.addAll(Arrays.asList(FinishedCollectingResultEvent.class, RequestStoppedEvent.class, RequestExpiredEvent.class));
+        return events;
+    }
+}
@@ -0,0 +1,407 @@
+package server.modules;
+
+import global.identifiers.PartialResultIdentifier;
+import global.logging.Log;
+import global.logging.LogLevel;
+import global.model.IClientRequest;
+import global.model.IEntry;
+import global.model.IPartialResult;
+import org.apache.commons.lang3.SerializationException;
+import org.apache.commons.lang3.SerializationUtils;
+import server.events.*;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * @author daan
+ *         <p>
+ *         Singleton class with lazy init
+ *         Append-only journal of the accepted requests and the partials received for them, so a restarted server
+ *         resumes the open requests instead of losing them. Every record is flushed to the file system before the
+ *         server acts on it and forced to disk every SYNC_FREQ ms. Requests are closed when their result was
+ *         published, they were stopped or they expired; the records of closed requests are removed by rewriting
+ *         the journal every COMPACTION_FREQ ms, without stalling the recording of new records.
+ *         <p>
+ *         Dispatched tasks are not journaled: the tasks to dispatch again after a restart follow from the entries
+ *         of a request and the partials already received.
+ */
+public class RequestJournal implements IEventListener {
+
+    private static RequestJournal INSTANCE;
+    private final static String DEFAULT_JOURNAL_FILE_NAME = "requestjournal.dat";
+    private final static int SYNC_FREQ = 1000;
+    private final static int COMPACTION_FREQ = 60000;
+
+    private final Path journalPath;
+    private DataOutputStream journalStream;
+    private FileChannel journalChannel;
+    private final Set<String> openRequestIDs = new HashSet<>();
+    //IDs of the requests closed since the last compaction
+    private final Set<String> closedRequestIDs = new HashSet<>();
+
+    //The records are read by the next build of the server, their serialVersionUIDs may only change with their format
+    private static abstract class JournalRecord implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        abstract String getRequestID();
+    }
+
+    private static final class AcceptedRecord extends JournalRecord {
+        private static final long serialVersionUID = 1L;
+        private final IClientRequest request;
+        private final String replyTo, correlationID;
+
+        private AcceptedRecord(IClientRequest request, String replyTo, String correlationID) {
+            this.request = request;
+            this.replyTo = replyTo;
+            this.correlationID = correlationID;
+        }
+
+        @Override
+        String getRequestID() {
+            return request.getRequestID();
+        }
+    }
+
+    private static final class PartialRecord extends JournalRecord {
+        private static final long serialVersionUID = 1L;
+        private final IPartialResult partialResult;
+
+        private PartialRecord(IPartialResult partialResult) {
+            this.partialResult = partialResult;
+        }
+
+        @Override
+        String getRequestID() {
+            return partialResult.getIdentifier().getRequestID();
+        }
+    }
+
+    private static final class ClosedRecord extends JournalRecord {
+        private static final long serialVersionUID = 1L;
+        private final String requestID;
+
+        private ClosedRecord(String requestID) {
+            this.requestID = requestID;
+        }
+
+        @Override
+        String getRequestID() {
+            return requestID;
+        }
+    }
+
+    /**
+     * A request that was still open, when the journal was replayed.
+     */
+    public static final class RecoveredRequest {
+        private final IClientRequest request;
+        private final String replyTo, correlationID;
+        private final List<IPartialResult> partialResults = new ArrayList<>();
+
+        private RecoveredRequest(AcceptedRecord record) {
+            this.request = record.request;
+            this.replyTo = record.replyTo;
+            this.correlationID = record.correlationID;
+        }
+
+        public IClientRequest getRequest() {
+            return request;
+        }
+
+        public String getReplyTo() {
+            return replyTo;
+        }
+
+        public String getCorrelationID() {
+            return correlationID;
+        }
+
+        public List<IPartialResult> getPartialResults() {
+            return partialResults;
+        }
+
+        /**
+         * @return the entries of the request not all partials were received for
+         */
+        public List<IEntry> getMissingEntries() {
+            //Key : identifier of an entry | Value : csl and template indices of its received partials
+            final Map<Object, List<String>> receivedKeys = new HashMap<>();
+            for (IPartialResult partialResult : partialResults) {
+                final PartialResultIdentifier identifier = (PartialResultIdentifier) partialResult.getIdentifier();
+                final List<String> keys = receivedKeys.computeIfAbsent(identifier.getEntryIdentifier(), k -> new ArrayList<>());
+                final String key = identifier.getCslFileIndex() + ":" + identifier.getTemplateFileIndex();
+                //The partials of an aborted conversion share their key
+                if (identifier.getCslFileIndex() == PartialResultIdentifier.ABORTED_CONVERSION_INDEX || !keys.contains(key))
+                    keys.add(key);
+            }
+            final List<IEntry> missingEntries = new ArrayList<>();
+            for (IEntry entry : request.getEntries()) {
+                final List<String> keys = receivedKeys.get(entry.getEntryIdentifier());
+                if (keys == null || keys.size() < entry.getAmountOfExpectedPartials())
+                    missingEntries.add(entry);
+            }
+            return missingEntries;
+        }
+    }
+
+    //Package-private for the tests
+    RequestJournal(Path journalPath) {
+        this.journalPath = journalPath;
+        EventManager.getInstance().registerListener(this);
+
+        TimerTask syncTask = new TimerTask() {
+            @Override
+            public void run() {
+                sync();
+            }
+        };
+        TimerTask compactionTask = new TimerTask() {
+            @Override
+            public void run() {
+                compact();
+            }
+        };
+        Timer timer = new Timer(true);
+        timer.schedule(syncTask, SYNC_FREQ, SYNC_FREQ);
+        timer.schedule(compactionTask, COMPACTION_FREQ, COMPACTION_FREQ);
+    }
+
+    public static RequestJournal getInstance() {
+        if (INSTANCE == null)
+            INSTANCE = new RequestJournal(Paths.get(DEFAULT_JOURNAL_FILE_NAME));
+        return INSTANCE;
+    }
+
+    /**
+     * Reads the journal and opens it for appending. Has to be called once, before anything is recorded.
+     *
+     * @return the requests which weren't closed, in the order they were accepted
+     * @throws IOException if the journal can't be read or opened
+     */
+    public synchronized List<RecoveredRequest> replay() throws IOException {
+        final Map<String, RecoveredRequest> recoveredRequests = new LinkedHashMap<>();
+        final long validLength = readRecords(Files.exists(journalPath) ? Files.size(journalPath) : 0, (record, bytes) -> {
+            if (record instanceof AcceptedRecord) {
+                recoveredRequests.put(record.getRequestID(), new RecoveredRequest((AcceptedRecord) record));
+            } else if (record instanceof PartialRecord) {
+                final RecoveredRequest recoveredRequest = recoveredRequests.get(record.getRequestID());
+                if (recoveredRequest != null)
+                    recoveredRequest.partialResults.add(((PartialRecord) record).partialResult);
+            } else if (record instanceof ClosedRecord) {
+                recoveredRequests.remove(record.getRequestID());
+                closedRequestIDs.add(record.getRequestID());
+            }
+        });
+        openRequestIDs.addAll(recoveredRequests.keySet());
+        openForAppending(validLength);
+        if (!recoveredRequests.isEmpty())
+            Log.log("Recovered " + recoveredRequests.size() + " open request(s) from the request journal.", LogLevel.INFO);
+        return new ArrayList<>(recoveredRequests.values());
+    }
+
+    public synchronized void recordAccepted(IClientRequest request, String replyTo, String correlationID) {
+        openRequestIDs.add(request.getRequestID());
+        append(new AcceptedRecord(request, replyTo, correlationID));
+    }
+
+    /**
+     * Partials of requests which are not open are not recorded.
+     */
+    public synchronized void recordPartialResult(IPartialResult partialResult) {
+        if (openRequestIDs.contains(partialResult.getIdentifier().getRequestID()))
+            append(new PartialRecord(partialResult));
+    }
+
+    /**
+     * Closes the request once its result is published, so a crash before that resumes it.
+     */
+    public void recordResultPublished(String requestID) {
+        recordClosed(requestID);
+    }
+
+    private synchronized void recordClosed(String requestID) {
+        if (openRequestIDs.remove(requestID)) {
+            append(new ClosedRecord(requestID));
+            closedRequestIDs.add(requestID);
+        }
+    }
+
+    private void append(JournalRecord record) {
+        if (journalStream == null)
+            return;
+        try {
+            writeRecord(journalStream, record);
+            journalStream.flush();
+        } catch (IOException e) {
+            Log.log("Failed to append to the request journal", e);
+        }
+    }
+
+    private synchronized void sync() {
+        if (journalChannel == null)
+            return;
+        try {
+            journalChannel.force(false);
+        } catch (IOException e) {
+            Log.log("Failed to sync the request journal", e);
+        }
+    }
+
+    /**
+     * Rewrites the journal without the records of closed requests. The records up to the current end of the journal
+     * are rewritten without holding the journal, so recording isn't stalled; only the records appended meanwhile are
+     * copied while holding it. The rewritten journal replaces the old one atomically, so a crash leaves either of both.
+     */
+    //Package-private for the tests
+    void compact() {
+        final long compactedLength;
+        final Set<String> compactedRequestIDs;
+        synchronized (this) {
+            if (journalStream == null || closedRequestIDs.isEmpty())
+                return;
+            try {
+                journalStream.flush();
+                compactedLength = journalChannel.size();
+            } catch (IOException e) {
+                Log.log("Failed to compact the request journal", e);
+                return;
+            }
+            compactedRequestIDs = new HashSet<>(closedRequestIDs);
+        }
+        final Path compactedPath = journalPath.resolveSibling(journalPath.getFileName() + ".compacting");
+        try (DataOutputStream compactedStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(compactedPath.toFile())))) {
+            //Records that can't be read are kept, a build which can read them may still replay them
+            readRecords(compactedLength, (record, bytes) -> {
+                if (record == null || !compactedRequestIDs.contains(record.getRequestID()))
+                    writeRecord(compactedStream, bytes);
+            });
+        } catch (IOException e) {
+            Log.log("Failed to compact the request journal", e);
+            return;
+        }
+        replaceWithCompacted(compactedPath, compactedLength, compactedRequestIDs);
+    }
+
+    /**
+     * Appends the records written after compactedLength to the compacted journal and replaces the journal by it.
+     */
+    private synchronized void replaceWithCompacted(Path compactedPath, long compactedLength, Set<String> compactedRequestIDs) {
+        if (journalStream == null)
+            return;
+        try {
+            journalStream.close();
+            try (FileChannel compactedChannel = FileChannel.open(compactedPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                 FileChannel appendedChannel = FileChannel.open(journalPath, StandardOpenOption.READ)) {
+                final long journalLength = appendedChannel.size();
+                long position = compactedLength;
+                while (position < journalLength)
+                    position += appendedChannel.transferTo(position, journalLength - position, compactedChannel);
+                compactedChannel.force(false);
+            }
+            Files.move(compactedPath, journalPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            //Requests closed while compacting are dropped by the next compaction
+            closedRequestIDs.removeAll(compactedRequestIDs);
+            Log.log("Compacted the request journal, dropped " + compactedRequestIDs.size() + " closed request(s).", LogLevel.LOW);
+        } catch (IOException e) {
+            Log.log("Failed to compact the request journal", e);
+        } finally {
+            try {
+                openForAppending(Files.size(journalPath));
+            } catch (IOException e) {
+                journalStream = null;
+                journalChannel = null;
+                Log.log("Failed to reopen the request journal, journaling disabled", e);
+            }
+        }
+    }
+
+    private void openForAppending(long validLength) throws IOException {
+        final FileOutputStream fileStream = new FileOutputStream(journalPath.toFile(), true);
+        journalChannel = fileStream.getChannel();
+        //Cut off a record torn by a crash
+        if (journalChannel.size() > validLength)
+            journalChannel.truncate(validLength);
+        journalStream = new DataOutputStream(new BufferedOutputStream(fileStream));
+    }
+
+    private interface RecordConsumer {
+        /**
+         * @param record the record or null, if it can't be deserialized, e.g. because another build wrote it
+         * @param bytes  the serialized record
+         */
+        void accept(JournalRecord record, byte[] bytes) throws IOException;
+    }
+
+    /**
+     * Passes all complete records of the journal to the consumer. A record that can't be deserialized is skipped by
+     * its length, only an incomplete record ends the journal.
+     *
+     * @param journalLength the length of the journal to read, records appended beyond are ignored
+     * @return the length of the journal up to the end of the last complete record
+     */
+    private long readRecords(long journalLength, RecordConsumer consumer) throws IOException {
+        if (!Files.exists(journalPath))
+            return 0;
+        long validLength = 0;
+        int unreadableRecords = 0;
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(journalPath)))) {
+            while (true) {
+                final byte[] bytes;
+                try {
+                    final int recordLength = inputStream.readInt();
+                    if (recordLength < 0 || validLength + Integer.BYTES + recordLength > journalLength)
+                        break;
+                    bytes = new byte[recordLength];
+                    inputStream.readFully(bytes);
+                } catch (EOFException e) {
+                    break;
+                }
+                JournalRecord record;
+                try {
+                    record = SerializationUtils.deserialize(bytes);
+                } catch (SerializationException | ClassCastException e) {
+                    record = null;
+                    unreadableRecords++;
+                }
+                consumer.accept(record, bytes);
+                validLength += Integer.BYTES + bytes.length;
+            }
+        }
+        if (unreadableRecords > 0)
+            Log.log("Skipped " + unreadableRecords + " record(s) of the request journal which couldn't be read.", LogLevel.WARNING);
+        return validLength;
+    }
+
+    private static void writeRecord(DataOutputStream outputStream, JournalRecord record) throws IOException {
+        writeRecord(outputStream, SerializationUtils.serialize(record));
+    }
+
+    private static void writeRecord(DataOutputStream outputStream, byte[] bytes) throws IOException {
+        outputStream.writeInt(bytes.length);
+        outputStream.write(bytes);
+    }
+
+    @Override
+    public void notify(IEvent toNotify) {
+        if (toNotify instanceof RequestStoppedEvent) {
+            recordClosed(((RequestStoppedEvent) toNotify).getStoppedRequestID());
+        } else if (toNotify instanceof RequestExpiredEvent) {
+            recordClosed(((RequestExpiredEvent) toNotify).getRequestID());
+        }
+    }
+
+    @Override
+    public Set<Class<? extends IEvent>> getEvents() {
+        Set<Class<? extends IEvent>> events = new HashSet<>();
+        events.addAll(Arrays.asList(RequestStoppedEvent.class, RequestExpiredEvent.class));
+        return events;
+    }
+}
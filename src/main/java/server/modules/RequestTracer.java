@@ -0,0 +1,291 @@
+package server.modules;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+import global.identifiers.MessageHeaders;
+import global.logging.Log;
+import global.logging.LogLevel;
+import global.model.IPartialResult;
+import global.util.FileUtils;
+import server.events.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * @author daan
+ *         <p>
+ *         Singleton class with lazy init
+ *         Breaks the time a request takes down into the hops it passes. Client, TaskDispatcher and MicroServices
+ *         stamp the time of each hop into the headers of their messages, the MicroService copies the stamps of the
+ *         task into those of its partials. The server adds the times it accepted the request, received each partial
+ *         and published the result.
+ *         <p>
+ *         Per request the mean and max. duration of every stage is kept along with the slowest partials and the
+ *         services that converted them. The stamps come from the clocks of different machines, so stages between
+ *         two machines are only as exact as their clocks are in sync. Negative durations are counted as 0.
+ *         <p>
+ *         The traces of the last FINISHED_TRACE_COUNT requests are kept after their result was published.
+ */
+public class RequestTracer implements IEventListener {
+
+    private static RequestTracer INSTANCE;
+    private final static int FINISHED_TRACE_COUNT = 100;
+    private final static int SLOWEST_PARTIAL_COUNT = 5;
+    private final static String DEFAULT_DUMP_FILE_NAME = "requesttraces.txt";
+
+    private final ConcurrentMap<String, RequestTrace> activeTraces = new ConcurrentHashMap<>();
+    //The oldest first. Guarded by itself.
+    private final Deque<RequestTrace> finishedTraces = new ArrayDeque<>();
+
+    private enum Stage {
+        CLIENT_TO_SERVER("client send -> server accept"),
+        DISPATCHER("server accept -> task publish"),
+        BROKER_QUEUE("task publish -> service dequeue"),
+        SERVICE_PREPARE("service dequeue -> pandoc start"),
+        PANDOC("pandoc start -> pandoc end"),
+        SERVICE_PUBLISH("pandoc end -> partial publish"),
+        RETURN("partial publish -> collector receive"),
+        ASSEMBLE("last partial received -> result publish");
+
+        private final String description;
+
+        Stage(String description) {
+            this.description = description;
+        }
+    }
+
+    /**
+     * A partial with the durations of its stages in ms and the service which converted it.
+     */
+    private static final class TracedPartial {
+        private final String identifier, serviceID;
+        //From the task publish until the partial was received
+        private final long totalMillis;
+        private final long[] stageMillis;
+
+        private TracedPartial(String identifier, String serviceID, long totalMillis, long[] stageMillis) {
+            this.identifier = identifier;
+            this.serviceID = serviceID;
+            this.totalMillis = totalMillis;
+            this.stageMillis = stageMillis;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder description = new StringBuilder(totalMillis + " ms : " + identifier + ", service " + serviceID + " (");
+            for (Stage stage : Stage.values()) {
+                if (stageMillis[stage.ordinal()] >= 0 && stage != Stage.CLIENT_TO_SERVER && stage != Stage.ASSEMBLE)
+                    description.append(stage.name().toLowerCase()).append(' ').append(stageMillis[stage.ordinal()]).append(" ms, ");
+            }
+            return description.substring(0, description.length() - 2) + ")";
+        }
+    }
+
+    /**
+     * Everything traced of one request. Access has to be synchronized on the instance.
+     */
+    private static final class RequestTrace {
+        private final String requestID;
+        private final long clientSendTime, acceptTime;
+        private long lastReceiveTime = -1, resultPublishTime = -1;
+        private int partialCount = 0;
+        private final long[] stageTotalMillis = new long[Stage.values().length];
+        private final long[] stageMaximumMillis = new long[Stage.values().length];
+        private final int[] stageCount = new int[Stage.values().length];
+        //The fastest of the slowest partials first
+        private final PriorityQueue<TracedPartial> slowestPartials = new PriorityQueue<>(Comparator.comparingLong(partial -> partial.totalMillis));
+
+        private RequestTrace(String requestID, long clientSendTime, long acceptTime) {
+            this.requestID = requestID;
+            this.clientSendTime = clientSendTime;
+            this.acceptTime = acceptTime;
+            if (clientSendTime >= 0)
+                record(Stage.CLIENT_TO_SERVER, acceptTime - clientSendTime);
+        }
+
+        private void record(Stage stage, long millis) {
+            final long duration = Math.max(millis, 0);
+            stageTotalMillis[stage.ordinal()] += duration;
+            stageMaximumMillis[stage.ordinal()] = Math.max(stageMaximumMillis[stage.ordinal()], duration);
+            stageCount[stage.ordinal()]++;
+        }
+
+        private void recordPartial(IPartialResult partialResult, Map<String, Object> headers, long receiveTime) {
+            partialCount++;
+            lastReceiveTime = Math.max(lastReceiveTime, receiveTime);
+            //The hops in the order they are passed, -1 for those without stamp
+            final long[] hops = {acceptTime, getTime(headers, MessageHeaders.DISPATCH_TIME), getTime(headers, MessageHeaders.DEQUEUE_TIME),
+                    getTime(headers, MessageHeaders.PANDOC_START_TIME), getTime(headers, MessageHeaders.PANDOC_END_TIME),
+                    getTime(headers, MessageHeaders.PARTIAL_PUBLISH_TIME), receiveTime};
+            final long[] stageMillis = new long[Stage.values().length];
+            Arrays.fill(stageMillis, -1);
+            for (int hop = 1; hop < hops.length; hop++) {
+                if (hops[hop - 1] < 0 || hops[hop] < 0)
+                    continue;
+                final Stage stage = Stage.values()[Stage.DISPATCHER.ordinal() + hop - 1];
+                stageMillis[stage.ordinal()] = Math.max(hops[hop] - hops[hop - 1], 0);
+                record(stage, stageMillis[stage.ordinal()]);
+            }
+            final long dispatchTime = hops[1] < 0 ? acceptTime : hops[1];
+            final Object serviceID = headers == null ? null : headers.get(MessageHeaders.SERVICE_ID.toString());
+            slowestPartials.add(new TracedPartial(partialResult.getIdentifier().toString(),
+                    serviceID == null ? "unknown" : serviceID.toString(), Math.max(receiveTime - dispatchTime, 0), stageMillis));
+            if (slowestPartials.size() > SLOWEST_PARTIAL_COUNT)
+                slowestPartials.poll();
+        }
+
+        private void recordResultPublished(long publishTime) {
+            resultPublishTime = publishTime;
+            if (lastReceiveTime >= 0)
+                record(Stage.ASSEMBLE, publishTime - lastReceiveTime);
+        }
+
+        @Override
+        public String toString() {
+            final long start = clientSendTime >= 0 ? clientSendTime : acceptTime;
+            final StringBuilder description = new StringBuilder("Request " + requestID + " : ");
+            if (resultPublishTime >= 0)
+                description.append("finished in ").append(Math.max(resultPublishTime - start, 0)).append(" ms");
+            else
+                description.append("in flight for ").append(Math.max(System.currentTimeMillis() - start, 0)).append(" ms");
+            description.append(", ").append(partialCount).append(" partials traced\n");
+            for (Stage stage : Stage.values()) {
+                final int count = stageCount[stage.ordinal()];
+                if (count > 0)
+                    description.append(String.format("  %-40s mean %8d ms, max. %8d ms%n", stage.description,
+                            stageTotalMillis[stage.ordinal()] / count, stageMaximumMillis[stage.ordinal()]));
+            }
+            if (!slowestPartials.isEmpty()) {
+                description.append("  Slowest partials :\n");
+                final List<TracedPartial> slowest = new ArrayList<>(slowestPartials);
+                slowest.sort(Comparator.comparingLong((TracedPartial partial) -> partial.totalMillis).reversed());
+                slowest.forEach(partial -> description.append("    ").append(partial).append('\n'));
+            }
+            return description.toString();
+        }
+    }
+
+    private RequestTracer() {
+        EventManager.getInstance().registerListener(this);
+    }
+
+    public static RequestTracer getInstance() {
+        if (INSTANCE == null)
+            INSTANCE = new RequestTracer();
+        return INSTANCE;
+    }
+
+    /**
+     * Starts the trace of an accepted request.
+     *
+     * @param basicProperties the properties the request was delivered with
+     */
+    public void recordAccepted(String requestID, BasicProperties basicProperties) {
+        final long clientSendTime = getTime(basicProperties.getHeaders(), MessageHeaders.CLIENT_SEND_TIME);
+        activeTraces.put(requestID, new RequestTrace(requestID, clientSendTime, System.currentTimeMillis()));
+    }
+
+    /**
+     * Adds the hops of a received partial to the trace of its request.
+     *
+     * @param basicProperties the properties the partial was delivered with
+     */
+    public void recordPartialResult(IPartialResult partialResult, BasicProperties basicProperties) {
+        final RequestTrace trace = activeTraces.get(partialResult.getIdentifier().getRequestID());
+        if (trace == null)
+            return;
+        final long receiveTime = System.currentTimeMillis();
+        synchronized (trace) {
+            trace.recordPartial(partialResult, basicProperties.getHeaders(), receiveTime);
+        }
+    }
+
+    /**
+     * Finishes the trace of the request, once its result is published.
+     */
+    public void recordResultPublished(String requestID) {
+        final RequestTrace trace = activeTraces.remove(requestID);
+        if (trace == null)
+            return;
+        synchronized (trace) {
+            trace.recordResultPublished(System.currentTimeMillis());
+            if (Log.isLoggable(LogLevel.LOW))
+                Log.log(trace.toString(), LogLevel.LOW);
+        }
+        synchronized (finishedTraces) {
+            finishedTraces.addLast(trace);
+            if (finishedTraces.size() > FINISHED_TRACE_COUNT)
+                finishedTraces.removeFirst();
+        }
+    }
+
+    /**
+     * @return the latency breakdown of the request, null if it isn't traced (anymore)
+     */
+    public String getTrace(String requestID) {
+        RequestTrace trace = activeTraces.get(requestID);
+        if (trace == null) {
+            synchronized (finishedTraces) {
+                trace = finishedTraces.stream().filter(finished -> finished.requestID.equals(requestID)).findFirst().orElse(null);
+            }
+        }
+        if (trace == null)
+            return null;
+        synchronized (trace) {
+            return trace.toString();
+        }
+    }
+
+    /**
+     * @return the latency breakdowns of the requests in flight and the recently finished ones
+     */
+    public List<String> getTraces() {
+        final List<RequestTrace> traces = new ArrayList<>();
+        synchronized (finishedTraces) {
+            traces.addAll(finishedTraces);
+        }
+        traces.addAll(activeTraces.values());
+        final List<String> descriptions = new ArrayList<>();
+        for (RequestTrace trace : traces) {
+            synchronized (trace) {
+                descriptions.add(trace.toString());
+            }
+        }
+        return descriptions;
+    }
+
+    /**
+     * Writes all traces to the file, replacing its content.
+     */
+    public void dumpTraces(Path file) throws IOException {
+        FileUtils.writeString(file, String.join("\n", getTraces()));
+    }
+
+    public Path getDefaultDumpFile() {
+        return Paths.get(DEFAULT_DUMP_FILE_NAME);
+    }
+
+    private static long getTime(Map<String, Object> headers, MessageHeaders header) {
+        if (headers == null)
+            return -1;
+        final Object time = headers.get(header.toString());
+        return time instanceof Long ? (Long) time : -1;
+    }
+
+    @Override
+    public void notify(IEvent toNotify) {
+        if (toNotify instanceof RequestStoppedEvent)
+            activeTraces.remove(((RequestStoppedEvent) toNotify).getStoppedRequestID());
+        else if (toNotify instanceof RequestExpiredEvent)
+            activeTraces.remove(((RequestExpiredEvent) toNotify).getRequestID());
+    }
+
+    @Override
+    public Set<Class<? extends IEvent>> getEvents() {
+        return new HashSet<>(Arrays.asList(RequestStoppedEvent.class, RequestExpiredEvent.class));
+    }
+}
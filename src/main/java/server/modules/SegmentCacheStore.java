@@ -0,0 +1,354 @@
+package server.modules;
+
+import global.logging.Log;
+import global.logging.LogLevel;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * @author daan
+ *         <p>
+ *         Disk-backed key value store used by the RenderedEntryCache. Records are appended to segment files of at
+ *         most MAXIMUM_SEGMENT_SIZE bytes and read by positional reads of their channels. Segments aren't memory
+ *         mapped, as a mapping lives until it is garbage collected and keeps a compacted segment from being deleted
+ *         on Windows. The in-memory index maps each key to the segment and offset of its record and is kept in least
+ *         recently used order; once the live records exceed the size cap the least recently used ones are evicted.
+ *         Segments whose live share drops below COMPACTION_THRESHOLD are compacted by copying their live records to
+ *         the active segment.
+ *         <p>
+ *         Evictions are appended as tombstones, records with the key only. On opening, the index is rebuilt by
+ *         scanning the segments, so evicted records stay evicted and the order of the writes becomes the least
+ *         recently used order. Each record is guarded by a checksum, a record torn by a crash ends the scan of its
+ *         segment. Not thread-safe.
+ */
+class SegmentCacheStore {
+
+    private final static String SEGMENT_FILE_PREFIX = "segment-";
+    private final static String SEGMENT_FILE_SUFFIX = ".dat";
+    private final static long MAXIMUM_SEGMENT_SIZE = 16L * 1024 * 1024;
+    //Sealed segments with less than this share of live records are compacted
+    private final static double COMPACTION_THRESHOLD = 0.5;
+    //Key length, value length and checksum
+    private final static int RECORD_HEADER_SIZE = 3 * Integer.BYTES;
+    //Value length of a record marking its key as evicted
+    private final static int TOMBSTONE = -1;
+
+    private final Path directory;
+    private final long maximumSize, maximumSegmentSize;
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private Segment activeSegment;
+    //Iterates least recently used first
+    private final LinkedHashMap<String, Location> index = new LinkedHashMap<>(16, 0.75f, true);
+    private long liveSize = 0;
+    private long evictions = 0;
+
+    private static final class Segment {
+        private final int number;
+        private final Path path;
+        private final FileChannel channel;
+        private long size, liveSize;
+
+        private Segment(int number, Path path) throws IOException {
+            this.number = number;
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.size = channel.size();
+        }
+
+        /**
+         * @return a buffer with the length bytes at offset
+         */
+        private ByteBuffer read(long offset, int length) throws IOException {
+            final ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0)
+                    throw new EOFException("Cache segment " + path + " ends before offset " + (offset + length));
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        private void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static final class Location {
+        private final Segment segment;
+        private final long offset;
+        private final int keyLength, valueLength;
+
+        private Location(Segment segment, long offset, int keyLength, int valueLength) {
+            this.segment = segment;
+            this.offset = offset;
+            this.keyLength = keyLength;
+            this.valueLength = valueLength;
+        }
+
+        private int getRecordSize() {
+            return RECORD_HEADER_SIZE + keyLength + valueLength;
+        }
+    }
+
+    /**
+     * Visits the records of a segment in the order of the file.
+     */
+    private interface RecordVisitor {
+        /**
+         * @param valueLength the length of the value or TOMBSTONE
+         */
+        void visit(String key, long offset, int keyLength, int valueLength);
+    }
+
+    /**
+     * Opens the store in the directory and rebuilds its index.
+     *
+     * @param directory   the directory of the segment files, created if it doesn't exist
+     * @param maximumSize the max. size of the live records in bytes
+     * @throws IOException if the directory or a segment can't be read
+     */
+    SegmentCacheStore(Path directory, long maximumSize) throws IOException {
+        this(directory, maximumSize, MAXIMUM_SEGMENT_SIZE);
+    }
+
+    //Package-private for the tests
+    SegmentCacheStore(Path directory, long maximumSize, long maximumSegmentSize) throws IOException {
+        this.directory = directory;
+        this.maximumSize = maximumSize;
+        this.maximumSegmentSize = maximumSegmentSize;
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> segmentPaths = Files.newDirectoryStream(directory, SEGMENT_FILE_PREFIX + "*" + SEGMENT_FILE_SUFFIX)) {
+            for (Path segmentPath : segmentPaths) {
+                final String fileName = segmentPath.getFileName().toString();
+                final int number = Integer.parseInt(fileName.substring(SEGMENT_FILE_PREFIX.length(), fileName.length() - SEGMENT_FILE_SUFFIX.length()));
+                segments.put(number, new Segment(number, segmentPath));
+            }
+        }
+        for (Segment segment : segments.values())
+            scan(segment);
+        if (segments.isEmpty() || segments.lastEntry().getValue().size >= maximumSegmentSize)
+            rollSegment();
+        else
+            activeSegment = segments.lastEntry().getValue();
+        //Only if the cap was lowered since the last run
+        evictLeastRecentlyUsed();
+    }
+
+    /**
+     * Adds the records of the segment to the index and removes the keys of its tombstones, records of later
+     * segments replace those of earlier ones.
+     */
+    private void scan(Segment segment) throws IOException {
+        final long end = readRecords(segment, (key, offset, keyLength, valueLength) -> {
+            if (valueLength == TOMBSTONE)
+                remove(key);
+            else
+                putLocation(key, new Location(segment, offset, keyLength, valueLength));
+        });
+        if (end < segment.size) {
+            Log.log("Cut off a torn record from cache segment " + segment.path, LogLevel.WARNING);
+            segment.channel.truncate(end);
+            segment.size = end;
+        }
+    }
+
+    /**
+     * Passes the records of the segment to the visitor, up to the first torn one.
+     *
+     * @return the offset after the last intact record
+     */
+    private static long readRecords(Segment segment, RecordVisitor visitor) throws IOException {
+        long offset = 0;
+        while (offset + RECORD_HEADER_SIZE <= segment.size) {
+            final ByteBuffer header = segment.read(offset, RECORD_HEADER_SIZE);
+            final int keyLength = header.getInt(), valueLength = header.getInt(), checksum = header.getInt();
+            final int bodyLength = keyLength + Math.max(valueLength, 0);
+            if (keyLength <= 0 || valueLength < TOMBSTONE || offset + RECORD_HEADER_SIZE + bodyLength > segment.size)
+                break;
+            final ByteBuffer body = segment.read(offset + RECORD_HEADER_SIZE, bodyLength);
+            if (checksum(body.duplicate()) != checksum)
+                break;
+            final byte[] key = new byte[keyLength];
+            body.get(key);
+            visitor.visit(new String(key, StandardCharsets.UTF_8), offset, keyLength, valueLength);
+            offset += RECORD_HEADER_SIZE + bodyLength;
+        }
+        return offset;
+    }
+
+    /**
+     * @return the value of the key or null, if it isn't stored
+     */
+    String get(String key) throws IOException {
+        final Location location = index.get(key);
+        if (location == null)
+            return null;
+        final ByteBuffer value = location.segment.read(location.offset + RECORD_HEADER_SIZE + location.keyLength, location.valueLength);
+        return StandardCharsets.UTF_8.decode(value).toString();
+    }
+
+    void put(String key, String value) throws IOException {
+        putLocation(key, append(key.getBytes(StandardCharsets.UTF_8), value.getBytes(StandardCharsets.UTF_8)));
+        evictLeastRecentlyUsed();
+    }
+
+    /**
+     * @param value the value or null, to append a tombstone of the key
+     */
+    private Location append(byte[] key, byte[] value) throws IOException {
+        if (activeSegment.size >= maximumSegmentSize)
+            rollSegment();
+        final int valueLength = value == null ? TOMBSTONE : value.length;
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + key.length + Math.max(valueLength, 0));
+        record.putInt(key.length).putInt(valueLength).putInt(0).put(key);
+        if (value != null)
+            record.put(value);
+        record.position(RECORD_HEADER_SIZE);
+        record.putInt(2 * Integer.BYTES, checksum(record.slice()));
+        record.rewind();
+        final long offset = activeSegment.size;
+        while (record.hasRemaining())
+            activeSegment.channel.write(record, offset + record.position());
+        activeSegment.size += record.capacity();
+        return new Location(activeSegment, offset, key.length, valueLength);
+    }
+
+    private void putLocation(String key, Location location) {
+        final Location previousLocation = index.put(key, location);
+        if (previousLocation != null)
+            release(previousLocation);
+        location.segment.liveSize += location.getRecordSize();
+        liveSize += location.getRecordSize();
+    }
+
+    private void remove(String key) {
+        final Location location = index.remove(key);
+        if (location != null)
+            release(location);
+    }
+
+    private void release(Location location) {
+        location.segment.liveSize -= location.getRecordSize();
+        liveSize -= location.getRecordSize();
+    }
+
+    /**
+     * Evicts the least recently used records beyond the size cap and appends their tombstones, so they stay evicted
+     * when the store is reopened.
+     */
+    private void evictLeastRecentlyUsed() throws IOException {
+        final List<String> evictedKeys = new ArrayList<>();
+        final Iterator<Map.Entry<String, Location>> leastRecentlyUsed = index.entrySet().iterator();
+        while (liveSize > maximumSize && leastRecentlyUsed.hasNext()) {
+            final Map.Entry<String, Location> indexEntry = leastRecentlyUsed.next();
+            release(indexEntry.getValue());
+            leastRecentlyUsed.remove();
+            evictedKeys.add(indexEntry.getKey());
+            evictions++;
+        }
+        for (String evictedKey : evictedKeys)
+            append(evictedKey.getBytes(StandardCharsets.UTF_8), null);
+    }
+
+    private void rollSegment() throws IOException {
+        final int number = segments.isEmpty() ? 0 : segments.lastKey() + 1;
+        activeSegment = new Segment(number, directory.resolve(String.format("%s%08d%s", SEGMENT_FILE_PREFIX, number, SEGMENT_FILE_SUFFIX)));
+        segments.put(number, activeSegment);
+    }
+
+    /**
+     * Copies the live records of sealed segments below COMPACTION_THRESHOLD to the active segment and deletes
+     * those segments. Their tombstones are copied as well, as long as an earlier segment may still hold a record of
+     * the key.
+     *
+     * @return the # of deleted segments
+     */
+    int compact() throws IOException {
+        final List<Segment> toCompact = new ArrayList<>();
+        for (Segment segment : segments.values())
+            if (segment != activeSegment && segment.liveSize < segment.size * COMPACTION_THRESHOLD)
+                toCompact.add(segment);
+        if (toCompact.isEmpty())
+            return 0;
+        for (Map.Entry<String, Location> indexEntry : index.entrySet()) {
+            final Location location = indexEntry.getValue();
+            if (!toCompact.contains(location.segment))
+                continue;
+            final ByteBuffer body = location.segment.read(location.offset + RECORD_HEADER_SIZE, location.keyLength + location.valueLength);
+            final byte[] key = new byte[location.keyLength], value = new byte[location.valueLength];
+            body.get(key).get(value);
+            final Location movedLocation = append(key, value);
+            //Doesn't change the order of the index
+            indexEntry.setValue(movedLocation);
+            release(location);
+            movedLocation.segment.liveSize += movedLocation.getRecordSize();
+            liveSize += movedLocation.getRecordSize();
+        }
+        for (Segment segment : toCompact) {
+            final boolean earlierSegmentRemains = segments.headMap(segment.number).values().stream()
+                    .anyMatch(earlierSegment -> !toCompact.contains(earlierSegment));
+            if (earlierSegmentRemains)
+                copyTombstones(segment);
+        }
+        for (Segment segment : toCompact) {
+            segments.remove(segment.number);
+            segment.close();
+            Files.deleteIfExists(segment.path);
+        }
+        return toCompact.size();
+    }
+
+    /**
+     * Appends the tombstones of the segment whose keys weren't stored again since.
+     */
+    private void copyTombstones(Segment segment) throws IOException {
+        final List<String> tombstoneKeys = new ArrayList<>();
+        readRecords(segment, (key, offset, keyLength, valueLength) -> {
+            if (valueLength == TOMBSTONE && !index.containsKey(key))
+                tombstoneKeys.add(key);
+        });
+        for (String key : tombstoneKeys)
+            append(key.getBytes(StandardCharsets.UTF_8), null);
+    }
+
+    private static int checksum(ByteBuffer buffer) {
+        final CRC32 crc = new CRC32();
+        crc.update(buffer);
+        return (int) crc.getValue();
+    }
+
+    int getEntryCount() {
+        return index.size();
+    }
+
+    long getLiveSize() {
+        return liveSize;
+    }
+
+    long getDiskSize() {
+        return segments.values().stream().mapToLong(segment -> segment.size).sum();
+    }
+
+    long getMaximumSize() {
+        return maximumSize;
+    }
+
+    long getEvictions() {
+        return evictions;
+    }
+
+    void close() throws IOException {
+        for (Segment segment : segments.values())
+            segment.close();
+    }
+}
@@ -6,6 +6,9 @@ import global.controller.IConnectionPoint;
 import global.identifiers.QueueNames;
 import global.logging.Log;
 import global.logging.LogLevel;
+import global.metrics.LatencyHistogram;
+import global.metrics.Metrics;
+import global.metrics.MetricsEndpoint;
 import global.model.*;
 import global.util.ConnectionUtils;
 import global.util.FileUtils;
@@ -17,6 +20,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeoutException;
 
 /**
@@ -29,17 +33,21 @@ public class Server implements IConnectionPoint, Runnable, Consumer, IEventListe
     private final static String CLIENT_REQUEST_QUEUE_NAME = QueueNames.CLIENT_REQUEST_QUEUE_NAME.toString();
     private final static String TASK_QUEUE_NAME = QueueNames.TASK_QUEUE_NAME.toString();
     private final static String REGISTRATION_QUEUE_NAME = QueueNames.MICROSERVICE_REGISTRATION_QUEUE_NAME.toString();
+    private final static String HEARTBEAT_QUEUE_NAME = QueueNames.MICROSERVICE_HEARTBEAT_QUEUE_NAME.toString();
     private final static String STOP_EXCHANGE_NAME = QueueNames.STOP_EXCHANGE_NAME.toString();
     private final static String CLIENT_CALLBACK_EXCHANGE_NAME = QueueNames.CLIENT_CALLBACK_EXCHANGE_NAME.toString();
     private final static int PER_CONSUMER_LIMIT = MicroServiceManager.MAXIMUM_UTILIZATION;
     private final static String DEFAULT_BLACKLIST_FILE_NAME = "blacklist.txt";
     private final static String VALID_CLIENT_SECRET_KEYS_FILE_NAME = "secretkeys.txt";
+    private final static LatencyHistogram DESERIALIZE_LATENCY = Metrics.histogram("server.deserialize");
+    private final static LatencyHistogram SERIALIZE_RESULT_LATENCY = Metrics.histogram("server.serializeResult");
 
     private final String serverID, hostIP, callbackQueueName;
     private final Connection connection;
     private final Channel channel;
     private final BasicProperties replyProps;
-    private HashMap<String, CallbackInformation> clientIDtoCallbackInformation = new HashMap<>();
+    //Key : request ID | Value : where to send its result, a client may have many requests in flight
+    private final Map<String, CallbackInformation> requestIDtoCallbackInformation = new ConcurrentHashMap<>();
     private Collection<String> blacklistedClients = new ArrayList<>();
     private Collection<String> validSecretKeys = new ArrayList<>();
 
@@ -81,8 +89,15 @@ public class Server implements IConnectionPoint, Runnable, Consumer, IEventListe
 
         //Initialize modules
         MicroServiceManager.initialize(channel, TASK_QUEUE_NAME);
+        TaskDispatcher.initialize(connection.createChannel(), TASK_QUEUE_NAME, replyProps);
         PartialResultCollector.getInstance();
-        EventManager.getInstance().registerListener(this);
+        RenderedEntryCache.getInstance();
+        RequestTracer.getInstance();
+        //Replying to clients and writing the blacklist mustn't hold up the threads publishing the events
+        EventManager.getInstance().registerAsyncListener(this);
+        Metrics.registerGauge("server.requestsInFlight", requestIDtoCallbackInformation::size);
+        Metrics.registerGauge("server.queuedEvents", EventManager.getInstance()::getQueuedEventCount);
+        MetricsEndpoint.startIfConfigured();
         initConnectionPoint();
     }
 
@@ -100,6 +115,7 @@ public class Server implements IConnectionPoint, Runnable, Consumer, IEventListe
         channel.basicConsume(CLIENT_REQUEST_QUEUE_NAME, true, this);
         channel.basicConsume(callbackQueueName, true, this);
         channel.basicConsume(REGISTRATION_QUEUE_NAME, true, this);
+        channel.basicConsume(HEARTBEAT_QUEUE_NAME, true, this);
     }
 
     /**
@@ -110,9 +126,10 @@ public class Server implements IConnectionPoint, Runnable, Consumer, IEventListe
      * @param toNotify The event that was registered.
      */
     private void handleRequestStoppedEvent(RequestStoppedEvent toNotify) {
-        String toStopClientID = toNotify.getStoppedRequestClientID();
-        //TODO remove queued entries, tell PRC to disregard all associated orders
-        CallbackInformation clientCBI = clientIDtoCallbackInformation.get(toStopClientID);
+        String toStopRequestID = toNotify.getStoppedRequestID();
+        CallbackInformation clientCBI = requestIDtoCallbackInformation.remove(toStopRequestID);
+        if (clientCBI == null)
+            return;
         try {
             channel.basicPublish("", clientCBI.basicProperties.getReplyTo(), clientCBI.replyProperties, SerializationUtils.serialize("Server Admin forcefully stopped your Request."));
         } catch (IOException e) {
@@ -121,6 +138,24 @@ public class Server implements IConnectionPoint, Runnable, Consumer, IEventListe
         }
     }
 
+    /**
+     * The action to take when a RequestExpiredEvent is registered.
+     *
+     * @param toNotify The event that was registered.
+     */
+    private void handleRequestExpiredEvent(RequestExpiredEvent toNotify) {
+        String expiredRequestID = toNotify.getRequestID();
+        CallbackInformation clientCBI = requestIDtoCallbackInformation.remove(expiredRequestID);
+        if (clientCBI == null)
+            return;
+        try {
+            channel.basicPublish("", clientCBI.basicProperties.getReplyTo(), clientCBI.replyProperties, SerializationUtils.serialize("Your Request passed its deadline before it was finished. Conversion aborted."));
+        } catch (IOException e) {
+            Log.log("COULD NOT RETURN RESULT TO CLIENT", LogLevel.SEVERE);
+            Log.log("", e);
+        }
+    }
+
     /**
      * The action to take when a FinishedCollectingResultEvent is registered.
      * <p>
@@ -129,13 +164,26 @@ public class Server implements IConnectionPoint, Runnable, Consumer, IEventListe
      * @param toNotify The event that was registered.
      */
     private void handleFinishedCollectingResultEvent(FinishedCollectingResultEvent toNotify) {
-        String clientID = toNotify.getResult().getClientID();
-        Log.log("ClientID from Result: " + clientID, LogLevel.LOW);
-        CallbackInformation clientCBI = clientIDtoCallbackInformation.get(clientID);
-        Log.log("ClientID from CBI: " + clientCBI.basicProperties.getCorrelationId(), LogLevel.LOW);
+        String requestID = toNotify.getResult().getRequestID();
+        Log.log("RequestID from Result: " + requestID, LogLevel.LOW);
+        CallbackInformation clientCBI = requestIDtoCallbackInformation.remove(requestID);
+        if (clientCBI == null)
+            return;
+        Log.log("CorrelationID from CBI: " + clientCBI.basicProperties.getCorrelationId(), LogLevel.LOW);
+        IResult result = toNotify.getResult();
+        //The client assembles the files itself, if it requested the partials
+        if (clientCBI.partialResultsRequested)
+            result = new DefaultResult(result.getClientID(), result.getRequestID(), Collections.emptyList(), result.getPartialResults());
+        else
+            result = new DefaultResult(result.getClientID(), result.getRequestID(), result.getFileContents(), Collections.emptyList());
         try {
-            channel.basicPublish("", clientCBI.basicProperties.getReplyTo(), clientCBI.replyProperties, SerializationUtils.serialize(toNotify.getResult()));
-            Log.log("Finished result. Published to :" + clientID);
+            final long serializeStart = System.nanoTime();
+            final byte[] serializedResult = SerializationUtils.serialize(result);
+            SERIALIZE_RESULT_LATENCY.recordSince(serializeStart);
+            channel.basicPublish("", clientCBI.basicProperties.getReplyTo(), clientCBI.replyProperties, serializedResult);
+            RequestTracer.getInstance().recordResultPublished(requestID);
+            RequestJournal.getInstance().recordResultPublished(requestID);
+            Log.log("Finished result. Published to :" + result.getClientID() + " for request " + requestID);
         } catch (IOException e) {
             Log.log("COULD NOT RETURN RESULT TO CLIENT", LogLevel.SEVERE);
             Log.log("", e);
@@ -145,12 +193,22 @@ public class Server implements IConnectionPoint, Runnable, Consumer, IEventListe
 
     @Override
     public void handleDelivery(String s, Envelope envelope, AMQP.BasicProperties basicProperties, byte[] bytes) throws IOException {
+        final long deserializeStart = System.nanoTime();
         Object deliveredObject = SerializationUtils.deserialize(bytes);
+        DESERIALIZE_LATENCY.recordSince(deserializeStart);
         if (deliveredObject instanceof IClientRequest) {
             handleDeliveredClientRequest((IClientRequest) deliveredObject, basicProperties);
         } else if (deliveredObject instanceof IPartialResult) {
+            RequestJournal.getInstance().recordPartialResult((IPartialResult) deliveredObject);
+            RequestTracer.getInstance().recordPartialResult((IPartialResult) deliveredObject, basicProperties);
+            final List<IPartialResult> copies = RenderedEntryCache.getInstance().offer((IPartialResult) deliveredObject);
             ReceivedPartialResultEvent event = new ReceivedPartialResultEvent((IPartialResult) deliveredObject);
             EventManager.getInstance().publishEvent(event);
+            //Copies for the identical entries of other requests
+            for (IPartialResult copy : copies) {
+                RequestJournal.getInstance().recordPartialResult(copy);
+                EventManager.getInstance().publishEvent(new ReceivedPartialResultEvent(copy));
+            }
         } else if (deliveredObject instanceof IRegistrationRequest) {
             Log.log("server received registration request from: " + ((IRegistrationRequest) deliveredObject).getID());
             ReceivedRegistrationRequestEvent event = new ReceivedRegistrationRequestEvent((IRegistrationRequest) deliveredObject);
@@ -160,16 +218,20 @@ public class Server implements IConnectionPoint, Runnable, Consumer, IEventListe
         } else if (deliveredObject instanceof IStopOrderAck) {
             String idToRemove = ((IStopOrderAck) deliveredObject).getStoppedMicroServiceID();
             EventManager.getInstance().publishEvent(new MicroServiceDisconnectedEvent(idToRemove));
+        } else if (deliveredObject instanceof IHeartbeat) {
+            Log.log("Received " + deliveredObject, LogLevel.LOW);
+            EventManager.getInstance().publishEvent(new ReceivedHeartbeatEvent((IHeartbeat) deliveredObject));
         }
     }
 
     private void handleReceivedRegistrationRequest(IRegistrationRequest deliveredObject, BasicProperties basicProperties) {
         final BasicProperties replyProps = ConnectionUtils.getReplyProps(basicProperties);
-        final IRegistrationAck ack = new DefaultRegistrationAck(TASK_QUEUE_NAME);
         try {
+            final String directTaskQueueName = TaskDispatcher.getInstance().declareDirectTaskQueue(deliveredObject.getID());
+            final IRegistrationAck ack = new DefaultRegistrationAck(TASK_QUEUE_NAME, directTaskQueueName);
             Log.log("Sending acknowledge connection request to microService: " + basicProperties.getCorrelationId(), LogLevel.LOW);
             channel.basicPublish("", basicProperties.getReplyTo(), replyProps, SerializationUtils.serialize(ack));
-            EventManager.getInstance().publishEvent(new MicroServiceConnectedEvent(deliveredObject.getID(), deliveredObject.getIP()));
+            EventManager.getInstance().publishEvent(new MicroServiceConnectedEvent(deliveredObject.getID(), deliveredObject.getIP(), deliveredObject.getCapacity()));
         } catch (IOException e) {
             Log.log("Failed to send acknowledgement to microservice", e);
         }
@@ -186,42 +248,52 @@ public class Server implements IConnectionPoint, Runnable, Consumer, IEventListe
      */
     private void handleDeliveredClientRequest(IClientRequest deliveredClientRequest, BasicProperties basicProperties) throws IOException {
         //Generate Callback info
-        final String requestID = deliveredClientRequest.getClientID();
+        final String requestID = deliveredClientRequest.getRequestID();
         final BasicProperties replyProps = ConnectionUtils.getReplyProps(basicProperties);
-        final CallbackInformation callbackInformation = new CallbackInformation(basicProperties, replyProps);
-        clientIDtoCallbackInformation.put(requestID, callbackInformation);
+        final CallbackInformation callbackInformation = new CallbackInformation(basicProperties, replyProps, deliveredClientRequest.isPartialResultsRequested());
+        //Another request with this ID is still in flight, its partials would be mixed up
+        if (requestIDtoCallbackInformation.putIfAbsent(requestID, callbackInformation) != null) {
+            Log.log("Refused ClientRequest with ID '" + requestID + "', a request with this ID is in flight.", LogLevel.WARNING);
+            channel.basicPublish("", basicProperties.getReplyTo(), replyProps, SerializationUtils.serialize("Request ID already in use. Conversion aborted."));
+            return;
+        }
         //check received secretKey
         if (!isValidSecretKey(deliveredClientRequest.getSecretKey())) {
             Log.log("Invalid secret key from request with ID '" + requestID + "'");
-            channel.basicPublish("", basicProperties.getReplyTo(), clientIDtoCallbackInformation.get(requestID).replyProperties, SerializationUtils.serialize("Invalid secret key."));
-            clientIDtoCallbackInformation.remove(requestID);
+            channel.basicPublish("", basicProperties.getReplyTo(), requestIDtoCallbackInformation.get(requestID).replyProperties, SerializationUtils.serialize("Invalid secret key."));
+            requestIDtoCallbackInformation.remove(requestID);
         } else {
             //Check for blacklisting and handle accordingly
-            if (isBlacklisted(requestID)) {
-                Log.log("Illegal ClientRequest with ID '" + requestID + "' refused.");
-                channel.basicPublish("", basicProperties.getReplyTo(), clientIDtoCallbackInformation.get(requestID).replyProperties, SerializationUtils.serialize("Unfortunately you have been banned."));
-                clientIDtoCallbackInformation.remove(requestID);
+            if (isBlacklisted(deliveredClientRequest.getClientID())) {
+                Log.log("Illegal ClientRequest with ID '" + requestID + "' of client '" + deliveredClientRequest.getClientID() + "' refused.");
+                channel.basicPublish("", basicProperties.getReplyTo(), requestIDtoCallbackInformation.get(requestID).replyProperties, SerializationUtils.serialize("Unfortunately you have been banned."));
+                requestIDtoCallbackInformation.remove(requestID);
             } else {
                 if (deliveredClientRequest.getEntries().isEmpty()) {
                     Log.log("received request with 0 entries.", LogLevel.INFO);
-                    channel.basicPublish("", basicProperties.getReplyTo(), clientIDtoCallbackInformation.get(requestID).replyProperties, SerializationUtils.serialize("Server received empty request. Conversion aborted."));
-                    clientIDtoCallbackInformation.remove(requestID);
-                } else
+                    channel.basicPublish("", basicProperties.getReplyTo(), requestIDtoCallbackInformation.get(requestID).replyProperties, SerializationUtils.serialize("Server received empty request. Conversion aborted."));
+                    requestIDtoCallbackInformation.remove(requestID);
+                } else {
+                    RequestJournal.getInstance().recordAccepted(deliveredClientRequest, basicProperties.getReplyTo(), basicProperties.getCorrelationId());
+                    RequestTracer.getInstance().recordAccepted(requestID, basicProperties);
                     processDeliveredClientRequest(deliveredClientRequest);
+                }
             }
         }
     }
 
     /**
-     * Class for clean storing of a tuple of BasicProperties.
+     * Class for clean storing of a tuple of BasicProperties, along with how the client wants its result.
      */
     private class CallbackInformation {
         private final BasicProperties basicProperties;
         private final BasicProperties replyProperties;
+        private final boolean partialResultsRequested;
 
-        private CallbackInformation(BasicProperties basicProperties, BasicProperties replyProperties) {
+        private CallbackInformation(BasicProperties basicProperties, BasicProperties replyProperties, boolean partialResultsRequested) {
             this.basicProperties = basicProperties;
             this.replyProperties = replyProperties;
+            this.partialResultsRequested = partialResultsRequested;
         }
     }
 
@@ -232,18 +304,82 @@ public class Server implements IConnectionPoint, Runnable, Consumer, IEventListe
      * @throws IOException Thrown in case the publishing to the channel fails.
      */
     private void processDeliveredClientRequest(IClientRequest deliveredClientRequest) throws IOException {
-        IEntry firstEntry = deliveredClientRequest.getEntries().get(0);
-        final int countOfEntries = deliveredClientRequest.getEntries().size();
+        publishRequestAcceptedEvent(deliveredClientRequest);
+
+        Log.log("Server successfully received a ClientRequest.");
+
+        dispatchUncachedEntries(deliveredClientRequest.getEntries(), deliveredClientRequest.getDeadline());
+    }
+
+    /**
+     * Dispatches the entries not found in the RenderedEntryCache. The partials of the other entries are taken from
+     * the cache and handed to the PartialResultCollector right away. Entries identical to one being converted
+     * already get their partials from the cache, once they are received.
+     *
+     * @param entries  The entries to convert.
+     * @param deadline The deadline of their request or 0, if it has none.
+     * @throws IOException Thrown in case the publishing to the channel fails.
+     */
+    private void dispatchUncachedEntries(List<IEntry> entries, long deadline) throws IOException {
+        final List<IEntry> uncachedEntries = new ArrayList<>();
+        final List<IPartialResult> cachedPartials = new ArrayList<>();
+        for (IEntry entry : entries) {
+            final List<IPartialResult> partials = RenderedEntryCache.getInstance().lookup(entry, deadline);
+            if (partials == null)
+                uncachedEntries.add(entry);
+            else
+                cachedPartials.addAll(partials);
+        }
+        TaskDispatcher.getInstance().dispatch(uncachedEntries, deadline);
+        if (uncachedEntries.size() < entries.size())
+            Log.log((entries.size() - uncachedEntries.size()) + " of " + entries.size() + " entries served from the cache.", LogLevel.LOW);
+        for (IPartialResult partialResult : cachedPartials) {
+            RequestJournal.getInstance().recordPartialResult(partialResult);
+            EventManager.getInstance().publishEvent(new ReceivedPartialResultEvent(partialResult));
+        }
+    }
+
+    private void publishRequestAcceptedEvent(IClientRequest clientRequest) {
+        IEntry firstEntry = clientRequest.getEntries().get(0);
+        final int countOfEntries = clientRequest.getEntries().size();
         final int countOfPartialPerEntry = firstEntry.getAmountOfExpectedPartials();
         final int requestSize = countOfEntries * countOfPartialPerEntry;
 
-        RequestAcceptedEvent requestAcceptedEvent = new RequestAcceptedEvent(deliveredClientRequest.getClientID(), requestSize);
+        RequestAcceptedEvent requestAcceptedEvent = new RequestAcceptedEvent(clientRequest.getRequestID(), requestSize, countOfPartialPerEntry, clientRequest.getDeadline());
         EventManager.getInstance().publishEvent(requestAcceptedEvent);
+    }
 
-        Log.log("Server successfully received a ClientRequest.");
-
-        for (IEntry currentEntry : deliveredClientRequest.getEntries()) {
-            channel.basicPublish("", TASK_QUEUE_NAME, replyProps, SerializationUtils.serialize(currentEntry));
+    /**
+     * Resumes the requests left open by the last run of the server: Restores their callback information, hands the
+     * partials received so far to the PartialResultCollector and dispatches the entries still missing partials.
+     */
+    private void resumeRecoveredRequests() {
+        final List<RequestJournal.RecoveredRequest> recoveredRequests;
+        try {
+            recoveredRequests = RequestJournal.getInstance().replay();
+        } catch (IOException e) {
+            Log.log("Couldn't replay the request journal, requests are not journaled.", e);
+            return;
+        }
+        for (RequestJournal.RecoveredRequest recoveredRequest : recoveredRequests) {
+            final IClientRequest clientRequest = recoveredRequest.getRequest();
+            final BasicProperties basicProperties = new BasicProperties
+                    .Builder()
+                    .correlationId(recoveredRequest.getCorrelationID())
+                    .replyTo(recoveredRequest.getReplyTo())
+                    .build();
+            requestIDtoCallbackInformation.put(clientRequest.getRequestID(), new CallbackInformation(basicProperties, ConnectionUtils.getReplyProps(basicProperties), clientRequest.isPartialResultsRequested()));
+            publishRequestAcceptedEvent(clientRequest);
+            for (IPartialResult partialResult : recoveredRequest.getPartialResults())
+                EventManager.getInstance().publishEvent(new ReceivedPartialResultEvent(partialResult));
+            final List<IEntry> missingEntries = recoveredRequest.getMissingEntries();
+            try {
+                dispatchUncachedEntries(missingEntries, clientRequest.getDeadline());
+            } catch (IOException e) {
+                Log.log("Failed to dispatch the entries of recovered request " + clientRequest.getRequestID(), e);
+            }
+            Log.log("Resumed request " + clientRequest.getRequestID() + ", " + missingEntries.size() + " of "
+                    + clientRequest.getEntries().size() + " entries left to convert.", LogLevel.INFO);
         }
     }
 
@@ -346,7 +482,7 @@ public class Server implements IConnectionPoint, Runnable, Consumer, IEventListe
         final String newBlacklistContent = currentBlacklistContent + System.lineSeparator();
 
         try {
-            Files.write(Paths.get(DEFAULT_BLACKLIST_FILE_NAME), newBlacklistContent.getBytes());
+            FileUtils.writeString(Paths.get(DEFAULT_BLACKLIST_FILE_NAME), newBlacklistContent);
         } catch (IOException e) {
             Log.log("Couldn't write blacklist-file.", e);
         }
@@ -357,6 +493,7 @@ public class Server implements IConnectionPoint, Runnable, Consumer, IEventListe
         initSecretKeyFile();
         initBlacklist();
         declareQueues();
+        resumeRecoveredRequests();
         run();
     }
 
@@ -376,6 +513,7 @@ public class Server implements IConnectionPoint, Runnable, Consumer, IEventListe
         channel.queueDeclare(CLIENT_REQUEST_QUEUE_NAME, false, false, false, null);
         channel.queueDeclare(callbackQueueName, false, false, false, null);
         channel.queueDeclare(REGISTRATION_QUEUE_NAME, false, false, false, null);
+        channel.queueDeclare(HEARTBEAT_QUEUE_NAME, false, false, false, null);
 //        clearQueues();
     }
 
@@ -438,6 +576,21 @@ public class Server implements IConnectionPoint, Runnable, Consumer, IEventListe
         return MicroServiceManager.getInstance();
     }
 
+    //TODO : Replace with safer approach?
+    public TaskDispatcher getTaskDispatcher() {
+        return TaskDispatcher.getInstance();
+    }
+
+    //TODO : Replace with safer approach?
+    public RenderedEntryCache getRenderedEntryCache() {
+        return RenderedEntryCache.getInstance();
+    }
+
+    //TODO : Replace with safer approach?
+    public RequestTracer getRequestTracer() {
+        return RequestTracer.getInstance();
+    }
+
     private void sendStopOrderToMicroService(String idToRemove) {
         Log.log("Disconnecting MicroService " + idToRemove + "...");
 
@@ -456,6 +609,8 @@ public class Server implements IConnectionPoint, Runnable, Consumer, IEventListe
             handleFinishedCollectingResultEvent((FinishedCollectingResultEvent) toNotify);
         } else if (toNotify instanceof RequestStoppedEvent) {
             handleRequestStoppedEvent((RequestStoppedEvent) toNotify);
+        } else if (toNotify instanceof RequestExpiredEvent) {
+            handleRequestExpiredEvent((RequestExpiredEvent) toNotify);
         } else if (toNotify instanceof ClientBlockRequestEvent) {
             String toBlock = ((ClientBlockRequestEvent) toNotify).getClientID();
             blacklistClient(toBlock);
@@ -471,12 +626,12 @@ public class Server implements IConnectionPoint, Runnable, Consumer, IEventListe
     @Override
     public Set<Class<? extends IEvent>> getEvents() {
         Set<Class<? extends IEvent>> events = new HashSet<>();
-        events.addAll(Arrays.asList(RefreshSecretKeysEvent.class, FinishedCollectingResultEvent.class, RequestStoppedEvent.class, ClientBlockRequestEvent.class, MicroServiceConnectedEvent.class, MicroServiceDisconnectionRequestEvent.class));
+        events.addAll(Arrays.asList(RefreshSecretKeysEvent.class, FinishedCollectingResultEvent.class, RequestStoppedEvent.class, RequestExpiredEvent.class, ClientBlockRequestEvent.class, MicroServiceConnectedEvent.class, MicroServiceDisconnectionRequestEvent.class));
         return events;
     }
 
     private void shutdownServer() throws IOException, TimeoutException {
-        for (String msID : MicroServiceManager.getInstance().getMicroServices()) {
+        for (String msID : MicroServiceManager.getInstance().getMicroServiceIDs()) {
             sendStopOrderToMicroService(msID);
         }
         clearQueues();
@@ -0,0 +1,446 @@
+package server.modules;
+
+import com.rabbitmq.client.AMQP.BasicProperties;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.GetResponse;
+import global.identifiers.MessageHeaders;
+import global.logging.Log;
+import global.logging.LogLevel;
+import global.metrics.Counter;
+import global.metrics.LatencyHistogram;
+import global.metrics.Metrics;
+import global.model.IEntry;
+import org.apache.commons.lang3.SerializationUtils;
+import server.events.*;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author daan
+ *         <p>
+ *         Singleton class with lazy init
+ *         Publishes the tasks of accepted requests. By default all tasks go to the shared task queue, where the
+ *         MicroServices compete for them. With direct routing enabled every MicroService gets a queue of its own and
+ *         each task is assigned to the service which is expected to finish it first, judging by the throughput the
+ *         service reported and the tasks already waiting in its queue. Services falling behind lose their surplus
+ *         tasks to the others. Entries taking too long are dispatched a second time on request of the
+ *         PartialResultCollector, avoiding the service they were routed to first.
+ *         <p>
+ *         Only up to DISPATCH_WINDOW tasks are kept in the broker's queues. The others wait in the dispatcher and are
+ *         released earliest deadline first; tasks without deadline come last, in the order they were accepted.
+ *         Tasks carry the deadline of their request as header and message TTL, tasks which expired while waiting
+ *         in the dispatcher are dropped.
+ */
+public class TaskDispatcher implements IEventListener {
+
+    private static TaskDispatcher INSTANCE;
+    private final static int REBALANCE_START_DELAY = 1500;
+    private final static int REBALANCE_FREQ = 3000;
+    //A service falls behind, if it needs this many times longer than the average to work off its queue.
+    private final static double REBALANCE_THRESHOLD_FACTOR = 2.0;
+    //Queues that are worked off within this # of seconds are never rebalanced.
+    private final static double REBALANCE_MINIMUM_SECONDS = 5.0;
+    //Max. # of tasks waiting in the broker's queues. The rest waits in the dispatcher.
+    private final static int DISPATCH_WINDOW = MicroServiceManager.MAXIMUM_UTILIZATION;
+    private final static int PUMP_FREQ = 100;
+    private final static LatencyHistogram SERIALIZE_TASK_LATENCY = Metrics.histogram("server.serializeTask");
+    private final static Counter DISPATCHED_TASKS = Metrics.counter("server.tasksDispatched");
+
+    private final Channel channel;
+    private final String TASK_QUEUE_NAME;
+    private final BasicProperties replyProperties;
+    private volatile boolean useDirectRouting = false;
+    //Key : ID of the service | Value : # of tasks waiting in its direct queue
+    private final ConcurrentMap<String, Integer> directQueueBacklogs = new ConcurrentHashMap<>();
+    //IDs of disconnected services whose direct queues weren't deleted yet
+    private final Set<String> releasedServiceIDs = ConcurrentHashMap.newKeySet();
+    private final PriorityBlockingQueue<PendingTask> pendingTasks = new PriorityBlockingQueue<>();
+    private final AtomicLong pendingTaskSequence = new AtomicLong();
+    //# of tasks in the shared task queue, as of the last pump or rebalancing
+    private volatile int sharedQueueDepth = 0;
+
+    /**
+     * A task waiting in the dispatcher. Ordered earliest deadline first, then first come first served.
+     */
+    private static final class PendingTask implements Comparable<PendingTask> {
+        private final IEntry entry;
+        private final long deadline, sequence;
+
+        private PendingTask(IEntry entry, long deadline, long sequence) {
+            this.entry = entry;
+            this.deadline = deadline;
+            this.sequence = sequence;
+        }
+
+        private long getSortableDeadline() {
+            return deadline > 0 ? deadline : Long.MAX_VALUE;
+        }
+
+        @Override
+        public int compareTo(PendingTask o) {
+            final int byDeadline = Long.compare(getSortableDeadline(), o.getSortableDeadline());
+            return byDeadline != 0 ? byDeadline : Long.compare(sequence, o.sequence);
+        }
+    }
+
+    private TaskDispatcher(Channel channel, String taskQueueName, BasicProperties replyProperties) {
+        this.channel = channel;
+        this.TASK_QUEUE_NAME = taskQueueName;
+        this.replyProperties = replyProperties;
+        EventManager.getInstance().registerListener(this);
+        Metrics.registerGauge("server.pendingTasks", this::getPendingTaskCount);
+        Metrics.registerGauge("server.taskQueueDepth", () -> sharedQueueDepth);
+        Metrics.registerGauge("server.directQueueDepth", this::getDirectQueueBacklog);
+
+        TimerTask rebalanceTask = new TimerTask() {
+            @Override
+            public void run() {
+                try {
+                    sweepReleasedQueues();
+                    refreshQueueDepths();
+                    if (useDirectRouting)
+                        rebalance();
+                } catch (IOException e) {
+                    Log.log("Rebalancing the direct task queues failed", e);
+                }
+            }
+        };
+        TimerTask pumpTask = new TimerTask() {
+            @Override
+            public void run() {
+                try {
+                    pump();
+                } catch (IOException e) {
+                    Log.log("Releasing pending tasks failed", e);
+                }
+            }
+        };
+        Timer timer = new Timer();
+        timer.schedule(rebalanceTask, REBALANCE_START_DELAY, REBALANCE_FREQ);
+        timer.schedule(pumpTask, PUMP_FREQ, PUMP_FREQ);
+    }
+
+    /**
+     * Has to be called for instance to not be null.
+     *
+     * @param channel         a channel used by the dispatcher only
+     * @param taskQueueName   the name of the shared task queue
+     * @param replyProperties the properties the MicroServices use to reply to the server
+     */
+    protected static TaskDispatcher initialize(Channel channel, String taskQueueName, BasicProperties replyProperties) {
+        if (INSTANCE == null)
+            INSTANCE = new TaskDispatcher(channel, taskQueueName, replyProperties);
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the INSTANCE of the TaskDispatcher
+     */
+    protected static TaskDispatcher getInstance() {
+        if (INSTANCE == null)
+            Log.log("TaskDispatcher was not initialized properly", new InstantiationException("initialize() was not called before getInstance()"));
+        return INSTANCE;
+    }
+
+    private String getDirectTaskQueueName(String serviceID) {
+        return TASK_QUEUE_NAME + "." + serviceID;
+    }
+
+    /**
+     * Declares the direct task queue of a newly registered MicroService.
+     *
+     * @param serviceID ID of the registered service
+     * @return the name of the declared queue
+     * @throws IOException if the queue couldn't be declared
+     */
+    public String declareDirectTaskQueue(String serviceID) throws IOException {
+        final String directTaskQueueName = getDirectTaskQueueName(serviceID);
+        channel.queueDeclare(directTaskQueueName, false, false, false, null);
+        directQueueBacklogs.putIfAbsent(serviceID, 0);
+        return directTaskQueueName;
+    }
+
+    /**
+     * Queues the entries of a request. They are published as tasks - either on the shared task queue or on the
+     * direct queue of the service expected to finish them first - as soon as the dispatch window allows it.
+     *
+     * @param entries  the entries to convert
+     * @param deadline the deadline of the request or 0, if it has none
+     * @throws IOException if publishing fails
+     */
+    public void dispatch(Collection<IEntry> entries, long deadline) throws IOException {
+        entries.forEach(entry -> pendingTasks.add(new PendingTask(entry, deadline, pendingTaskSequence.getAndIncrement())));
+        pump();
+    }
+
+    /**
+     * Publishes pending tasks, earliest deadline first, until DISPATCH_WINDOW tasks wait in the broker's queues.
+     * The TaskDispatchedEvents are published once the dispatcher's monitor is released, since their listeners
+     * take locks of their own which are held while dispatching entries again (see StragglerDetectedEvent).
+     */
+    private void pump() throws IOException {
+        final List<TaskDispatchedEvent> dispatchedEvents = new ArrayList<>();
+        try {
+            releasePendingTasks(dispatchedEvents);
+        } finally {
+            dispatchedEvents.forEach(EventManager.getInstance()::publishEvent);
+        }
+    }
+
+    /**
+     * @param dispatchedEvents gets the events of the published tasks
+     */
+    private synchronized void releasePendingTasks(List<TaskDispatchedEvent> dispatchedEvents) throws IOException {
+        if (pendingTasks.isEmpty())
+            return;
+        if (useDirectRouting)
+            refreshDirectQueueBacklogs();
+        sharedQueueDepth = channel.queueDeclarePassive(TASK_QUEUE_NAME).getMessageCount();
+        int queuedTasks = sharedQueueDepth + getDirectQueueBacklog();
+        final long now = System.currentTimeMillis();
+        PendingTask next;
+        while (queuedTasks < DISPATCH_WINDOW && (next = pendingTasks.poll()) != null) {
+            //The PartialResultCollector reports expired requests
+            if (next.deadline > 0 && next.deadline < now)
+                continue;
+            dispatchedEvents.add(dispatch(next.entry, next.deadline, null));
+            queuedTasks++;
+        }
+    }
+
+    /**
+     * @return the event announcing the dispatched task, to be published by the caller without holding the
+     * dispatcher's monitor
+     */
+    private TaskDispatchedEvent dispatch(IEntry entry, long deadline, String excludedServiceID) throws IOException {
+        final Map<String, Object> headers = new HashMap<>();
+        final BasicProperties.Builder properties = replyProperties.builder().headers(headers);
+        //Lets the MicroService measure how long the task waited in the broker's queue
+        headers.put(MessageHeaders.DISPATCH_TIME.toString(), System.currentTimeMillis());
+        if (deadline > 0) {
+            headers.put(MessageHeaders.DEADLINE.toString(), deadline);
+            properties.expiration(Long.toString(Math.max(deadline - System.currentTimeMillis(), 1)));
+        }
+        final long serializeStart = System.nanoTime();
+        final byte[] serializedEntry = SerializationUtils.serialize(entry);
+        SERIALIZE_TASK_LATENCY.recordSince(serializeStart);
+        final String targetServiceID = publish(serializedEntry, properties.build(), excludedServiceID);
+        DISPATCHED_TASKS.increment();
+        return new TaskDispatchedEvent(entry, targetServiceID);
+    }
+
+    /**
+     * Drops the pending tasks of a request.
+     */
+    private void discardPendingTasks(String requestID) {
+        if (pendingTasks.removeIf(task -> task.entry.getEntryIdentifier().getRequestID().equals(requestID)))
+            Log.log("Discarded the pending tasks of request " + requestID, LogLevel.LOW);
+    }
+
+    public int getPendingTaskCount() {
+        return pendingTasks.size();
+    }
+
+    /**
+     * @return the # of tasks in the direct queues of the services, as of the last refresh
+     */
+    public int getDirectQueueBacklog() {
+        return directQueueBacklogs.values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    /**
+     * @return the ID of the service the task was routed to or null, if it was published on the shared task queue
+     */
+    private synchronized String publish(byte[] task, BasicProperties properties, String excludedServiceID) throws IOException {
+        final String targetServiceID = useDirectRouting ? chooseService(excludedServiceID) : null;
+        if (targetServiceID == null) {
+            channel.basicPublish("", TASK_QUEUE_NAME, properties, task);
+        } else {
+            channel.basicPublish("", getDirectTaskQueueName(targetServiceID), properties, task);
+            directQueueBacklogs.merge(targetServiceID, 1, Integer::sum);
+        }
+        return targetServiceID;
+    }
+
+    /**
+     * @param excludedServiceID a service which mustn't be chosen, may be null
+     * @return the ID of the service with the shortest expected time until it finished one more task or null,
+     * if no service owns a direct queue
+     */
+    private String chooseService(String excludedServiceID) {
+        String bestServiceID = null;
+        double bestFinishingTime = Double.MAX_VALUE;
+        for (MicroServiceStatus status : MicroServiceManager.getInstance().getMicroServiceStatuses()) {
+            final Integer backlog = directQueueBacklogs.get(status.getServiceID());
+            if (backlog == null || status.getServiceID().equals(excludedServiceID))
+                continue;
+            final double finishingTime = (backlog + status.getInFlightCount() + 1) / status.getEstimatedThroughput();
+            if (finishingTime < bestFinishingTime) {
+                bestFinishingTime = finishingTime;
+                bestServiceID = status.getServiceID();
+            }
+        }
+        return bestServiceID;
+    }
+
+    /**
+     * Refreshes the backlogs from the broker and moves the surplus tasks of services which need more than
+     * REBALANCE_THRESHOLD_FACTOR times the average time to work off their queues.
+     */
+    private synchronized void rebalance() throws IOException {
+        refreshDirectQueueBacklogs();
+        final Map<String, Double> throughputs = new HashMap<>();
+        for (MicroServiceStatus status : MicroServiceManager.getInstance().getMicroServiceStatuses()) {
+            if (directQueueBacklogs.containsKey(status.getServiceID()))
+                throughputs.put(status.getServiceID(), status.getEstimatedThroughput());
+        }
+        if (throughputs.size() < 2)
+            return;
+
+        final double totalBacklog = throughputs.keySet().stream().mapToInt(directQueueBacklogs::get).sum();
+        final double totalThroughput = throughputs.values().stream().mapToDouble(Double::doubleValue).sum();
+        final double averageDrainSeconds = totalBacklog / totalThroughput;
+        final double drainSecondsLimit = Math.max(averageDrainSeconds * REBALANCE_THRESHOLD_FACTOR, REBALANCE_MINIMUM_SECONDS);
+        for (Map.Entry<String, Double> throughput : throughputs.entrySet()) {
+            final int backlog = directQueueBacklogs.get(throughput.getKey());
+            if (backlog / throughput.getValue() > drainSecondsLimit) {
+                final int surplus = backlog - (int) (averageDrainSeconds * throughput.getValue());
+                Log.log("MicroService " + throughput.getKey() + " fell behind, moving " + surplus + " of its tasks.", LogLevel.INFO);
+                moveTasks(throughput.getKey(), surplus);
+            }
+        }
+    }
+
+    /**
+     * Updates the queue depths for the metrics, which the pump doesn't do while no tasks are pending.
+     */
+    private synchronized void refreshQueueDepths() throws IOException {
+        sharedQueueDepth = channel.queueDeclarePassive(TASK_QUEUE_NAME).getMessageCount();
+        refreshDirectQueueBacklogs();
+    }
+
+    private void refreshDirectQueueBacklogs() throws IOException {
+        for (String serviceID : directQueueBacklogs.keySet()) {
+            final int backlog = channel.queueDeclarePassive(getDirectTaskQueueName(serviceID)).getMessageCount();
+            directQueueBacklogs.replace(serviceID, backlog);
+        }
+    }
+
+    /**
+     * Takes tasks out of the direct queue of a service and dispatches them again to other services. A task is acked
+     * only once it was published again, if that fails it goes back to the queue. Expired tasks are dropped.
+     *
+     * @param serviceID the service to take the tasks from
+     * @param amount    max. # of tasks to move
+     * @return # of moved tasks
+     */
+    private synchronized int moveTasks(String serviceID, int amount) throws IOException {
+        final String directTaskQueueName = getDirectTaskQueueName(serviceID);
+        int moved = 0;
+        while (moved < amount) {
+            final GetResponse response = channel.basicGet(directTaskQueueName, false);
+            if (response == null)
+                break;
+            final long deliveryTag = response.getEnvelope().getDeliveryTag();
+            directQueueBacklogs.computeIfPresent(serviceID, (id, backlog) -> Math.max(backlog - 1, 0));
+            final BasicProperties properties = getRemainingProperties(response.getProps());
+            if (properties == null) {
+                channel.basicAck(deliveryTag, false);
+                continue;
+            }
+            try {
+                publish(response.getBody(), properties, serviceID);
+            } catch (IOException | RuntimeException e) {
+                channel.basicNack(deliveryTag, false, true);
+                throw e;
+            }
+            channel.basicAck(deliveryTag, false);
+            moved++;
+        }
+        return moved;
+    }
+
+    /**
+     * @return the properties of a task with its TTL shortened to the time left until its deadline, null if the
+     * deadline passed
+     */
+    private static BasicProperties getRemainingProperties(BasicProperties properties) {
+        final Object deadline = properties.getHeaders() == null ? null : properties.getHeaders().get(MessageHeaders.DEADLINE.toString());
+        if (!(deadline instanceof Long))
+            return properties;
+        final long remaining = (Long) deadline - System.currentTimeMillis();
+        if (remaining <= 0)
+            return null;
+        return properties.builder().expiration(Long.toString(remaining)).build();
+    }
+
+    /**
+     * Hands the tasks left in the direct queue of a disconnected service to the other services.
+     * The queue itself is deleted by sweepReleasedQueues() once nobody consumes it anymore, so tasks that RabbitMQ
+     * requeues when the connection of a dead service finally breaks aren't lost.
+     */
+    private synchronized void releaseDirectTaskQueue(String serviceID) {
+        if (directQueueBacklogs.remove(serviceID) == null)
+            return;
+        releasedServiceIDs.add(serviceID);
+        try {
+            final int moved = moveTasks(serviceID, Integer.MAX_VALUE);
+            Log.log("Released direct task queue of MicroService " + serviceID + ", redispatched " + moved + " tasks.", LogLevel.LOW);
+        } catch (IOException e) {
+            Log.log("Couldn't release the direct task queue of MicroService " + serviceID, e);
+        }
+    }
+
+    /**
+     * Redispatches tasks that were requeued to the queues of disconnected services and deletes those queues
+     * as soon as they are empty and have no consumers left.
+     */
+    private synchronized void sweepReleasedQueues() throws IOException {
+        for (String serviceID : new ArrayList<>(releasedServiceIDs)) {
+            moveTasks(serviceID, Integer.MAX_VALUE);
+            final String directTaskQueueName = getDirectTaskQueueName(serviceID);
+            if (channel.queueDeclarePassive(directTaskQueueName).getConsumerCount() == 0) {
+                moveTasks(serviceID, Integer.MAX_VALUE);
+                channel.queueDelete(directTaskQueueName);
+                releasedServiceIDs.remove(serviceID);
+            }
+        }
+    }
+
+    public boolean isUseDirectRouting() {
+        return useDirectRouting;
+    }
+
+    @Override
+    public void notify(IEvent toNotify) {
+        if (toNotify instanceof MicroServiceDisconnectedEvent) {
+            releaseDirectTaskQueue(((MicroServiceDisconnectedEvent) toNotify).getDisconnectedSvcID());
+        } else if (toNotify instanceof StragglerDetectedEvent) {
+            StragglerDetectedEvent stragglerEvent = (StragglerDetectedEvent) toNotify;
+            try {
+                EventManager.getInstance().publishEvent(
+                        dispatch(stragglerEvent.getStraggler(), stragglerEvent.getDeadline(), stragglerEvent.getServiceID()));
+            } catch (IOException e) {
+                Log.log("Couldn't dispatch " + stragglerEvent.getStraggler().getEntryIdentifier() + " a second time", e);
+            }
+        } else if (toNotify instanceof RequestExpiredEvent) {
+            discardPendingTasks(((RequestExpiredEvent) toNotify).getRequestID());
+        } else if (toNotify instanceof RequestStoppedEvent) {
+            discardPendingTasks(((RequestStoppedEvent) toNotify).getStoppedRequestID());
+        } else if (toNotify instanceof SwitchDirectRoutingEvent) {
+            useDirectRouting = ((SwitchDirectRoutingEvent) toNotify).isUseDirectRouting();
+            Log.log("Direct routing of tasks " + (useDirectRouting ? "enabled." : "disabled."));
+        }
+    }
+
+    @Override
+    public Set<Class<? extends IEvent>> getEvents() {
+        return new HashSet<>(Arrays.asList(MicroServiceDisconnectedEvent.class, RequestExpiredEvent.class,
+                RequestStoppedEvent.class, StragglerDetectedEvent.class, SwitchDirectRoutingEvent.class));
+    }
+}
@@ -2,8 +2,11 @@ package server.view;
 
 import global.logging.Log;
 import global.logging.LogLevel;
+import server.events.EventManager;
+import server.events.SwitchDirectRoutingEvent;
 import server.modules.Server;
 
+import java.io.IOException;
 import java.net.Inet4Address;
 import java.net.UnknownHostException;
 import java.util.Scanner;
@@ -50,6 +53,32 @@ public class ServerCli {
                         //TODO : Use events instead and remove use of direct instance referencesa
                         server.getMicroServiceManager().getMicroServices().forEach(service -> Log.log(service));
                         break;
+                    case "show cache":
+                        Log.log(server.getRenderedEntryCache().toString());
+                        break;
+                    case "show events":
+                        EventManager.getInstance().getDispatchStatistics().forEach(status -> Log.log(status));
+                        break;
+                    case "top":
+                        new ServerTop(server, consoleScanner).run();
+                        break;
+                    case "show traces":
+                        server.getRequestTracer().getTraces().forEach(trace -> Log.log(trace));
+                        break;
+                    case "dump traces":
+                        try {
+                            server.getRequestTracer().dumpTraces(server.getRequestTracer().getDefaultDumpFile());
+                            Log.log("Wrote the traces to " + server.getRequestTracer().getDefaultDumpFile().toAbsolutePath());
+                        } catch (IOException e) {
+                            Log.log("Failed to write the traces", e);
+                        }
+                        break;
+                    case "routing direct":
+                        EventManager.getInstance().publishEvent(new SwitchDirectRoutingEvent(true));
+                        break;
+                    case "routing shared":
+                        EventManager.getInstance().publishEvent(new SwitchDirectRoutingEvent(false));
+                        break;
                     case "help":
                         printHelp();
                         break;
@@ -58,7 +87,12 @@ public class ServerCli {
                         System.exit(0);
                         break;
                     default:
-                        Log.log("Command not recognized.");
+                        if (command.startsWith("show trace ")) {
+                            final String trace = server.getRequestTracer().getTrace(command.substring("show trace ".length()).trim());
+                            Log.log(trace == null ? "No trace of this request." : trace);
+                        } else {
+                            Log.log("Command not recognized.");
+                        }
                         break;
                 }
             }
@@ -77,6 +111,14 @@ public class ServerCli {
                 +"*show ip : Used for displaying the IP of the Server instance.\n"
                 +"*list requests : Lists the status of all registered requests\n"
                 +"*list services : Lists the status of all registered services\n"
+                +"*show cache : Shows size and hit rate of the cache of rendered entries\n"
+                +"*show events : Shows queue depth and dispatch latency of the asynchronous event listeners\n"
+                +"*top : Live view of requests, services, queues, latency, memory and cache, refreshed every second\n"
+                +"*show traces : Shows where the time of the recent requests went, hop by hop\n"
+                +"*show trace <request ID> : Shows where the time of the request went, incl. its slowest partials\n"
+                +"*dump traces : Writes the traces of the recent requests to requesttraces.txt\n"
+                +"*routing direct : Routes tasks over one queue per service, weighted by the measured throughput\n"
+                +"*routing shared : Lets all services compete for the tasks on the shared task queue (default)\n"
                 +"*help : Show this help (duh.)\n"
                 +"*exit : Hard Shutdown of the Server.\n"
                 +"___END HELP___";
@@ -0,0 +1,187 @@
+package server.view;
+
+import global.logging.Log;
+import global.logging.LogLevel;
+import global.metrics.LatencyHistogram;
+import global.metrics.Metrics;
+import server.modules.MicroServiceStatus;
+import server.modules.PartialResultCollector.RequestProgress;
+import server.modules.RenderedEntryCache;
+import server.modules.Server;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author daan
+ *         <p>
+ *         The "top" mode of the ServerCli: Redraws the progress of the requests, the throughput of the services, the
+ *         queue depths, latencies, memory use and cache hit rate once per second, until "q" is entered. The console
+ *         is line based, so the sort and filter keys are commands followed by enter. Messages below SEVERE aren't
+ *         logged meanwhile, they would scroll the view away.
+ */
+final class ServerTop {
+
+    private static final long REFRESH_MILLIS = 1000;
+    //Latency percentiles are taken over this many refreshes
+    private static final int LATENCY_WINDOW = 10;
+    private static final String CLEAR_SCREEN = "\033[H\033[2J";
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    private enum SortKey {
+        AGE(Comparator.comparingLong(RequestProgress::getAge).reversed()),
+        PROGRESS(Comparator.comparingDouble(RequestProgress::getProgress)),
+        ETA(Comparator.comparingLong(RequestProgress::getEstimatedTimeRemaining).reversed()),
+        ID(Comparator.comparing(RequestProgress::getRequestID));
+
+        private final Comparator<RequestProgress> comparator;
+
+        SortKey(Comparator<RequestProgress> comparator) {
+            this.comparator = comparator;
+        }
+    }
+
+    private final Server server;
+    private final Scanner consoleScanner;
+    private final PrintStream out = System.out;
+    private volatile SortKey sortKey = SortKey.AGE;
+    private volatile String filter = "";
+    //Only accessed by the refreshing thread
+    private final Deque<LatencyHistogram.Snapshot> latencyWindow = new ArrayDeque<>();
+    private long lastCollectedEntries = -1, lastReceivedPartials, lastRefreshNanos;
+
+    ServerTop(Server server, Scanner consoleScanner) {
+        this.server = server;
+        this.consoleScanner = consoleScanner;
+    }
+
+    /**
+     * Shows the view until "q" is entered.
+     */
+    void run() {
+        final LogLevel previousLevel = Log.getMinimumRequiredLevel();
+        Log.alterMinimumRequiredLevel(LogLevel.SEVERE);
+        final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "server-top");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refresher.scheduleAtFixedRate(this::refresh, 0, REFRESH_MILLIS, TimeUnit.MILLISECONDS);
+        try {
+            while (consoleScanner.hasNextLine()) {
+                final String command = consoleScanner.nextLine().trim();
+                if (command.equals("q"))
+                    break;
+                //Shown with the next refresh
+                handleCommand(command);
+            }
+        } finally {
+            refresher.shutdownNow();
+            Log.alterMinimumRequiredLevel(previousLevel);
+        }
+    }
+
+    private void handleCommand(String command) {
+        if (command.startsWith("s ")) {
+            try {
+                sortKey = SortKey.valueOf(command.substring(2).trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                //The help line lists the keys
+            }
+        } else if (command.equals("f")) {
+            filter = "";
+        } else if (command.startsWith("f ")) {
+            filter = command.substring(2).trim();
+        }
+    }
+
+    private void refresh() {
+        try {
+            out.print(CLEAR_SCREEN + render());
+            out.flush();
+        } catch (RuntimeException e) {
+            //An exception would cancel the refreshing
+            out.println("Failed to refresh : " + e);
+        }
+    }
+
+    private String render() {
+        final StringBuilder screen = new StringBuilder();
+        final long now = System.nanoTime();
+        final long collectedEntries = Metrics.counter("server.entriesCollected").getCount();
+        final long receivedPartials = Metrics.counter("server.partialsReceived").getCount();
+        double entriesPerSecond = 0, partialsPerSecond = 0;
+        if (lastCollectedEntries >= 0) {
+            final double seconds = Math.max(now - lastRefreshNanos, 1) / 1e9;
+            entriesPerSecond = (collectedEntries - lastCollectedEntries) / seconds;
+            partialsPerSecond = (receivedPartials - lastReceivedPartials) / seconds;
+        }
+        lastCollectedEntries = collectedEntries;
+        lastReceivedPartials = receivedPartials;
+        lastRefreshNanos = now;
+
+        final LatencyHistogram.Snapshot latency = Metrics.histogram("server.collect").getSnapshot();
+        latencyWindow.addLast(latency);
+        if (latencyWindow.size() > LATENCY_WINDOW + 1)
+            latencyWindow.removeFirst();
+        final LatencyHistogram.Snapshot recentLatency = latency.since(latencyWindow.peekFirst());
+
+        final List<RequestProgress> requests = server.getPartialResultCollector().getRequestProgress();
+        final long collectorChars = requests.stream().mapToLong(RequestProgress::getFinishedContentLength).sum();
+        final Map<String, Long> gauges = Metrics.getGaugeValues();
+        final MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        final RenderedEntryCache cache = server.getRenderedEntryCache();
+
+        screen.append(String.format("bib2html-text top - %s   (sort: %s, filter: %s)%n", LocalTime.now().format(TIME_FORMAT),
+                sortKey.name().toLowerCase(), filter.isEmpty() ? "none" : filter));
+        screen.append(String.format("Throughput : %.1f entries/s, %.1f partials/s, %d requests collecting, %d finished%n",
+                entriesPerSecond, partialsPerSecond, requests.size(), Metrics.counter("server.requestsFinished").getCount()));
+        screen.append(String.format("Tasks      : %d pending in the dispatcher, %d in the shared queue, %d in the direct queues%n",
+                gauges.getOrDefault("server.pendingTasks", 0L), gauges.getOrDefault("server.taskQueueDepth", 0L),
+                gauges.getOrDefault("server.directQueueDepth", 0L)));
+        screen.append(String.format("Latency    : p50 %.1f ms, p99 %.1f ms over the last %d s (dispatch -> collected, %d entries)%n",
+                recentLatency.getPercentileNanos(50) / 1e6, recentLatency.getPercentileNanos(99) / 1e6,
+                (latencyWindow.size() - 1) * REFRESH_MILLIS / 1000, recentLatency.getCount()));
+        screen.append(String.format("Memory     : collector holds %.1f MB of partials, heap %.1f of %.1f MB%n",
+                collectorChars * 2 / 1048576.0, heap.getUsed() / 1048576.0, heap.getMax() / 1048576.0));
+        screen.append(String.format("Cache      : hit rate %.1f%% (%d hits, %d misses, %d coalesced)%n%n",
+                cache.getHitRate() * 100, cache.getHits(), cache.getMisses(), cache.getCoalesced()));
+
+        screen.append(String.format("%-38s %8s %15s %9s %9s%n", "REQUEST", "PROGRESS", "PARTIALS", "AGE", "ETA"));
+        requests.stream()
+                .filter(request -> request.getRequestID().contains(filter))
+                .sorted(sortKey.comparator)
+                .forEach(request -> screen.append(String.format("%-38s %7.1f%% %15s %9s %9s%n", request.getRequestID(),
+                        request.getProgress() * 100, request.getFinishedSize() + "/" + request.getExpectedSize(),
+                        formatDuration(request.getAge()), formatDuration(request.getEstimatedTimeRemaining()))));
+
+        screen.append(String.format("%n%-38s %9s %10s %6s%n", "SERVICE", "IN FLIGHT", "ENTRIES/S", "CPU"));
+        for (MicroServiceStatus service : server.getMicroServiceManager().getMicroServiceStatuses()) {
+            screen.append(String.format("%-38s %9d %10.2f %6.2f%n", service.getServiceID(), service.getInFlightCount(),
+                    service.getThroughput(), service.getCpuLoad()));
+        }
+        screen.append("\ns <age|progress|eta|id> : sort, f <text> : filter requests by ID, f : no filter, q : quit\n");
+        return screen.toString();
+    }
+
+    /**
+     * @return the duration as "1h02m", "3m04s" or "5.6s", "-" if it's negative
+     */
+    private static String formatDuration(long millis) {
+        if (millis < 0)
+            return "-";
+        final long seconds = millis / 1000;
+        if (seconds >= 3600)
+            return String.format("%dh%02dm", seconds / 3600, seconds / 60 % 60);
+        if (seconds >= 60)
+            return String.format("%dm%02ds", seconds / 60, seconds % 60);
+        return String.format("%.1fs", millis / 1000.0);
+    }
+}
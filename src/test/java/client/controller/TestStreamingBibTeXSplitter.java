@@ -0,0 +1,183 @@
+package client.controller;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author daan
+ *         <p>
+ *         Tests the StreamingBibTeXSplitter on the files in test_files and on small files written for single cases:
+ *         each entry has to carry the preambles, the @string definitions it uses and the fields of its crossref target.
+ */
+public class TestStreamingBibTeXSplitter {
+
+    private static final File XAMPL = new File("test_files", "xampl.bib");
+    private static final File BTXDOC = new File("test_files", "btxdoc_invalid.bib");
+
+    private Path bibFile;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        bibFile = Files.createTempFile("splitter", ".bib");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        Files.delete(bibFile);
+    }
+
+    private static List<String> split(File file) throws IOException {
+        final List<String> entries = new ArrayList<>();
+        new StreamingBibTeXSplitter(file).split(entries::add);
+        return entries;
+    }
+
+    private List<String> split(String content) throws IOException {
+        Files.write(bibFile, content.getBytes(StandardCharsets.UTF_8));
+        return split(bibFile.toFile());
+    }
+
+    private static String find(List<String> entries, String key) {
+        return entries.stream().filter(entry -> entry.contains("{" + key + ",") || entry.contains("(" + key + ","))
+                .findFirst().orElseThrow(() -> new AssertionError("No entry " + key));
+    }
+
+    /**
+     * @return the text of the entry without the preambles and @string definitions in front of it
+     */
+    private static String withoutDependencies(String entry, String key) {
+        final int start = Math.max(entry.indexOf("{" + key + ","), entry.indexOf("(" + key + ","));
+        return entry.substring(entry.lastIndexOf('@', start));
+    }
+
+    @Test
+    public void splitsAllEntriesInTheOrderOfTheFile() throws IOException {
+        final List<String> entries = split(XAMPL);
+        //39 commands minus the @preamble and the 3 @strings
+        assertEquals(36, entries.size());
+        assertTrue(entries.get(0).contains("@ARTICLE{article-minimal,"));
+        assertTrue(entries.get(entries.size() - 1).contains("@MISC{random-note-crossref,"));
+        entries.forEach(entry -> assertFalse(entry.toLowerCase().contains("@comment")));
+    }
+
+    @Test
+    public void prependsThePreamblesToEveryEntry() throws IOException {
+        for (String entry : split(XAMPL)) {
+            assertTrue(entry.startsWith("@preamble{ \"\\newcommand{\\noopsort}[1]{} \""), entry);
+            assertTrue(entry.contains("\\newcommand{\\switchargs}[2]{#2#1} \" }"));
+        }
+    }
+
+    @Test
+    public void prependsOnlyTheMacrosAnEntryUses() throws IOException {
+        final List<String> entries = split(XAMPL);
+        final String minimal = find(entries, "inproceedings-minimal");
+        assertTrue(minimal.contains("@STRING{STOC = \" Symposium on the Theory of Computing\"}"));
+        assertFalse(minimal.contains("@STRING{ACM"));
+        assertFalse(minimal.contains("@STRING{STOC-key"));
+
+        final String full = find(entries, "inproceedings-full");
+        assertTrue(full.contains("@STRING{ACM = \"The OX Association for Computing Machinery\"}"));
+        assertTrue(full.contains("@STRING{STOC = "));
+
+        assertFalse(find(entries, "article-minimal").contains("@STRING"));
+        //Undefined macros like the months are left to the converter
+        assertFalse(find(entries, "misc-full").contains("@STRING"));
+    }
+
+    @Test
+    public void resolvesMacrosCaseInsensitively() throws IOException {
+        final String manual = find(split(BTXDOC), "scribe");
+        assertTrue(manual.contains("@string(SCRIBE-NOTE = {Chapter twelve and appendices E8 through E10 deal"), manual);
+    }
+
+    @Test
+    public void resolvesMacrosTransitivelyInTheOrderOfTheFile() throws IOException {
+        final List<String> entries = split("@string{first = \"First\"}\n"
+                + "@string{unused = \"Unused\"}\n"
+                + "@string{second = first # \" and second\"}\n"
+                + "@string{third = {Third, } # second}\n"
+                + "@misc{key,\n  title = {unused, in braces},\n  note = third\n}\n");
+        assertEquals(1, entries.size());
+        final String entry = entries.get(0);
+        final String first = "@string{first = \"First\"}", second = "@string{second = first # \" and second\"}",
+                third = "@string{third = {Third, } # second}";
+        assertTrue(entry.indexOf(first) >= 0 && entry.indexOf(first) < entry.indexOf(second)
+                && entry.indexOf(second) < entry.indexOf(third) && entry.indexOf(third) < entry.indexOf("@misc"), entry);
+        assertFalse(entry.contains("@string{unused"));
+    }
+
+    @Test
+    public void inheritsTheFieldsOfTheCrossrefTargetWithItsMacros() throws IOException {
+        final List<String> entries = split(XAMPL);
+        //The key is matched case-insensitively
+        final String article = withoutDependencies(find(entries, "article-crossref"), "article-crossref");
+        assertTrue(article.startsWith("@ARTICLE{article-crossref,"), article);
+        assertTrue(article.contains("journal = {\\mbox{G-Animal's} Journal}"), article);
+        assertTrue(article.contains("volume = 41"), article);
+        //Fields of the entry win over the inherited ones
+        assertTrue(article.contains("note = \"This is a cross-referencing ARTICLE entry\""), article);
+        assertFalse(article.contains("The entire issue"), article);
+        assertFalse(article.contains("key = \"GAJ\""), article);
+        assertFalse(article.toLowerCase().contains("crossref ="), article);
+
+        //The target uses the macros, the referencing entry doesn't
+        final String inproceedings = find(entries, "inproceedings-crossref");
+        assertTrue(inproceedings.contains("@STRING{STOC-key = "));
+        assertTrue(inproceedings.contains("@STRING{ACM = "));
+        assertTrue(inproceedings.contains("booktitle = \"Proc. Fifteenth Annual ACM\" # STOC"), inproceedings);
+
+        //The target itself is emitted as entry, too
+        assertFalse(withoutDependencies(find(entries, "whole-journal"), "whole-journal").contains("article-crossref"));
+    }
+
+    @Test
+    public void convertsACrossrefChildAsExactlyOneEntry() throws IOException {
+        //Pandoc renders every entry of the text with nocite: "@*", so the child must not carry its target
+        for (String key : new String[]{"article-crossref", "inproceedings-crossref", "random-note-crossref"}) {
+            final List<String> resplit = split(find(split(XAMPL), key));
+            assertEquals(1, resplit.size(), key);
+            assertTrue(resplit.get(0).contains("{" + key + ","), key);
+        }
+    }
+
+    @Test
+    public void keepsBracesQuotesAndDelimitersInsideOfFields() throws IOException {
+        final String braced = "@misc{braced,\n  title = {A {Nested} \"quote\", a ) and a , inside},\n  url = {http://example.org/a,b@c}\n}";
+        final String quoted = "@misc(quoted,\n  title = \"A ) in quotes and {\\\"o} {\"}\",\n  note = {(}\n)";
+        final List<String> entries = split(braced + "\n" + quoted + "\n@misc{last, note = \"}\"}\n");
+        assertEquals(3, entries.size());
+        assertEquals(braced, entries.get(0));
+        assertEquals(quoted, entries.get(1));
+        assertEquals("@misc{last, note = \"}\"}", entries.get(2));
+    }
+
+    @Test
+    public void ignoresTextOutsideOfEntries() throws IOException {
+        assertEquals(split(new File("test_files", "mybib.bib")), split(new File("test_files", "mybib_invalid.bib")));
+
+        final List<String> entries = split(BTXDOC);
+        assertEquals(10, entries.size());
+        //The @, the type and the opening delimiter of an entry may be separated by whitespace
+        assertTrue(find(entries, "scribe").contains("@MaNuAl(scribe,"));
+    }
+
+    @Test
+    public void rejectsAnEntryThatIsNotClosed() throws IOException {
+        Files.write(bibFile, "@misc{first, note = {x}}\n@misc{second,\n  title = {Not closed}\n".getBytes(StandardCharsets.UTF_8));
+        assertFalse(StreamingBibTeXSplitter.isValid(bibFile.toFile()));
+        assertThrows(IOException.class, () -> split(bibFile.toFile()));
+        assertTrue(StreamingBibTeXSplitter.isValid(XAMPL));
+    }
+}
@@ -0,0 +1,85 @@
+package client.model;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * @author daan
+ *         <p>
+ *         Tests that a ConversionManifest keeps the partials of every style and template converted before, until their
+ *         entry is removed from the .bib-file.
+ */
+public class TestConversionManifest {
+
+    private final File bibFile = new File("test_files", "xampl.bib");
+    private Path manifestDirectory;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        manifestDirectory = Files.createTempDirectory("manifests");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        for (Path file : Files.list(manifestDirectory).toArray(Path[]::new))
+            Files.delete(file);
+        Files.delete(manifestDirectory);
+    }
+
+    private static Map<String, Map<String, String>> partials(String entryHash, String partialHash, String content) {
+        final Map<String, Map<String, String>> partials = new HashMap<>();
+        partials.put(entryHash, new HashMap<>(Collections.singletonMap(partialHash, content)));
+        return partials;
+    }
+
+    @Test
+    public void keepsThePartialsOfOtherStyles() {
+        final Set<String> entryHashes = new HashSet<>(Arrays.asList("entry1", "entry2"));
+        final Map<String, Map<String, String>> styleA = partials("entry1", "entry1-styleA", "<p>A1</p>");
+        styleA.putAll(partials("entry2", "entry2-styleA", "<p>A2</p>"));
+        ConversionManifest.load(bibFile, manifestDirectory).save(entryHashes, styleA);
+        ConversionManifest.load(bibFile, manifestDirectory).save(entryHashes, partials("entry1", "entry1-styleB", "<p>B1</p>"));
+
+        final ConversionManifest manifest = ConversionManifest.load(bibFile, manifestDirectory);
+        assertEquals("<p>A1</p>", manifest.get("entry1", "entry1-styleA"));
+        assertEquals("<p>A2</p>", manifest.get("entry2", "entry2-styleA"));
+        assertEquals("<p>B1</p>", manifest.get("entry1", "entry1-styleB"));
+        assertNull(manifest.get("entry2", "entry2-styleB"));
+    }
+
+    @Test
+    public void dropsTheEntriesRemovedFromTheFile() {
+        final Map<String, Map<String, String>> rendered = partials("entry1", "entry1-styleA", "<p>A1</p>");
+        rendered.putAll(partials("entry2", "entry2-styleA", "<p>A2</p>"));
+        ConversionManifest.load(bibFile, manifestDirectory).save(new HashSet<>(Arrays.asList("entry1", "entry2")), rendered);
+        //entry2 was removed, entry3 added
+        ConversionManifest.load(bibFile, manifestDirectory).save(new HashSet<>(Arrays.asList("entry1", "entry3")),
+                partials("entry3", "entry3-styleA", "<p>A3</p>"));
+
+        final ConversionManifest manifest = ConversionManifest.load(bibFile, manifestDirectory);
+        assertEquals("<p>A1</p>", manifest.get("entry1", "entry1-styleA"));
+        assertNull(manifest.get("entry2", "entry2-styleA"));
+        assertEquals("<p>A3</p>", manifest.get("entry3", "entry3-styleA"));
+    }
+
+    @Test
+    public void startsEmptyWithAManifestOfAnOlderVersion() throws IOException {
+        ConversionManifest.load(bibFile, manifestDirectory).save(Collections.singleton("entry1"), partials("entry1", "partial", "<p>1</p>"));
+        final Path manifestPath = Files.list(manifestDirectory).findFirst().orElseThrow(AssertionError::new);
+        final HashMap<String, String> oldManifest = new HashMap<>(Collections.singletonMap("partial", "<p>1</p>"));
+        Files.write(manifestPath, SerializationUtils.serialize(oldManifest));
+
+        assertNull(ConversionManifest.load(bibFile, manifestDirectory).get("entry1", "partial"));
+    }
+}
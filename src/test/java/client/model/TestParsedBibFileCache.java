@@ -0,0 +1,68 @@
+package client.model;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author daan
+ *         <p>
+ *         Tests that the ParsedBibFileCache keeps no more entry text than its limit, dropping the least recently used
+ *         files first.
+ */
+public class TestParsedBibFileCache {
+
+    private static final String ENTRY = "@misc{key, note = {0123456789}}";
+
+    private Path directory;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("parsed-bib-files");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        for (File file : directory.toFile().listFiles())
+            Files.delete(file.toPath());
+        Files.delete(directory);
+    }
+
+    private File write(String name) throws IOException {
+        return Files.write(directory.resolve(name), ENTRY.getBytes(StandardCharsets.UTF_8)).toFile();
+    }
+
+    @Test
+    public void dropsTheLeastRecentlyUsedFilesBeyondTheLimit() throws IOException {
+        final ParsedBibFileCache cache = new ParsedBibFileCache(2 * ENTRY.length());
+        final File first = write("first.bib"), second = write("second.bib"), third = write("third.bib");
+        assertEquals(1, cache.getEntryContents(first).size());
+        assertEquals(1, cache.getEntryContents(second).size());
+        //Makes second the least recently used one
+        cache.getEntryContents(first);
+        cache.getEntryContents(third);
+        assertTrue(cache.isCached(first));
+        assertFalse(cache.isCached(second));
+        assertTrue(cache.isCached(third));
+    }
+
+    @Test
+    public void keepsNoFileLargerThanTheLimit() throws IOException {
+        final ParsedBibFileCache cache = new ParsedBibFileCache(ENTRY.length() - 1);
+        final File file = write("large.bib");
+        final List<String> entryContents = cache.getEntryContents(file);
+        assertEquals(1, entryContents.size());
+        assertFalse(cache.isCached(file));
+        //Still split on demand
+        assertEquals(entryContents, cache.getEntryContents(file));
+    }
+}
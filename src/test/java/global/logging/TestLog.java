@@ -0,0 +1,82 @@
+package global.logging;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @author daan
+ *         <p>
+ *         Tests the ring buffer of the Log without its writer thread: messages are written in order and in batches,
+ *         messages logged while the buffer is full are dropped and counted.
+ */
+public class TestLog {
+
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    private Log createLog(int bufferCapacity) {
+        final Log log = new Log(bufferCapacity, false);
+        log.setOutputStream(output);
+        return log;
+    }
+
+    private List<String> readLines() {
+        final String text = new String(output.toByteArray(), StandardCharsets.UTF_8);
+        output.reset();
+        return text.isEmpty() ? Arrays.asList() : Arrays.asList(text.split("\n"));
+    }
+
+    @Test
+    public void writesTheMessagesInOrderAcrossTheEndOfTheBuffer() {
+        final Log log = createLog(4);
+        final ByteArrayOutputStream batch = new ByteArrayOutputStream();
+        log.printOut("first");
+        log.printOut("second");
+        log.printOut("third");
+        assertEquals(3, log.writeBatch(batch));
+        assertEquals(Arrays.asList("first", "second", "third"), readLines());
+
+        //Wraps around the end of the buffer
+        log.printOut("fourth");
+        log.printOut("f\u00fcnfte");
+        log.printOut(null);
+        assertEquals(3, log.writeBatch(batch));
+        assertEquals(Arrays.asList("fourth", "f\u00fcnfte", "null"), readLines());
+        assertEquals(0, log.writeBatch(batch));
+        assertEquals(Arrays.asList(), readLines());
+    }
+
+    @Test
+    public void dropsAndCountsTheMessagesLoggedWhileTheBufferIsFull() {
+        final Log log = createLog(2);
+        final ByteArrayOutputStream batch = new ByteArrayOutputStream();
+        log.printOut("first");
+        log.printOut("second");
+        log.printOut("dropped");
+        log.printOut("dropped too");
+        assertEquals(2, log.writeBatch(batch));
+        assertEquals(Arrays.asList("[Log] Dropped 2 messages, the log buffer was full.", "first", "second"), readLines());
+
+        //There is room again, the count starts over
+        log.printOut("third");
+        assertEquals(1, log.writeBatch(batch));
+        assertEquals(Arrays.asList("third"), readLines());
+    }
+
+    @Test
+    public void writesAtMostOneBatchAtOnce() {
+        final Log log = createLog(1024);
+        final ByteArrayOutputStream batch = new ByteArrayOutputStream();
+        for (int i = 0; i < 600; i++)
+            log.printOut("message " + i);
+        assertEquals(512, log.writeBatch(batch));
+        assertEquals(512, readLines().size());
+        assertEquals(88, log.writeBatch(batch));
+        assertEquals("message 599", readLines().get(87));
+    }
+}
@@ -0,0 +1,111 @@
+package global.logging;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * @author daan
+ *         <p>
+ *         Tests the PerfLog without its flush timer: files exceeding the maximum size are rotated and only the last
+ *         values of a key are kept in memory.
+ */
+public class TestPerfLog {
+
+    private static final String KEY = "key";
+
+    private Path directory;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("perflog");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        //The logging state is shared by all instances
+        new PerfLog(Long.MAX_VALUE, 1, false).setLoggingActive(false);
+        for (Path file : Files.list(directory).toArray(Path[]::new))
+            Files.delete(file);
+        Files.delete(directory);
+    }
+
+    private PerfLog createPerfLog(long maximumFileSize, int recentValuesCapacity) {
+        final PerfLog perfLog = new PerfLog(maximumFileSize, recentValuesCapacity, false);
+        perfLog.setOutputDirectory(directory.toFile());
+        perfLog.setLoggingActive(true);
+        return perfLog;
+    }
+
+    private String read(String fileName) throws IOException {
+        return new String(Files.readAllBytes(directory.resolve(fileName)), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void rotatesFilesExceedingTheMaximumSize() throws IOException {
+        //"key;value1;" already exceeds the maximum size, every flush after the first one rotates
+        final PerfLog perfLog = createPerfLog(10, 16);
+        for (int value = 1; value <= 8; value++) {
+            perfLog.writeContentLog(KEY, "value" + value, true);
+            perfLog.writeToFiles();
+        }
+        assertEquals("key;value8;", read("key.csv"));
+        for (int index = 1; index <= 5; index++)
+            assertEquals("key;value" + (8 - index) + ";", read("key.csv." + index));
+        //The oldest files are deleted
+        assertFalse(Files.exists(directory.resolve("key.csv.6")));
+        assertEquals(6, Files.list(directory).count());
+    }
+
+    @Test
+    public void appendsToTheCurrentFileBelowTheMaximumSize() throws IOException {
+        final PerfLog perfLog = createPerfLog(1024, 16);
+        perfLog.writeContentLog(KEY, "first", true);
+        perfLog.writeToFiles();
+        perfLog.writeContentLog(KEY, "second", true);
+        perfLog.writeContentLog(KEY, "third", true);
+        perfLog.writeToFiles();
+        assertEquals("key;first;second;third;", read("key.csv"));
+        assertFalse(Files.exists(directory.resolve("key.csv.1")));
+
+        //Overwriting truncates the file, which starts with the key again
+        perfLog.writeContentLog(KEY, "overwritten", false);
+        perfLog.writeToFiles();
+        assertEquals("key;overwritten", read("key.csv"));
+    }
+
+    @Test
+    public void keepsOnlyTheMostRecentValues() {
+        final PerfLog perfLog = createPerfLog(1024, 4);
+        assertEquals(Arrays.asList(), perfLog.recentValuesOf(KEY));
+        perfLog.writeContentLog(KEY, "1", true);
+        perfLog.writeContentLog(KEY, "2", true);
+        perfLog.writeContentLog(KEY, "3", true);
+        assertEquals(Arrays.asList("1", "2", "3"), perfLog.recentValuesOf(KEY));
+
+        //Wraps around the end of the ring, the oldest values are dropped
+        perfLog.writeContentLog(KEY, "4", true);
+        perfLog.writeContentLog(KEY, "5", false);
+        perfLog.writeContentLog(KEY, "6", true);
+        assertEquals(Arrays.asList("3", "4", "5", "6"), perfLog.recentValuesOf(KEY));
+    }
+
+    @Test
+    public void remembersValuesWhileLoggingIsInactive() {
+        final PerfLog perfLog = createPerfLog(1024, 4);
+        perfLog.setLoggingActive(false);
+        perfLog.writeContentLog(KEY, "1", true);
+        perfLog.writeToFiles();
+        assertEquals(Arrays.asList("1"), perfLog.recentValuesOf(KEY));
+        assertFalse(Files.exists(directory.resolve("key.csv")));
+    }
+}
@@ -0,0 +1,89 @@
+package global.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author daan
+ *         <p>
+ *         Tests the bucket math of the LatencyHistogram: small durations are exact, larger ones are overestimated by
+ *         at most 1 / 32 of their value and durations beyond the trackable range keep their exact maximum.
+ */
+public class TestLatencyHistogram {
+
+    @Test
+    public void countsSmallDurationsExactly() {
+        final LatencyHistogram histogram = new LatencyHistogram("test");
+        for (long nanos = 0; nanos < 32; nanos++)
+            histogram.record(nanos);
+        final LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+        assertEquals(32, snapshot.getCount());
+        assertEquals(0, snapshot.getPercentileNanos(0));
+        assertEquals(15, snapshot.getPercentileNanos(50));
+        assertEquals(31, snapshot.getPercentileNanos(100));
+        assertEquals(31 * 32 / 2, snapshot.getTotalNanos());
+    }
+
+    @Test
+    public void overestimatesPercentilesByAtMostOneSubBucket() {
+        final LatencyHistogram histogram = new LatencyHistogram("test");
+        final long[] values = new long[100_000];
+        final Random random = new Random(42);
+        for (int i = 0; i < values.length; i++) {
+            //Spread over many powers of two
+            values[i] = (long) Math.pow(2, 5 + random.nextDouble() * 30);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        final LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+        for (double percentile : new double[]{1, 10, 50, 90, 99, 99.9, 100}) {
+            final long exact = values[(int) Math.ceil(percentile / 100 * values.length) - 1];
+            final long estimate = snapshot.getPercentileNanos(percentile);
+            assertTrue(estimate >= exact && estimate <= exact + exact / 32, percentile + " : " + estimate + " vs. " + exact);
+        }
+        assertEquals(values[values.length - 1], snapshot.getMaximumNanos());
+        assertEquals(Arrays.stream(values).sum(), snapshot.getTotalNanos());
+    }
+
+    @Test
+    public void keepsTheMaximumOfUntrackableDurations() {
+        final LatencyHistogram histogram = new LatencyHistogram("test");
+        final long untrackable = LatencyHistogram.MAXIMUM_TRACKABLE_NANOS * 4;
+        histogram.record(1, TimeUnit.MILLISECONDS);
+        histogram.record(untrackable);
+        final LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+        assertEquals(untrackable, snapshot.getMaximumNanos());
+        assertEquals(untrackable, snapshot.getPercentileNanos(100));
+        assertTrue(snapshot.getPercentileNanos(50) >= TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    @Test
+    public void recordsNegativeDurationsAsZero() {
+        final LatencyHistogram histogram = new LatencyHistogram("test");
+        histogram.record(-5);
+        final LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+        assertEquals(1, snapshot.getCount());
+        assertEquals(0, snapshot.getPercentileNanos(100));
+        assertEquals(0, snapshot.getTotalNanos());
+    }
+
+    @Test
+    public void subtractsAnEarlierSnapshot() {
+        final LatencyHistogram histogram = new LatencyHistogram("test");
+        histogram.record(1_000_000);
+        final LatencyHistogram.Snapshot earlier = histogram.getSnapshot();
+        histogram.record(100);
+        histogram.record(200);
+        final LatencyHistogram.Snapshot difference = histogram.getSnapshot().since(earlier);
+        assertEquals(2, difference.getCount());
+        assertEquals(300, difference.getTotalNanos());
+        assertTrue(difference.getMaximumNanos() >= 200 && difference.getMaximumNanos() < 1_000_000);
+        assertEquals(0, new LatencyHistogram("empty").getSnapshot().getPercentileNanos(50));
+    }
+}
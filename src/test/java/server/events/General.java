@@ -1,7 +1,14 @@
 package server.events;
 
-import java.util.HashSet;
-import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
 
 /**
  * @author Maximilian Schirm
@@ -102,6 +109,166 @@ public class General {
         log("Registered consumer at manager!");
     }
 
+    private interface MarkerEvent extends IEvent {
+    }
+
+    private static class BaseEvent implements IEvent {
+    }
+
+    private static class DerivedEvent extends BaseEvent implements MarkerEvent {
+    }
+
+    private static class UnobservedEvent implements IEvent {
+    }
+
+    /**
+     * Records the events it is notified of.
+     */
+    private static class RecordingListener implements IEventListener {
+        private final Set<Class<? extends IEvent>> events;
+        final List<IEvent> received = new ArrayList<>();
+
+        @SafeVarargs
+        private RecordingListener(Class<? extends IEvent>... events) {
+            this.events = new HashSet<>(Arrays.asList(events));
+        }
+
+        @Override
+        public void notify(IEvent toNotify) {
+            received.add(toNotify);
+        }
+
+        @Override
+        public Set<Class<? extends IEvent>> getEvents() {
+            return events;
+        }
+    }
+
+    @Test
+    public void dispatchesToListenersOfSuperclassesAndInterfaces() {
+        final RecordingListener exactListener = new RecordingListener(DerivedEvent.class);
+        final RecordingListener superclassListener = new RecordingListener(BaseEvent.class);
+        final RecordingListener interfaceListener = new RecordingListener(MarkerEvent.class);
+        //Registered for two matching types, it is still notified once
+        final RecordingListener doubleListener = new RecordingListener(BaseEvent.class, MarkerEvent.class);
+        final List<RecordingListener> listeners = Arrays.asList(exactListener, superclassListener, interfaceListener, doubleListener);
+        listeners.forEach(EventManager.getInstance()::registerListener);
+        try {
+            final IEvent derivedEvent = new DerivedEvent();
+            EventManager.getInstance().publishEvent(derivedEvent);
+            for (RecordingListener listener : listeners)
+                assertEquals(Collections.singletonList(derivedEvent), listener.received);
+
+            //A listener of a subclass isn't notified of the superclass
+            final IEvent baseEvent = new BaseEvent();
+            EventManager.getInstance().publishEvent(baseEvent);
+            assertEquals(Collections.singletonList(derivedEvent), exactListener.received);
+            assertEquals(Collections.singletonList(derivedEvent), interfaceListener.received);
+            assertEquals(Arrays.asList(derivedEvent, baseEvent), superclassListener.received);
+        } finally {
+            listeners.forEach(EventManager.getInstance()::unregisterListener);
+        }
+    }
+
+    @Test
+    public void ignoresEventsWithoutListeners() {
+        final RecordingListener listener = new RecordingListener(BaseEvent.class);
+        EventManager.getInstance().registerListener(listener);
+        try {
+            EventManager.getInstance().publishEvent(new UnobservedEvent());
+            assertTrue(listener.received.isEmpty());
+        } finally {
+            EventManager.getInstance().unregisterListener(listener);
+        }
+        //Not even the listener registered for the class before
+        EventManager.getInstance().publishEvent(new BaseEvent());
+        assertTrue(listener.received.isEmpty());
+    }
+
+    /**
+     * Records the events it is notified of on the thread of its executor, each event blocks until it is released.
+     */
+    private static class BlockingListener extends RecordingListener {
+        private final Semaphore released = new Semaphore(0);
+        private final Semaphore notified = new Semaphore(0);
+        private volatile Thread notifiedThread;
+
+        private BlockingListener() {
+            super(BaseEvent.class);
+        }
+
+        @Override
+        public void notify(IEvent toNotify) {
+            notifiedThread = Thread.currentThread();
+            synchronized (this) {
+                super.notify(toNotify);
+            }
+            notified.release();
+            released.acquireUninterruptibly();
+        }
+
+        private synchronized List<IEvent> getReceived() {
+            return new ArrayList<>(received);
+        }
+    }
+
+    private static List<IEvent> publishBaseEvents(int count) {
+        final List<IEvent> events = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            final IEvent event = new BaseEvent();
+            events.add(event);
+            EventManager.getInstance().publishEvent(event);
+        }
+        return events;
+    }
+
+    @Test
+    public void notifiesAsyncListenersInPublishingOrder() throws InterruptedException {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final BlockingListener listener = new BlockingListener();
+        listener.released.release(Integer.MAX_VALUE / 2);
+        EventManager.getInstance().registerAsyncListener(listener, executor, 1000);
+        try {
+            //More than one batch of deliveries
+            final List<IEvent> published = publishBaseEvents(600);
+            assertTrue(listener.notified.tryAcquire(published.size(), 10, TimeUnit.SECONDS));
+            assertEquals(published, listener.getReceived());
+            assertNotSame(Thread.currentThread(), listener.notifiedThread);
+        } finally {
+            EventManager.getInstance().unregisterListener(listener);
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void makesPublishersWaitWhileTheQueueIsFull() throws InterruptedException {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        final BlockingListener listener = new BlockingListener();
+        EventManager.getInstance().registerAsyncListener(listener, executor, 2);
+        try {
+            final List<IEvent> published = Collections.synchronizedList(new ArrayList<>());
+            final Thread publisher = new Thread(() -> published.addAll(publishBaseEvents(4)));
+            publisher.start();
+            //The listener blocks on the first event, the next two fill the queue and the fourth has to wait
+            assertTrue(listener.notified.tryAcquire(10, TimeUnit.SECONDS));
+            final long waitEnd = System.currentTimeMillis() + 10000;
+            while (publisher.getState() != Thread.State.WAITING && System.currentTimeMillis() < waitEnd)
+                Thread.sleep(10);
+            assertEquals(Thread.State.WAITING, publisher.getState());
+            assertEquals(1, listener.getReceived().size());
+
+            listener.released.release(4);
+            publisher.join(10000);
+            assertFalse(publisher.isAlive());
+            assertTrue(listener.notified.tryAcquire(3, 10, TimeUnit.SECONDS));
+            //No event is lost
+            assertEquals(published, listener.getReceived());
+        } finally {
+            EventManager.getInstance().unregisterListener(listener);
+            executor.shutdown();
+        }
+    }
+
     private static void log(String msg){
         System.out.println(msg);
     }
@@ -0,0 +1,137 @@
+package server.modules;
+
+import global.identifiers.EntryIdentifier;
+import global.identifiers.PartialResultIdentifier;
+import global.model.DefaultEntry;
+import global.model.DefaultPartialResult;
+import global.model.IEntry;
+import global.model.IPartialResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import server.events.*;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author daan
+ *         <p>
+ *         Tests the dropping of duplicate partials and the detection of stragglers by the PartialResultCollector.
+ */
+public class TestPartialResultCollector {
+
+    private final PartialResultCollector collector = PartialResultCollector.getInstance();
+    private final List<StragglerDetectedEvent> stragglerEvents = Collections.synchronizedList(new ArrayList<>());
+    private final List<String> requestIDs = new ArrayList<>();
+
+    private final IEventListener stragglerListener = new IEventListener() {
+        @Override
+        public void notify(IEvent toNotify) {
+            stragglerEvents.add((StragglerDetectedEvent) toNotify);
+        }
+
+        @Override
+        public Set<Class<? extends IEvent>> getEvents() {
+            return Collections.singleton(StragglerDetectedEvent.class);
+        }
+    };
+
+    @BeforeEach
+    public void setUp() {
+        EventManager.getInstance().registerListener(stragglerListener);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        EventManager.getInstance().unregisterListener(stragglerListener);
+        requestIDs.forEach(requestID -> collector.notify(new RequestStoppedEvent(requestID)));
+    }
+
+    private String acceptRequest(int expectedSize, int partialsPerEntry) {
+        final String requestID = UUID.randomUUID().toString();
+        requestIDs.add(requestID);
+        collector.notify(new RequestAcceptedEvent(requestID, expectedSize, partialsPerEntry, 0));
+        return requestID;
+    }
+
+    private static IEntry createEntry(String requestID, int position) {
+        return new DefaultEntry.Builder("client")
+                .requestID(requestID)
+                .content("@misc{entry" + position + "}")
+                .cslFiles(new ArrayList<>())
+                .templateFiles(new ArrayList<>())
+                .bibFileIndex(0)
+                .positionInBibFile(position)
+                .build();
+    }
+
+    private void receive(String requestID, int position, int cslFileIndex, int templateFileIndex) {
+        final IPartialResult partialResult = new DefaultPartialResult("<p>" + position + "</p>", new PartialResultIdentifier(
+                new EntryIdentifier("client", requestID, 0, position), cslFileIndex, templateFileIndex));
+        collector.notify(new ReceivedPartialResultEvent(partialResult));
+    }
+
+    private int getFinishedSize(String requestID) {
+        return collector.getRequestProgress().stream()
+                .filter(progress -> progress.getRequestID().equals(requestID))
+                .findFirst().orElseThrow(AssertionError::new).getFinishedSize();
+    }
+
+    @Test
+    public void dropsDuplicatePartials() {
+        final String requestID = acceptRequest(4, 2);
+        receive(requestID, 0, 0, 0);
+        receive(requestID, 0, 0, 0);
+        receive(requestID, 0, 1, 0);
+        assertEquals(2, getFinishedSize(requestID));
+
+        //The entry is complete, no more partials are accepted for it
+        receive(requestID, 0, 2, 0);
+        assertEquals(2, getFinishedSize(requestID));
+    }
+
+    @Test
+    public void acceptsAllPartialsOfAnAbortedConversion() {
+        final String requestID = acceptRequest(4, 2);
+        final int aborted = PartialResultIdentifier.ABORTED_CONVERSION_INDEX;
+        receive(requestID, 0, aborted, aborted);
+        receive(requestID, 0, aborted, aborted);
+        receive(requestID, 0, aborted, aborted);
+        assertEquals(2, getFinishedSize(requestID));
+    }
+
+    @Test
+    public void dispatchesStragglersOnceWhenFewEntriesAreMissing() throws InterruptedException {
+        //Completes enough entries to have latency samples
+        final String warmupRequestID = acceptRequest(20, 1);
+        for (int position = 0; position < 20; position++) {
+            collector.notify(new TaskDispatchedEvent(createEntry(warmupRequestID, position), "service"));
+            receive(warmupRequestID, position, 0, 0);
+        }
+
+        final String requestID = acceptRequest(100, 1);
+        final String missingRequestID = acceptRequest(100, 1);
+        for (int position = 0; position < 100; position++) {
+            collector.notify(new TaskDispatchedEvent(createEntry(requestID, position), "service"));
+            collector.notify(new TaskDispatchedEvent(createEntry(missingRequestID, position), "service"));
+            if (position != 42)
+                receive(requestID, position, 0, 0);
+            //Too many entries are missing to speculate
+            if (position < 90)
+                receive(missingRequestID, position, 0, 0);
+        }
+        //Older than the minimum straggler age
+        Thread.sleep(1100);
+        collector.update();
+        collector.update();
+
+        assertEquals(1, stragglerEvents.size());
+        final StragglerDetectedEvent stragglerEvent = stragglerEvents.get(0);
+        assertEquals(new EntryIdentifier("client", requestID, 0, 42), stragglerEvent.getStraggler().getEntryIdentifier());
+        assertEquals("service", stragglerEvent.getServiceID());
+        assertTrue(stragglerEvents.stream().noneMatch(event -> event.getStraggler().getEntryIdentifier().getRequestID().equals(missingRequestID)));
+    }
+}
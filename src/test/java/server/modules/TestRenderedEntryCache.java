@@ -0,0 +1,143 @@
+package server.modules;
+
+import global.identifiers.PartialResultIdentifier;
+import global.model.DefaultEntry;
+import global.model.DefaultPartialResult;
+import global.model.IEntry;
+import global.model.IPartialResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import server.events.EventManager;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author daan
+ *         <p>
+ *         Tests the RenderedEntryCache: cached partials and copies for subscribed entries are identified as partials
+ *         of the entry they are handed to, identical entries are converted once and a conversion is handed over when
+ *         its request is closed.
+ */
+public class TestRenderedEntryCache {
+
+    private static final List<String> CSL_FILES = Arrays.asList("csl A", "csl B");
+
+    private Path directory;
+    private RenderedEntryCache cache;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("renderedentrycache");
+        cache = new RenderedEntryCache(directory, 1024 * 1024);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        EventManager.getInstance().unregisterListener(cache);
+        for (Path file : Files.list(directory).toArray(Path[]::new))
+            Files.delete(file);
+        Files.delete(directory);
+    }
+
+    private static IEntry createEntry(String requestID, int position, String content) {
+        return new DefaultEntry.Builder("client")
+                .requestID(requestID)
+                .content(content)
+                .cslFiles(new ArrayList<>(CSL_FILES))
+                .templateFiles(new ArrayList<>())
+                .bibFileIndex(0)
+                .positionInBibFile(position)
+                .build();
+    }
+
+    private static IPartialResult createPartial(IEntry entry, int cslFileIndex) {
+        return new DefaultPartialResult("<p>" + entry.getContent() + cslFileIndex + "</p>",
+                new PartialResultIdentifier(entry.getEntryIdentifier(), cslFileIndex, -1));
+    }
+
+    /**
+     * @return the csl file indices of the partials, by the entry they are identified as
+     */
+    private static Map<Object, List<Integer>> byEntry(List<IPartialResult> partialResults) {
+        final Map<Object, List<Integer>> cslFileIndices = new HashMap<>();
+        for (IPartialResult partialResult : partialResults) {
+            final PartialResultIdentifier identifier = (PartialResultIdentifier) partialResult.getIdentifier();
+            cslFileIndices.computeIfAbsent(identifier.getEntryIdentifier(), key -> new ArrayList<>()).add(identifier.getCslFileIndex());
+        }
+        return cslFileIndices;
+    }
+
+    @Test
+    public void identifiesCachedPartialsAsPartialsOfTheLookedUpEntry() {
+        final IEntry converted = createEntry("first", 0, "@misc{same}");
+        assertNull(cache.lookup(converted, 0));
+        assertTrue(cache.offer(createPartial(converted, 0)).isEmpty());
+        assertTrue(cache.offer(createPartial(converted, 1)).isEmpty());
+
+        //An identical entry of another request at another position
+        final IEntry identical = createEntry("second", 3, "@misc{same}");
+        final List<IPartialResult> cachedPartials = cache.lookup(identical, 0);
+        assertEquals(2, cachedPartials.size());
+        assertEquals(Collections.singletonMap(identical.getEntryIdentifier(), Arrays.asList(0, 1)), byEntry(cachedPartials));
+        assertEquals("<p>@misc{same}1</p>", cachedPartials.get(1).getContent());
+
+        //Another entry misses
+        assertNull(cache.lookup(createEntry("second", 4, "@misc{other}"), 0));
+    }
+
+    @Test
+    public void coalescesIdenticalEntriesWhileTheFirstIsInFlight() {
+        final IEntry converted = createEntry("first", 0, "@misc{same}");
+        final IEntry subscribed = createEntry("second", 1, "@misc{same}");
+        final IEntry urgent = createEntry("third", 2, "@misc{same}");
+        assertNull(cache.lookup(converted, 0));
+        assertEquals(Collections.emptyList(), cache.lookup(subscribed, 0));
+        //Doesn't wait for a conversion with a later deadline
+        assertNull(cache.lookup(urgent, 1));
+
+        final List<IPartialResult> copies = new ArrayList<>(cache.offer(createPartial(converted, 0)));
+        //Received twice, e.g. from a straggler converted again
+        assertTrue(cache.offer(createPartial(converted, 0)).isEmpty());
+        copies.addAll(cache.offer(createPartial(converted, 1)));
+        assertEquals(Collections.singletonMap(subscribed.getEntryIdentifier(), Arrays.asList(0, 1)), byEntry(copies));
+        assertEquals("<p>@misc{same}0</p>", copies.get(0).getContent());
+
+        //The conversion is finished
+        assertTrue(cache.offer(createPartial(converted, 1)).isEmpty());
+        assertEquals(2, cache.lookup(createEntry("fourth", 0, "@misc{same}"), 0).size());
+    }
+
+    @Test
+    public void handsAConversionOverToTheFirstSubscriberOfAnotherRequest() {
+        final IEntry converted = createEntry("first", 0, "@misc{same}");
+        final IEntry takingOver = createEntry("second", 0, "@misc{same}");
+        final IEntry subscribed = createEntry("third", 0, "@misc{same}");
+        assertNull(cache.lookup(converted, 0));
+        cache.lookup(takingOver, 0);
+        cache.lookup(subscribed, 0);
+
+        assertEquals(Collections.singletonMap(takingOver, 0L), cache.forgetRequest("first"));
+        //Partials of the closed request are ignored
+        assertTrue(cache.offer(createPartial(converted, 0)).isEmpty());
+        final List<IPartialResult> copies = new ArrayList<>(cache.offer(createPartial(takingOver, 0)));
+        copies.addAll(cache.offer(createPartial(takingOver, 1)));
+        assertEquals(Collections.singletonMap(subscribed.getEntryIdentifier(), Arrays.asList(0, 1)), byEntry(copies));
+    }
+
+    @Test
+    public void dropsTheSubscribersOfAClosedRequest() {
+        final IEntry converted = createEntry("first", 0, "@misc{same}");
+        assertNull(cache.lookup(converted, 0));
+        cache.lookup(createEntry("second", 0, "@misc{same}"), 0);
+
+        assertTrue(cache.forgetRequest("second").isEmpty());
+        assertTrue(cache.offer(createPartial(converted, 0)).isEmpty());
+        assertTrue(cache.offer(createPartial(converted, 1)).isEmpty());
+    }
+}
@@ -0,0 +1,171 @@
+package server.modules;
+
+import global.identifiers.EntryIdentifier;
+import global.identifiers.PartialResultIdentifier;
+import global.model.*;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import server.events.FinishedCollectingResultEvent;
+import server.events.RequestStoppedEvent;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author daan
+ *         <p>
+ *         Tests the replay of the RequestJournal after a restart, incl. journals with records it can't read and
+ *         records torn by a crash.
+ */
+public class TestRequestJournal {
+
+    private Path directory, journalPath;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("requestjournal");
+        journalPath = directory.resolve("requestjournal.dat");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        for (Path file : Files.list(directory).toArray(Path[]::new))
+            Files.delete(file);
+        Files.delete(directory);
+    }
+
+    private static IClientRequest createRequest(String requestID, int entryCount) {
+        final List<IEntry> entries = new ArrayList<>();
+        for (int position = 0; position < entryCount; position++) {
+            entries.add(new DefaultEntry.Builder("client")
+                    .requestID(requestID)
+                    .content("@misc{entry" + position + "}")
+                    .cslFiles(new ArrayList<>())
+                    .templateFiles(new ArrayList<>())
+                    .bibFileIndex(0)
+                    .positionInBibFile(position)
+                    .build());
+        }
+        return new DefaultClientRequest("key", "client", requestID, entries, 0, false);
+    }
+
+    private static IPartialResult createPartial(String requestID, int position) {
+        return new DefaultPartialResult("<p>" + position + "</p>",
+                new PartialResultIdentifier(new EntryIdentifier("client", requestID, 0, position), -1, -1));
+    }
+
+    private void appendBytes(byte[] bytes) throws IOException {
+        Files.write(journalPath, bytes, StandardOpenOption.APPEND);
+    }
+
+    private static byte[] lengthPrefixed(byte[] content, int length) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream dataStream = new DataOutputStream(bytes);
+        dataStream.writeInt(length);
+        dataStream.write(content);
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void replaysOpenRequestsWithTheirPartials() throws IOException {
+        final RequestJournal journal = new RequestJournal(journalPath);
+        assertEquals(0, journal.replay().size());
+        journal.recordAccepted(createRequest("open", 3), "replyQueue", "correlation");
+        journal.recordAccepted(createRequest("stopped", 2), "replyQueue", "correlation");
+        journal.recordPartialResult(createPartial("open", 1));
+        journal.recordPartialResult(createPartial("stopped", 0));
+        journal.notify(new RequestStoppedEvent("stopped"));
+        //Not accepted, so not recorded
+        journal.recordPartialResult(createPartial("unknown", 0));
+
+        final List<RequestJournal.RecoveredRequest> recovered = new RequestJournal(journalPath).replay();
+        assertEquals(1, recovered.size());
+        final RequestJournal.RecoveredRequest request = recovered.get(0);
+        assertEquals("open", request.getRequest().getRequestID());
+        assertEquals("replyQueue", request.getReplyTo());
+        assertEquals("correlation", request.getCorrelationID());
+        assertEquals(1, request.getPartialResults().size());
+        final List<Integer> missingPositions = new ArrayList<>();
+        request.getMissingEntries().forEach(entry -> missingPositions.add(entry.getEntryIdentifier().getPositionInBibFile()));
+        assertEquals(Arrays.asList(0, 2), missingPositions);
+    }
+
+    @Test
+    public void skipsUnreadableRecordsWithoutTruncating() throws IOException {
+        final RequestJournal journal = new RequestJournal(journalPath);
+        journal.replay();
+        journal.recordAccepted(createRequest("open", 2), "replyQueue", "correlation");
+        //A record written by a build whose classes don't match this one
+        appendBytes(lengthPrefixed(new byte[]{(byte) 0xAC, (byte) 0xED, 0, 5, 1, 2, 3, 4}, 8));
+        journal.recordPartialResult(createPartial("open", 0));
+        final long journalLength = Files.size(journalPath);
+
+        final List<RequestJournal.RecoveredRequest> recovered = new RequestJournal(journalPath).replay();
+        assertEquals(1, recovered.size());
+        assertEquals(1, recovered.get(0).getPartialResults().size());
+        assertEquals(journalLength, Files.size(journalPath));
+    }
+
+    @Test
+    public void truncatesARecordTornByACrash() throws IOException {
+        final RequestJournal journal = new RequestJournal(journalPath);
+        journal.replay();
+        journal.recordAccepted(createRequest("open", 2), "replyQueue", "correlation");
+        final long journalLength = Files.size(journalPath);
+        appendBytes(lengthPrefixed(new byte[]{(byte) 0xAC, (byte) 0xED, 0, 5}, 1000));
+
+        final RequestJournal restartedJournal = new RequestJournal(journalPath);
+        assertEquals(1, restartedJournal.replay().size());
+        assertEquals(journalLength, Files.size(journalPath));
+        //Appending continues after the last complete record
+        restartedJournal.recordPartialResult(createPartial("open", 0));
+        assertEquals(1, new RequestJournal(journalPath).replay().get(0).getPartialResults().size());
+    }
+
+    @Test
+    public void compactionDropsTheRecordsOfClosedRequests() throws IOException {
+        final RequestJournal journal = new RequestJournal(journalPath);
+        journal.replay();
+        journal.recordAccepted(createRequest("stopped", 2), "replyQueue", "correlation");
+        journal.recordAccepted(createRequest("open", 2), "replyQueue", "correlation");
+        journal.recordPartialResult(createPartial("stopped", 0));
+        journal.recordPartialResult(createPartial("open", 0));
+        final long journalLength = Files.size(journalPath);
+        journal.notify(new RequestStoppedEvent("stopped"));
+
+        journal.compact();
+        assertTrue(Files.size(journalPath) < journalLength);
+        //Appending continues on the compacted journal
+        journal.recordPartialResult(createPartial("open", 1));
+        final List<RequestJournal.RecoveredRequest> recovered = new RequestJournal(journalPath).replay();
+        assertEquals(1, recovered.size());
+        assertEquals("open", recovered.get(0).getRequest().getRequestID());
+        assertEquals(2, recovered.get(0).getPartialResults().size());
+        assertEquals(0, recovered.get(0).getMissingEntries().size());
+    }
+
+    @Test
+    public void closesARequestOnlyOnceItsResultIsPublished() throws IOException {
+        final RequestJournal journal = new RequestJournal(journalPath);
+        journal.replay();
+        journal.recordAccepted(createRequest("finished", 1), "replyQueue", "correlation");
+        journal.recordPartialResult(createPartial("finished", 0));
+        //A crash between collecting and publishing the result resumes the request
+        journal.notify(new FinishedCollectingResultEvent(new DefaultResult("client", "finished", new ArrayList<>(), new ArrayList<>())));
+        assertEquals(1, new RequestJournal(journalPath).replay().size());
+
+        journal.recordResultPublished("finished");
+        assertEquals(0, new RequestJournal(journalPath).replay().size());
+    }
+}
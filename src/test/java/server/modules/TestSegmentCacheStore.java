@@ -0,0 +1,150 @@
+package server.modules;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author daan
+ *         <p>
+ *         Tests the SegmentCacheStore across reopening: records torn by a crash, eviction beyond the size cap and
+ *         compaction of the segments.
+ */
+public class TestSegmentCacheStore {
+
+    //Header, a one character key and a seven character value
+    private static final int RECORD_SIZE = 12 + 1 + 7;
+    private static final Path FIRST_SEGMENT = Paths.get("segment-00000000.dat");
+
+    private Path directory;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("segmentcachestore");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        for (Path file : Files.list(directory).toArray(Path[]::new))
+            Files.delete(file);
+        Files.delete(directory);
+    }
+
+    private static void put(SegmentCacheStore store, String... keys) throws IOException {
+        for (String key : keys)
+            store.put(key, "value-" + key);
+    }
+
+    @Test
+    public void reopensWithTheStoredRecords() throws IOException {
+        final SegmentCacheStore store = new SegmentCacheStore(directory, 1024);
+        put(store, "a", "b");
+        store.put("a", "value-c");
+        store.close();
+
+        final SegmentCacheStore reopenedStore = new SegmentCacheStore(directory, 1024);
+        assertEquals(2, reopenedStore.getEntryCount());
+        assertEquals(2 * RECORD_SIZE, reopenedStore.getLiveSize());
+        assertEquals("value-c", reopenedStore.get("a"));
+        assertEquals("value-b", reopenedStore.get("b"));
+        reopenedStore.close();
+    }
+
+    @Test
+    public void cutsOffARecordTornByACrash() throws IOException {
+        final SegmentCacheStore store = new SegmentCacheStore(directory, 1024);
+        put(store, "a", "b");
+        store.close();
+        try (FileChannel channel = FileChannel.open(directory.resolve(FIRST_SEGMENT), StandardOpenOption.WRITE)) {
+            channel.truncate(2 * RECORD_SIZE - 3);
+        }
+
+        final SegmentCacheStore reopenedStore = new SegmentCacheStore(directory, 1024);
+        assertEquals("value-a", reopenedStore.get("a"));
+        assertNull(reopenedStore.get("b"));
+        assertEquals(RECORD_SIZE, reopenedStore.getDiskSize());
+        //Appending continues after the last intact record
+        put(reopenedStore, "c");
+        reopenedStore.close();
+        assertEquals("value-c", new SegmentCacheStore(directory, 1024).get("c"));
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedRecordsBeyondTheCap() throws IOException {
+        final SegmentCacheStore store = new SegmentCacheStore(directory, 2 * RECORD_SIZE);
+        put(store, "a", "b");
+        store.get("a");
+        put(store, "c");
+        assertEquals(1, store.getEvictions());
+        assertEquals(2 * RECORD_SIZE, store.getLiveSize());
+        assertNull(store.get("b"));
+        assertEquals("value-a", store.get("a"));
+        store.close();
+
+        //The eviction is persisted, nothing has to be evicted on opening
+        final SegmentCacheStore reopenedStore = new SegmentCacheStore(directory, 2 * RECORD_SIZE);
+        assertEquals(0, reopenedStore.getEvictions());
+        assertNull(reopenedStore.get("b"));
+        assertEquals("value-a", reopenedStore.get("a"));
+        assertEquals("value-c", reopenedStore.get("c"));
+        reopenedStore.close();
+    }
+
+    @Test
+    public void compactsSegmentsWithFewLiveRecords() throws IOException {
+        //One record per segment
+        final SegmentCacheStore store = new SegmentCacheStore(directory, 1024, RECORD_SIZE);
+        put(store, "a", "b");
+        store.put("a", "value-c");
+        final long diskSize = store.getDiskSize();
+        assertEquals(1, store.compact());
+        assertEquals(0, store.compact());
+        assertEquals(diskSize - RECORD_SIZE, store.getDiskSize());
+        assertFalse(Files.exists(directory.resolve(FIRST_SEGMENT)));
+        assertEquals("value-c", store.get("a"));
+        assertEquals("value-b", store.get("b"));
+        store.close();
+
+        final SegmentCacheStore reopenedStore = new SegmentCacheStore(directory, 1024, RECORD_SIZE);
+        assertEquals(2, reopenedStore.getEntryCount());
+        assertEquals("value-c", reopenedStore.get("a"));
+        assertEquals("value-b", reopenedStore.get("b"));
+        reopenedStore.close();
+    }
+
+    @Test
+    public void keepsEvictedRecordsEvictedAfterCompaction() throws IOException {
+        //Two records per segment
+        final SegmentCacheStore store = new SegmentCacheStore(directory, 2 * RECORD_SIZE, 2 * RECORD_SIZE);
+        put(store, "a", "x");
+        //Evicts a, its tombstone follows c in the second segment
+        put(store, "c");
+        store.put("c", "value-d");
+        store.get("x");
+        //Evicts c, so only the tombstone of a is left in the second segment
+        put(store, "y");
+        assertEquals(2, store.getEvictions());
+        //The second segment is deleted, the first one still holds a
+        assertEquals(1, store.compact());
+        assertTrue(Files.exists(directory.resolve(FIRST_SEGMENT)));
+        store.close();
+
+        final SegmentCacheStore reopenedStore = new SegmentCacheStore(directory, 2 * RECORD_SIZE, 2 * RECORD_SIZE);
+        assertEquals(0, reopenedStore.getEvictions());
+        assertEquals(2, reopenedStore.getEntryCount());
+        assertNull(reopenedStore.get("a"));
+        assertNull(reopenedStore.get("c"));
+        assertEquals("value-x", reopenedStore.get("x"));
+        assertEquals("value-y", reopenedStore.get("y"));
+        reopenedStore.close();
+    }
+}